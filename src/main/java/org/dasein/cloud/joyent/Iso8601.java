@@ -0,0 +1,154 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.joyent;
+
+import javax.annotation.Nonnull;
+import java.text.ParseException;
+
+/**
+ * Parses the ISO-8601 timestamps returned by CloudAPI and Manta, such as {@code 2015-06-01T12:30:45.123Z} or
+ * {@code 2015-06-01T12:30:45+02:00}, directly into epoch milliseconds. Fractions of any length are accepted (digits
+ * beyond milliseconds are dropped), as are {@code Z} and signed {@code hh:mm}, {@code hhmm} or {@code hh} offsets.
+ * A timestamp without an offset is taken to be UTC.
+ * @author Dell, Inc
+ */
+public final class Iso8601 {
+    private Iso8601() { }
+
+    /**
+     * @param value the timestamp to parse
+     * @return the number of milliseconds since the epoch
+     * @throws ParseException the value is not a timestamp in one of the supported forms
+     */
+    public static long parse(@Nonnull String value) throws ParseException {
+        int len = value.length();
+
+        if( len < 19 || value.charAt(4) != '-' || value.charAt(7) != '-' || value.charAt(13) != ':' || value.charAt(16) != ':' ) {
+            throw new ParseException("Not an ISO-8601 timestamp: " + value, 0);
+        }
+        char sep = value.charAt(10);
+
+        if( sep != 'T' && sep != 't' && sep != ' ' ) {
+            throw new ParseException("Not an ISO-8601 timestamp: " + value, 10);
+        }
+        int year = digits(value, 0, 4);
+        int month = digits(value, 5, 2);
+        int day = digits(value, 8, 2);
+        int hour = digits(value, 11, 2);
+        int minute = digits(value, 14, 2);
+        int second = digits(value, 17, 2);
+
+        if( month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month) || hour > 23 || minute > 59 || second > 60 ) {
+            throw new ParseException("Timestamp out of range: " + value, 0);
+        }
+        int pos = 19;
+        int millis = 0;
+
+        if( pos < len && value.charAt(pos) == '.' ) {
+            int scale = 100;
+
+            pos++;
+            if( pos >= len || !isDigit(value.charAt(pos)) ) {
+                throw new ParseException("Missing fraction in timestamp: " + value, pos);
+            }
+            while( pos < len && isDigit(value.charAt(pos)) ) {
+                millis += ( value.charAt(pos) - '0' ) * scale;
+                scale /= 10;
+                pos++;
+            }
+        }
+        int offsetMinutes = 0;
+
+        if( pos < len ) {
+            char c = value.charAt(pos);
+
+            if( c == 'Z' || c == 'z' ) {
+                pos++;
+            }
+            else if( c == '+' || c == '-' ) {
+                int sign = ( c == '-' ? -1 : 1 );
+                int hours = digits(value, pos + 1, 2);
+                int minutes = 0;
+
+                pos += 3;
+                if( pos < len && value.charAt(pos) == ':' ) {
+                    pos++;
+                }
+                if( pos < len ) {
+                    minutes = digits(value, pos, 2);
+                    pos += 2;
+                }
+                if( hours > 23 || minutes > 59 ) {
+                    throw new ParseException("Offset out of range: " + value, pos);
+                }
+                offsetMinutes = sign * ( hours * 60 + minutes );
+            }
+            if( pos != len ) {
+                throw new ParseException("Unexpected characters in timestamp: " + value, pos);
+            }
+        }
+        long days = daysFromEpoch(year, month, day);
+        long seconds = days * 86400L + hour * 3600L + ( minute - offsetMinutes ) * 60L + second;
+
+        return seconds * 1000L + millis;
+    }
+
+    private static boolean isDigit(char c) {
+        return ( c >= '0' && c <= '9' );
+    }
+
+    private static int digits(@Nonnull String value, int start, int count) throws ParseException {
+        if( start + count > value.length() ) {
+            throw new ParseException("Truncated timestamp: " + value, start);
+        }
+        int n = 0;
+
+        for( int i=start; i<start+count; i++ ) {
+            char c = value.charAt(i);
+
+            if( !isDigit(c) ) {
+                throw new ParseException("Unexpected character in timestamp: " + value, i);
+            }
+            n = n * 10 + ( c - '0' );
+        }
+        return n;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        switch( month ) {
+            case 2: return ( (year % 4 == 0 && year % 100 != 0) || year % 400 == 0 ) ? 29 : 28;
+            case 4: case 6: case 9: case 11: return 30;
+            default: return 31;
+        }
+    }
+
+    /**
+     * Days between 1970-01-01 and the given proleptic Gregorian date, counting from March so leap days fall last.
+     */
+    private static long daysFromEpoch(int year, int month, int day) {
+        long y = ( month <= 2 ? year - 1 : year );
+        long era = ( y >= 0 ? y : y - 399 ) / 400;
+        long yearOfEra = y - era * 400;
+        long dayOfYear = ( 153 * ( month > 2 ? month - 3 : month + 9 ) + 2 ) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+
+        return era * 146097 + dayOfEra - 719468;
+    }
+}
@@ -108,7 +108,7 @@ public class JoyentDataCenter implements DataCenterServices {
 
     @Override
     public @Nonnull Collection<Region> listRegions() throws InternalException, CloudException {
-        JoyentMethod method = new JoyentMethod(provider);        
+        JoyentMethod method = provider.getMethod();        
         String json = method.doGetJson(provider.getEndpoint(), "datacenters");
 
         try {
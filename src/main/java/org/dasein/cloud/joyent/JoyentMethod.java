@@ -51,15 +51,28 @@ public class JoyentMethod {
     static private final ContentType APPLICATION_JSON_UTF8 = ContentType.create("application/json", "UTF-8");        
     static public final String VERSION = "~7.1";
     
-    private JoyentClientFactory clientFactory;
-    private JoyentHttpAuth httpAuth;
-    private RequestTrackingStrategy strategy;
+    private final JoyentClientFactory clientFactory;
+    private final JoyentHttpAuth httpAuth;
+    private final RequestTrackingStrategy strategy;
     
     public JoyentMethod(@Nonnull SmartDataCenter provider) {
-        this.clientFactory = new DefaultClientFactory(provider.getContext());
-        this.httpAuth = new SignatureHttpAuth(provider);
+        this.clientFactory = provider.getClientFactory();
+        this.httpAuth = provider.getHttpAuth();
         this.strategy = provider.getContext().getRequestTrackingStrategy();
     }
+
+    /**
+     * Releases the connection behind a response whose body is not otherwise read, returning it to the pool.
+     * @param response the response to release
+     */
+    private void release(@Nonnull HttpResponse response) {
+        try {
+            EntityUtils.consume(response.getEntity());
+        }
+        catch( IOException e ) {
+            logger.debug("Failed to release connection: " + e.getMessage());
+        }
+    }
     
     public void doDelete(@Nonnull String endpoint, @Nonnull String resource) throws CloudException, InternalException {
         if( logger.isTraceEnabled() ) {
@@ -140,6 +153,7 @@ public class JoyentMethod {
                 throw new JoyentException(items);
             }
             else {
+                release(response);
                 wire.debug("");
             }
         }
@@ -201,6 +215,7 @@ public class JoyentMethod {
             logger.debug("HTTP STATUS: " + code);
 
             if( code == HttpStatus.SC_NOT_FOUND || code == HttpStatus.SC_GONE ) {
+                release(response);
                 return null;
             }
             if( code != HttpStatus.SC_NO_CONTENT && code != HttpStatus.SC_OK && code != HttpStatus.SC_NON_AUTHORITATIVE_INFORMATION ) {
@@ -310,6 +325,7 @@ public class JoyentMethod {
             logger.debug("HTTP STATUS: " + code);
 
             if( code == HttpStatus.SC_NOT_FOUND ) {
+                release(response);
                 return null;
             }
             if( code != HttpStatus.SC_OK && code != HttpStatus.SC_NON_AUTHORITATIVE_INFORMATION ) {
@@ -690,6 +706,7 @@ public class JoyentMethod {
                 }
             }
             if( responseHash != null && md5Hash != null && !responseHash.equals(md5Hash) ) {
+                release(response);
                 throw new CloudException("MD5 hash values do not match, probably data corruption");
             }
             if( code != HttpStatus.SC_ACCEPTED && code != HttpStatus.SC_NO_CONTENT && code != HttpStatus.SC_CREATED ) {
@@ -1069,6 +1086,7 @@ public class JoyentMethod {
                 }
             }
             if( responseHash != null && md5Hash != null && !responseHash.equals(md5Hash) ) {
+                release(response);
                 throw new CloudException("MD5 hash values do not match, probably data corruption");
             }
 
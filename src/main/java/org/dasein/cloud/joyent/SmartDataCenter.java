@@ -20,16 +20,31 @@
 package org.dasein.cloud.joyent;
 
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.log4j.Logger;
 import org.dasein.cloud.*;
+import org.dasein.cloud.compute.Architecture;
+import org.dasein.cloud.compute.ImageFilterOptions;
 import org.dasein.cloud.joyent.compute.JoyentComputeServices;
+import org.dasein.cloud.joyent.compute.Machine;
+import org.dasein.cloud.joyent.storage.Manta;
 import org.dasein.cloud.joyent.storage.MantaStorageServices;
+import org.dasein.cloud.storage.BlobStoreSupport;
 import org.dasein.cloud.storage.StorageServices;
+import org.dasein.security.joyent.DefaultClientFactory;
+import org.dasein.security.joyent.JoyentClientFactory;
+import org.dasein.security.joyent.JoyentHttpAuth;
+import org.dasein.security.joyent.SignatureHttpAuth;
+import org.dasein.util.NamedThreadFactory;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -63,16 +78,98 @@ public class SmartDataCenter extends AbstractCloud {
         return Logger.getLogger("dasein.cloud.joyent." + type + "." + pkg + getLastItem(cls.getName()));
     }
     
+    private transient volatile JoyentClientFactory   clientFactory;
+    private transient volatile SignatureHttpAuth     httpAuth;
+    private transient volatile JoyentMethod          method;
+    private transient volatile JoyentComputeServices computeServices;
+    private transient volatile MantaStorageServices  storageServices;
+    private transient volatile JoyentDataCenter      dataCenterServices;
+
     public SmartDataCenter() { }
 
+    /**
+     * @return the HTTP client factory shared by all CloudAPI requests made through this provider
+     */
+    public @Nonnull JoyentClientFactory getClientFactory() {
+        if( clientFactory == null ) {
+            synchronized( this ) {
+                if( clientFactory == null ) {
+                    clientFactory = new DefaultClientFactory(getContext());
+                }
+            }
+        }
+        return clientFactory;
+    }
+
+    /**
+     * Releases the pooled CloudAPI connections of this provider. The shared Manta clients are released when the JVM
+     * shuts down.
+     */
     @Override
-    public @Nonnull synchronized StorageServices getStorageServices() {
-        return new MantaStorageServices(this);
+    public void close() {
+        JoyentClientFactory factory;
+
+        synchronized( this ) {
+            factory = clientFactory;
+            clientFactory = null;
+            method = null;
+        }
+        if( factory instanceof DefaultClientFactory ) {
+            (( DefaultClientFactory ) factory).close();
+        }
+        super.close();
+    }
+
+    /**
+     * @return the request signer shared by all CloudAPI requests made through this provider
+     */
+    public @Nonnull JoyentHttpAuth getHttpAuth() {
+        if( httpAuth == null ) {
+            synchronized( this ) {
+                if( httpAuth == null ) {
+                    httpAuth = new SignatureHttpAuth(this);
+                }
+            }
+        }
+        return httpAuth;
+    }
+
+    /**
+     * @return the CloudAPI method helper shared by all services of this provider
+     */
+    public @Nonnull JoyentMethod getMethod() {
+        if( method == null ) {
+            synchronized( this ) {
+                if( method == null ) {
+                    method = new JoyentMethod(this);
+                }
+            }
+        }
+        return method;
+    }
+
+    @Override
+    public @Nonnull StorageServices getStorageServices() {
+        if( storageServices == null ) {
+            synchronized( this ) {
+                if( storageServices == null ) {
+                    storageServices = new MantaStorageServices(this);
+                }
+            }
+        }
+        return storageServices;
     }
 
     @Override
     public @Nonnull JoyentComputeServices getComputeServices() {
-        return new JoyentComputeServices(this);
+        if( computeServices == null ) {
+            synchronized( this ) {
+                if( computeServices == null ) {
+                    computeServices = new JoyentComputeServices(this);
+                }
+            }
+        }
+        return computeServices;
     }
 
     public static final String DSN_SSH_KEY          = "sshKey";
@@ -85,7 +182,24 @@ public class SmartDataCenter extends AbstractCloud {
                 new ContextRequirements.Field(DSN_SSH_KEY_PASSWORD, "Password of ssh key uploaded to Joyent", ContextRequirements.FieldType.PASSWORD, ContextRequirements.Field.ACCESS_KEYS, false),
                 new ContextRequirements.Field("storageUrl", "Manta Storage URL", ContextRequirements.FieldType.TEXT, false),
                 new ContextRequirements.Field("proxyHost", "Proxy host", ContextRequirements.FieldType.TEXT, false),
-                new ContextRequirements.Field("proxyPort", "Proxy port", ContextRequirements.FieldType.TEXT, false)
+                new ContextRequirements.Field("proxyPort", "Proxy port", ContextRequirements.FieldType.TEXT, false),
+                new ContextRequirements.Field(Manta.CUSTOM_PROP_STORAGE_TIMEOUT, "Manta HTTP timeout in milliseconds", ContextRequirements.FieldType.TEXT, false),
+                new ContextRequirements.Field(Manta.CUSTOM_PROP_MULTIPART_THRESHOLD, "File size in bytes from which uploads are split into parts", ContextRequirements.FieldType.TEXT, false),
+                new ContextRequirements.Field(Manta.CUSTOM_PROP_PART_SIZE, "Size in bytes of multipart upload parts", ContextRequirements.FieldType.TEXT, false),
+                new ContextRequirements.Field(Manta.CUSTOM_PROP_UPLOAD_PARALLELISM, "Number of upload parts sent at the same time", ContextRequirements.FieldType.TEXT, false),
+                new ContextRequirements.Field(Manta.CUSTOM_PROP_RANGE_SIZE, "Size in bytes of the ranges large objects are downloaded in", ContextRequirements.FieldType.TEXT, false),
+                new ContextRequirements.Field(Manta.CUSTOM_PROP_DOWNLOAD_PARALLELISM, "Number of download ranges fetched at the same time", ContextRequirements.FieldType.TEXT, false),
+                new ContextRequirements.Field(Manta.CUSTOM_PROP_DELETE_PARALLELISM, "Number of objects deleted at the same time when removing a directory", ContextRequirements.FieldType.TEXT, false),
+                new ContextRequirements.Field(Manta.CUSTOM_PROP_TRANSFER_THREADS, "Number of storage transfers run at the same time", ContextRequirements.FieldType.TEXT, false),
+                new ContextRequirements.Field(Manta.CUSTOM_PROP_WORKER_THREADS, "Number of threads sending the parts and ranges of storage transfers", ContextRequirements.FieldType.TEXT, false),
+                new ContextRequirements.Field(Manta.CUSTOM_PROP_GLOBAL_TRANSFER_LIMIT, "Number of storage transfers of all accounts run at the same time in the JVM", ContextRequirements.FieldType.TEXT, false),
+                new ContextRequirements.Field(Manta.CUSTOM_PROP_TRANSFER_PRIORITY, "Priority of storage transfers (INTERACTIVE, NORMAL or BACKGROUND)", ContextRequirements.FieldType.TEXT, false),
+                new ContextRequirements.Field(Manta.CUSTOM_PROP_BANDWIDTH_LIMIT, "Bytes per second all storage transfers in the JVM may use", ContextRequirements.FieldType.TEXT, false),
+                new ContextRequirements.Field(Manta.CUSTOM_PROP_BACKGROUND_BANDWIDTH_LIMIT, "Bytes per second all background storage transfers in the JVM may use", ContextRequirements.FieldType.TEXT, false),
+                new ContextRequirements.Field(Manta.CUSTOM_PROP_RESUMABLE_TRANSFERS, "Whether interrupted storage transfers are resumed (true or false)", ContextRequirements.FieldType.TEXT, false),
+                new ContextRequirements.Field(DefaultClientFactory.CUSTOM_PROP_MAX_CONNECTIONS, "Maximum pooled HTTP connections", ContextRequirements.FieldType.TEXT, false),
+                new ContextRequirements.Field(DefaultClientFactory.CUSTOM_PROP_MAX_CONNECTIONS_PER_ROUTE, "Maximum pooled HTTP connections per endpoint", ContextRequirements.FieldType.TEXT, false),
+                new ContextRequirements.Field(Machine.CUSTOM_PROP_LAZY_VM_LISTING, "Resolve VM image, platform and product on first access (true/false)", ContextRequirements.FieldType.TEXT, false)
         );
     }
     
@@ -96,14 +210,36 @@ public class SmartDataCenter extends AbstractCloud {
     
     @Override
     public @Nonnull JoyentDataCenter getDataCenterServices() {
-        return new JoyentDataCenter(this);
+        if( dataCenterServices == null ) {
+            synchronized( this ) {
+                if( dataCenterServices == null ) {
+                    dataCenterServices = new JoyentDataCenter(this);
+                }
+            }
+        }
+        return dataCenterServices;
     }
     
-    static private final HashMap<String,Map<String,String>> endpointCache = new HashMap<String,Map<String,String>>();
+    static private final ConcurrentHashMap<String,Map<String,String>> endpointCache = new ConcurrentHashMap<String,Map<String,String>>();
     
     public @Nonnull String getEndpoint() throws CloudException, InternalException {
         ProviderContext ctx = getContext();
 
+        if( ctx == null ) {
+            throw new CloudException("No context has been established for this request");
+        }
+        return getEndpoint(ctx.getRegionId());
+    }
+
+    /**
+     * @param r the region (Joyent data center) to look up, or null for the configured endpoint
+     * @return the CloudAPI endpoint of the region
+     * @throws CloudException the region is unknown or the data center list could not be fetched
+     * @throws InternalException an error occurred within Dasein Cloud looking up the endpoint
+     */
+    public @Nonnull String getEndpoint(@Nullable String r) throws CloudException, InternalException {
+        ProviderContext ctx = getContext();
+
         if( ctx == null ) {
             throw new CloudException("No context has been established for this request");
         }
@@ -117,8 +253,6 @@ public class SmartDataCenter extends AbstractCloud {
         if( parts == null || parts.length < 1 ) {
             parts = new String[] { e };
         }
-        String r = ctx.getRegionId();
-        
         if( r == null ) {
             return parts[0];
         }
@@ -133,7 +267,7 @@ public class SmartDataCenter extends AbstractCloud {
                 }
             }
         }
-        JoyentMethod method = new JoyentMethod(this);
+        JoyentMethod method = getMethod();
 
         String json = method.doGetJson(parts[0], "datacenters");
         try {
@@ -145,15 +279,12 @@ public class SmartDataCenter extends AbstractCloud {
                 
                 if( regionId.equals(r) && ob.has(regionId) ) {
                     String endpoint = ob.getString(regionId);
-                    Map<String,String> cache;
+                    Map<String,String> cache = endpointCache.get(e);
                     
-                    if( endpointCache.containsKey(e) ) {
+                    if( cache == null ) {
+                        endpointCache.putIfAbsent(e, new ConcurrentHashMap<String,String>());
                         cache = endpointCache.get(e);
                     }
-                    else {
-                        cache = new HashMap<String,String>();
-                        endpointCache.put(e, cache);
-                    }
                     cache.put(r, endpoint);
                     return endpoint;
                 }
@@ -171,36 +302,117 @@ public class SmartDataCenter extends AbstractCloud {
     }
     
     public @Nonnegative long parseTimestamp(String time) throws CloudException {
-        if( time == null ) {
+        if( time == null || time.length() == 0 ) {
             return 0L;
         }
-        int idx = time.lastIndexOf('+');
-        if (idx < 0) {
-            idx = time.lastIndexOf('Z');
-            if (idx < 0) {
-                throw new CloudException("Could not parse timestamp: " + time);
+        try {
+            return Iso8601.parse(time);
+        }
+        catch( ParseException e ) {
+            throw new CloudException("Could not parse timestamp: " + time, e);
+        }
+    }
+    
+    /**
+     * Opt-in warm-up of the resources the first operations against this provider would otherwise set up one after
+     * another: the regional endpoint is resolved and the signing key is parsed in parallel, after which the package
+     * list, the public image catalog and the Manta storage client are fetched in parallel over the pooled
+     * connections. Failures are logged and otherwise ignored, the affected resource is simply set up on first use.
+     * @return a future that completes when all warm-up steps have finished, with a value of true if all succeeded
+     */
+    public @Nonnull Future<Boolean> warmUp() {
+        final Logger logger = getLogger(SmartDataCenter.class, "std");
+        final ExecutorService executor = Executors.newCachedThreadPool(new NamedThreadFactory(SmartDataCenter.class, " warm-up"));
+
+        try {
+            return executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    try {
+                        return warmUp(executor, logger);
+                    }
+                    finally {
+                        executor.shutdown();
+                    }
+                }
+            });
+        }
+        catch( RuntimeException e ) {
+            executor.shutdown();
+            throw e;
+        }
+    }
+
+    private boolean warmUp(@Nonnull ExecutorService executor, @Nonnull Logger logger) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        List<Callable<Void>> steps = new ArrayList<Callable<Void>>();
+
+        steps.add(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                getEndpoint();
+                return null;
+            }
+        });
+        steps.add(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                ((SignatureHttpAuth)getHttpAuth()).loadKeyPair();
+                return null;
             }
-            time = time.substring(0,idx);
-        } else {
-            time = time.substring(0,idx);
+        });
+        boolean ok = runAll(executor, steps, logger);
+
+        steps.clear();
+        steps.add(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                getComputeServices().getVirtualMachineSupport().listProducts(Architecture.I64);
+                return null;
+            }
+        });
+        steps.add(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                getComputeServices().getImageSupport().searchPublicImages(ImageFilterOptions.getInstance());
+                return null;
+            }
+        });
+        ProviderContext ctx = getContext();
+
+        if( ctx != null && ctx.getCustomProperties() != null && ctx.getCustomProperties().getProperty(Manta.CUSTOM_PROP_STORAGE_URL) != null ) {
+            steps.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    BlobStoreSupport support = getStorageServices().getOnlineStorageSupport();
+
+                    if( support != null ) {
+                        support.isSubscribed();
+                    }
+                    return null;
+                }
+            });
         }
-        SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
-        fmt.setTimeZone(TimeZone.getTimeZone("GMT"));
-        if( time.length() > 0 ) {
+        ok = runAll(executor, steps, logger) && ok;
+        logger.debug("Warm-up finished in " + (System.currentTimeMillis() - start) + "ms");
+        return ok;
+    }
+
+    private boolean runAll(@Nonnull ExecutorService executor, @Nonnull List<Callable<Void>> steps, @Nonnull Logger logger) throws InterruptedException {
+        boolean ok = true;
+
+        for( Future<Void> f : executor.invokeAll(steps) ) {
             try {
-                return fmt.parse(time).getTime();
-            } catch( ParseException e ) {
-                fmt = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS");
-                try {
-                    return fmt.parse(time).getTime();
-                } catch (ParseException e2) {
-                    throw new CloudException("Could not parse timestamp: " + time, e2);
-                }
+                f.get();
+            }
+            catch( ExecutionException e ) {
+                logger.warn("Warm-up step failed: " + e.getCause().getMessage(), e.getCause());
+                ok = false;
             }
         }
-        return 0L;
+        return ok;
     }
-    
+
     @Override
     public @Nullable String testContext() {
         Logger logger = getLogger(SmartDataCenter.class, "std");
@@ -217,7 +429,7 @@ public class SmartDataCenter extends AbstractCloud {
                 }
                 String pk = ctx.getAccountNumber();
 
-                JoyentMethod method = new JoyentMethod(this);
+                JoyentMethod method = getMethod();
                 
                 try {
                     method.doGetJson(getEndpoint(), "datacenters");
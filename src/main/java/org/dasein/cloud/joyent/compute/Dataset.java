@@ -19,6 +19,7 @@
 
 package org.dasein.cloud.joyent.compute;
 
+import org.apache.log4j.Logger;
 import org.dasein.cloud.AsynchronousTask;
 import org.dasein.cloud.CloudErrorType;
 import org.dasein.cloud.CloudException;
@@ -31,13 +32,25 @@ import org.dasein.cloud.joyent.JoyentMethod;
 import org.dasein.cloud.joyent.SmartDataCenter;
 import org.dasein.cloud.util.APITrace;
 import org.dasein.cloud.util.CacheLevel;
+import org.dasein.util.Jiterator;
+import org.dasein.util.JiteratorPopulator;
+import org.dasein.util.NamedThreadFactory;
+import org.dasein.util.PopulatorThread;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
 import java.util.regex.Pattern;
 
 public class Dataset extends AbstractImageSupport<SmartDataCenter> {
@@ -51,6 +64,26 @@ public class Dataset extends AbstractImageSupport<SmartDataCenter> {
             "ubuntu-certified-12.04"
     };
     private static final String OWNER_JOYENT = "--joyent--";
+    private static final long   REPLICATION_MIN_INTERVAL = 5000L;
+    private static final long   REPLICATION_MAX_INTERVAL = 60000L;
+    private static final long   REPLICATION_TIMEOUT      = 2L * 60L * 60L * 1000L;
+    private static final Logger logger = SmartDataCenter.getLogger(Dataset.class, "std");
+
+    /**
+     * Receives images as a query produces them.
+     */
+    private interface ImageSink {
+        void add( @Nonnull MachineImage image );
+    }
+
+    private static class ListSink implements ImageSink {
+        final List<MachineImage> images = new ArrayList<MachineImage>();
+
+        @Override
+        public void add( @Nonnull MachineImage image ) {
+            images.add(image);
+        }
+    }
     private volatile transient DatasetCapabilities capabilities;
 
     Dataset( @Nonnull SmartDataCenter sdc ) {
@@ -102,7 +135,7 @@ public class Dataset extends AbstractImageSupport<SmartDataCenter> {
             if( !getCapabilities().canImage(vm.getCurrentState()) ) {
                 throw new CloudException("Server must be stopped before making an image - current state: " + vm.getCurrentState());
             }
-            JoyentMethod method = new JoyentMethod(getProvider());
+            JoyentMethod method = getProvider().getMethod();
             Map<String, Object> post = new HashMap<String, Object>();
 
             post.put("machine", vmID);
@@ -113,23 +146,24 @@ public class Dataset extends AbstractImageSupport<SmartDataCenter> {
                 throw new CloudException("No image was created");
             }
 
-            MachineImage img = null;
+            String imageId;
             try {
                 JSONObject jsonObject = new JSONObject(json);
-                if( jsonObject.has("id") ) {
-                    img = getImage(jsonObject.getString("id"));
+                if( !jsonObject.has("id") ) {
+                    throw new CloudException("No image was created");
                 }
+                imageId = jsonObject.getString("id");
             } catch( JSONException e ) {
                 throw new CloudException(e);
             }
-            if( img == null ) {
-                throw new CloudException("No image was created");
-            }
+            getCatalog().invalidate();
 
+            // the image is still being created, the poller completes the task once it is active or has failed
             if( task != null ) {
-                task.completeWithResult(img);
+                task.setPercentComplete(10);
+                ImageCapturePoller.getInstance(getProvider()).track(this, imageId, task);
             }
-            return img;
+            return getImage(imageId);
         } finally {
             APITrace.end();
         }
@@ -137,7 +171,12 @@ public class Dataset extends AbstractImageSupport<SmartDataCenter> {
 
     @Override
     public MachineImage getImage( @Nonnull String providerImageId ) throws CloudException, InternalException {
-        JoyentMethod method = new JoyentMethod(getProvider());
+        MachineImage cached = getCatalog().peekPublic(providerImageId);
+
+        if( cached != null ) {
+            return cached;
+        }
+        JoyentMethod method = getProvider().getMethod();
 
         try {
             String json = method.doGetJson(getProvider().getEndpoint(), "images/" + providerImageId);
@@ -153,7 +192,7 @@ public class Dataset extends AbstractImageSupport<SmartDataCenter> {
 
     @Override
     public boolean isImageSharedWithPublic( @Nonnull String machineImageId ) throws CloudException, InternalException {
-        JoyentMethod method = new JoyentMethod(getProvider());
+        JoyentMethod method = getProvider().getMethod();
 
         try {
             String json = method.doGetJson(getProvider().getEndpoint(), "images/" + machineImageId);
@@ -182,7 +221,7 @@ public class Dataset extends AbstractImageSupport<SmartDataCenter> {
             }
         }
 
-        JoyentMethod method = new JoyentMethod(getProvider());
+        JoyentMethod method = getProvider().getMethod();
         try {
             method.doGetJson(getProvider().getEndpoint(), "images");
         } catch (JoyentException e) {
@@ -200,24 +239,23 @@ public class Dataset extends AbstractImageSupport<SmartDataCenter> {
     public @Nonnull Iterable<MachineImage> listImages( @Nullable ImageFilterOptions options ) throws CloudException, InternalException {
         APITrace.begin(getProvider(), "Image.listImages");
         try {
-            JoyentMethod method = new JoyentMethod(getProvider());
-
-            try {
-                JSONArray arr = new JSONArray(method.doGetJson(getProvider().getEndpoint(), "images?public=false"));
-                List<MachineImage> images = new ArrayList<MachineImage>();
-
-                for( int i = 0; i < arr.length(); i++ ) {
-                    JSONObject ob = arr.getJSONObject(i);
-                    MachineImage image = toMachineImage(ob);
+            return queryImages(false, options);
+        } finally {
+            APITrace.end();
+        }
+    }
 
-                    if( image != null && options.matches(image) ) {
-                        images.add(image);
-                    }
-                }
-                return images;
-            } catch( JSONException e ) {
-                throw new CloudException(e);
-            }
+    /**
+     * Lists the public and private images whose name starts with the given text, ignoring case.
+     * @param namePrefix the start of the image name
+     * @return the matching images, ordered by name
+     * @throws CloudException an error occurred with the cloud provider while loading the image catalog
+     * @throws InternalException an error occurred within Dasein Cloud while loading the image catalog
+     */
+    public @Nonnull Iterable<MachineImage> listImagesByNamePrefix( @Nonnull String namePrefix ) throws CloudException, InternalException {
+        APITrace.begin(getProvider(), "Image.listImagesByNamePrefix");
+        try {
+            return getCatalog().findByNamePrefix(this, namePrefix);
         } finally {
             APITrace.end();
         }
@@ -238,9 +276,10 @@ public class Dataset extends AbstractImageSupport<SmartDataCenter> {
     public void remove( @Nonnull String providerImageId, boolean checkState ) throws CloudException, InternalException {
         APITrace.begin(getProvider(), "Image.remove");
         try {
-            JoyentMethod method = new JoyentMethod(getProvider());
+            JoyentMethod method = getProvider().getMethod();
 
             method.doDelete(getProvider().getEndpoint(), "images/" + providerImageId);
+            getCatalog().invalidate();
         } finally {
             APITrace.end();
         }
@@ -248,32 +287,355 @@ public class Dataset extends AbstractImageSupport<SmartDataCenter> {
 
     @Override
     public @Nonnull Iterable<MachineImage> searchPublicImages( @Nonnull ImageFilterOptions options ) throws CloudException, InternalException {
-        JoyentMethod method = new JoyentMethod(getProvider());
+        return queryImages(true, options);
+    }
 
-        try {
-            JSONArray arr = new JSONArray(method.doGetJson(getProvider().getEndpoint(), "images?public=true"));
-            List<MachineImage> images = new ArrayList<MachineImage>();
+    /**
+     * Answers an image query from the catalog once it is loaded. Until then, a filter that must match on every
+     * criterion sends its platform to CloudAPI as a query parameter so that only the candidate images are
+     * transferred and converted. A regex is always applied here, since it may match the description or ID of an
+     * image rather than its name.
+     * @param publicImages true to search public images, false for the images of the account
+     * @param options the filter to apply, or null for all images
+     * @return the matching images
+     */
+    private @Nonnull List<MachineImage> queryImages( boolean publicImages, @Nullable ImageFilterOptions options ) throws CloudException, InternalException {
+        ListSink sink = new ListSink();
+
+        queryImages(publicImages, options, sink);
+        return sink.images;
+    }
 
+    private void queryImages( boolean publicImages, @Nullable ImageFilterOptions options, @Nonnull ImageSink sink ) throws CloudException, InternalException {
+        ImageCatalog catalog = getCatalog();
+
+        // with matchesAny, an image failing a pushed-down criterion may still match on another one
+        if( options == null || options.isMatchesAny() || catalog.isLoaded() ) {
+            for( MachineImage image : catalog.query(this, publicImages, options) ) {
+                sink.add(image);
+            }
+            return;
+        }
+        // owners are not CloudAPI owner UUIDs but are derived from visibility, so an account filter is resolved here
+        String owner = ( publicImages ? OWNER_JOYENT : getContext().getAccountNumber() );
+
+        if( options.getAccountNumber() != null && !options.getAccountNumber().equals(owner) ) {
+            return;
+        }
+        String os = toOsFilter(options.getPlatform());
+
+        if( os == null ) {
+            for( MachineImage image : catalog.query(this, publicImages, options) ) {
+                sink.add(image);
+            }
+            return;
+        }
+        JSONArray arr = fetchImages("images?public=" + publicImages + "&os=" + os);
+
+        try {
             for( int i = 0; i < arr.length(); i++ ) {
                 MachineImage image = toMachineImage(arr.getJSONObject(i));
 
                 if( image != null && options.matches(image) ) {
-                    image.sharedWithPublic();// mark it as public regardless, since it is
-                    images.add(image);
+                    if( publicImages ) {
+                        image.sharedWithPublic();// mark it as public regardless, since it is
+                    }
+                    sink.add(image);
                 }
             }
-            return images;
         } catch( JSONException e ) {
             throw new CloudException(e);
         }
     }
 
-    private @Nullable MachineImage toMachineImage( @Nullable JSONObject json ) throws CloudException, InternalException {
+    /**
+     * Lists the images of the account together with the public images, for callers that need every image a
+     * machine can be launched from. Both listings are fetched and converted at the same time and images are
+     * returned as soon as either side produces them, each image only once.
+     * @param options the filter to apply to both listings, or null for all images
+     * @return the matching private and public images
+     * @throws CloudException an error occurred with the cloud provider while listing images
+     * @throws InternalException an error occurred within Dasein Cloud while listing images
+     */
+    public @Nonnull Iterable<MachineImage> listAllImages( @Nullable final ImageFilterOptions options ) throws CloudException, InternalException {
+        getProvider().hold();
+        PopulatorThread<MachineImage> populator = new PopulatorThread<MachineImage>(new JiteratorPopulator<MachineImage>() {
+            @Override
+            public void populate( @Nonnull final Jiterator<MachineImage> iterator ) throws Exception {
+                try {
+                    final Map<String, Boolean> seen = new ConcurrentHashMap<String, Boolean>();
+                    final ImageSink sink = new ImageSink() {
+                        @Override
+                        public void add( @Nonnull MachineImage image ) {
+                            if( seen.put(image.getProviderMachineImageId(), Boolean.TRUE) == null ) {
+                                iterator.push(image);
+                            }
+                        }
+                    };
+                    FutureTask<Void> publicSide = new FutureTask<Void>(new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            queryImages(true, options, sink);
+                            return null;
+                        }
+                    });
+                    Thread t = new Thread(publicSide, "Public image listing for " + getContext().getAccountNumber());
+
+                    t.setDaemon(true);
+                    t.start();
+                    Exception failure = null;
+
+                    try {
+                        queryImages(false, options, sink);
+                    }
+                    catch( Exception e ) {
+                        failure = e;
+                    }
+                    try {
+                        publicSide.get();
+                    }
+                    catch( ExecutionException e ) {
+                        if( failure == null ) {
+                            failure = ( e.getCause() instanceof Exception ? ( Exception ) e.getCause() : new CloudException(e.getCause()) );
+                        }
+                    }
+                    if( failure != null ) {
+                        throw failure;
+                    }
+                }
+                finally {
+                    getProvider().release();
+                }
+            }
+        });
+
+        populator.populate();
+        return populator.getResult();
+    }
+
+    /**
+     * Copies an image of the current region into other regions using CloudAPI's import from data center. All
+     * regions are handled in parallel. A region that already has the image, either under the same ID or as an
+     * image with the same name and version, is skipped and its task completes with the existing image straight away.
+     * @param providerImageId the image in the current region to copy
+     * @param targetRegionIds the regions to copy the image into
+     * @return one task per target region, completed with the image in that region once it is active
+     * @throws CloudException the image does not exist or an error occurred with the cloud provider
+     * @throws InternalException an error occurred within Dasein Cloud preparing the copies
+     */
+    public @Nonnull Map<String, AsynchronousTask<MachineImage>> replicate( @Nonnull final String providerImageId, @Nonnull Collection<String> targetRegionIds ) throws CloudException, InternalException {
+        APITrace.begin(getProvider(), "Image.replicate");
+        try {
+            final String sourceRegionId = getContext().getRegionId();
+            String json = getProvider().getMethod().doGetJson(getProvider().getEndpoint(), "images/" + providerImageId);
+
+            if( json == null ) {
+                throw new CloudException("No such image: " + providerImageId);
+            }
+            final JSONObject source;
+
+            try {
+                source = new JSONObject(json);
+            } catch( JSONException e ) {
+                throw new CloudException(e);
+            }
+            Map<String, AsynchronousTask<MachineImage>> tasks = new LinkedHashMap<String, AsynchronousTask<MachineImage>>();
+            ExecutorService executor = Executors.newCachedThreadPool(new NamedThreadFactory(Dataset.class, " replication"));
+
+            try {
+                for( final String regionId : targetRegionIds ) {
+                    if( regionId.equals(sourceRegionId) || tasks.containsKey(regionId) ) {
+                        continue;
+                    }
+                    final AsynchronousTask<MachineImage> task = new AsynchronousTask<MachineImage>();
+
+                    tasks.put(regionId, task);
+                    task.setStartTime(System.currentTimeMillis());
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                task.completeWithResult(importInto(source, sourceRegionId, regionId, task));
+                            }
+                            catch( Throwable t ) {
+                                logger.warn("Unable to replicate image " + providerImageId + " into " + regionId + ": " + t.getMessage());
+                                task.complete(t);
+                            }
+                        }
+                    });
+                }
+            }
+            finally {
+                executor.shutdown();
+            }
+            return tasks;
+        } finally {
+            APITrace.end();
+        }
+    }
+
+    /**
+     * Imports one image into one region, unless the region already has it, and waits for the import to finish. An
+     * image with another ID only counts as already there if it has the same name, version and owner as the source,
+     * and the same file checksum when CloudAPI reports one.
+     */
+    private @Nonnull MachineImage importInto( @Nonnull JSONObject source, @Nonnull String sourceRegionId, @Nonnull String regionId, @Nonnull AsynchronousTask<MachineImage> task ) throws CloudException, InternalException, JSONException {
+        JoyentMethod method = getProvider().getMethod();
+        String endpoint = getProvider().getEndpoint(regionId);
+        String imageId = source.getString("id");
+        String json = method.doGetJson(endpoint, "images/" + imageId);
+
+        if( json == null && source.has("name") && source.has("version") && source.has("owner") ) {
+            String resource = "images?state=all&name=" + encode(source.getString("name")) + "&version=" + encode(source.getString("version"));
+            String list = method.doGetJson(endpoint, resource);
+            JSONArray matches = ( list == null ? new JSONArray() : new JSONArray(list) );
+
+            for( int i = 0; i < matches.length(); i++ ) {
+                JSONObject candidate = matches.getJSONObject(i);
+
+                if( isSameImage(source, candidate) ) {
+                    json = candidate.toString();
+                    imageId = candidate.getString("id");
+                    break;
+                }
+            }
+        }
         if( json == null ) {
+            // the import takes its parameters from the query string; the body is sent empty
+            json = method.doPostString(endpoint, "images?action=import-from-datacenter&datacenter=" + encode(sourceRegionId) + "&id=" + encode(imageId), "");
+            task.setPercentComplete(10);
+        }
+        long started = System.currentTimeMillis();
+        long interval = REPLICATION_MIN_INTERVAL;
+
+        while( true ) {
+            JSONObject ob = ( json == null ? null : new JSONObject(json) );
+            String state = ( ob == null ? "" : ob.optString("state", "") );
+
+            if( "active".equalsIgnoreCase(state) ) {
+                MachineImage image = toMachineImage(ob, regionId);
+
+                if( image == null ) {
+                    throw new CloudException("Unable to read image " + imageId + " in " + regionId);
+                }
+                return image;
+            }
+            if( "failed".equalsIgnoreCase(state) ) {
+                JSONObject error = ob.optJSONObject("error");
+
+                throw new CloudException("Import of " + imageId + " into " + regionId + " failed: " + ( error == null ? "unknown error" : error.optString("message", "unknown error") ));
+            }
+            if( System.currentTimeMillis() - started > REPLICATION_TIMEOUT ) {
+                throw new CloudException("Timed out waiting for image " + imageId + " in " + regionId);
+            }
+            task.setPercentComplete(( int ) Math.min(90L, 10L + ( System.currentTimeMillis() - started ) / 30000L));
+            try {
+                Thread.sleep(interval);
+            }
+            catch( InterruptedException e ) {
+                throw new CloudException("Interrupted while waiting for image " + imageId + " in " + regionId);
+            }
+            interval = Math.min(REPLICATION_MAX_INTERVAL, interval * 3 / 2);
+            json = method.doGetJson(endpoint, "images/" + imageId);
+        }
+    }
+
+    /**
+     * @return true if the candidate has the same name, version and owner as the source, and the same checksum for
+     * its first file if both report one
+     */
+    private static boolean isSameImage( @Nonnull JSONObject source, @Nonnull JSONObject candidate ) {
+        if( !candidate.has("id") || !source.optString("owner").equals(candidate.optString("owner")) ) {
+            return false;
+        }
+        if( !source.optString("name").equals(candidate.optString("name")) || !source.optString("version").equals(candidate.optString("version")) ) {
+            return false;
+        }
+        String sourceSha1 = firstFileSha1(source);
+        String candidateSha1 = firstFileSha1(candidate);
+
+        return ( sourceSha1 == null || candidateSha1 == null || sourceSha1.equals(candidateSha1) );
+    }
+
+    private static @Nullable String firstFileSha1( @Nonnull JSONObject image ) {
+        JSONArray files = image.optJSONArray("files");
+        JSONObject file = ( files == null ? null : files.optJSONObject(0) );
+        String sha1 = ( file == null ? null : file.optString("sha1", null) );
+
+        return ( sha1 == null || sha1.length() == 0 ? null : sha1 );
+    }
+
+    /**
+     * Maps a platform to the CloudAPI {@code os} it implies. Platforms that span several CloudAPI values, such as
+     * UNIX or Solaris, return null and are filtered locally only.
+     */
+    private static @Nullable String toOsFilter( @Nullable Platform platform ) {
+        if( platform == null || platform.equals(Platform.UNIX) || platform.equals(Platform.UNKNOWN) ) {
             return null;
         }
-        String regionId = getContext().getRegionId();
+        if( platform.equals(Platform.SMARTOS) ) {
+            return "smartos";
+        }
+        if( platform.isWindows() ) {
+            return "windows";
+        }
+        if( platform.isLinux() ) {
+            return "linux";
+        }
+        if( platform.isBsd() ) {
+            return "bsd";
+        }
+        return null;
+    }
 
+    private static @Nonnull String encode( @Nonnull String value ) throws InternalException {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch( UnsupportedEncodingException e ) {
+            throw new InternalException(e);
+        }
+    }
+
+    @Nonnull ImageCatalog getCatalog() throws CloudException, InternalException {
+        return ImageCatalog.getInstance(getProvider());
+    }
+
+    /**
+     * @param resource the image listing to fetch, including any query string
+     * @return the images returned by CloudAPI, empty if the listing was not found
+     */
+    @Nonnull JSONArray fetchImages( @Nonnull String resource ) throws CloudException, InternalException {
+        String json = getProvider().getMethod().doGetJson(getProvider().getEndpoint(), resource);
+
+        try {
+            return ( json == null ? new JSONArray() : new JSONArray(json) );
+        } catch( JSONException e ) {
+            throw new CloudException(e);
+        }
+    }
+
+    /**
+     * @param imageId the image to look up, whatever its state
+     * @return the image as returned by CloudAPI, or null if CloudAPI does not know it
+     */
+    @Nullable JSONObject fetchImage( @Nonnull String imageId ) throws CloudException, InternalException {
+        String json = getProvider().getMethod().doGetJson(getProvider().getEndpoint(), "images/" + imageId);
+
+        try {
+            return ( json == null ? null : new JSONObject(json) );
+        } catch( JSONException e ) {
+            throw new CloudException(e);
+        }
+    }
+
+    @Nullable MachineImage toMachineImage( @Nullable JSONObject json ) throws CloudException, InternalException {
+        return toMachineImage(json, getContext().getRegionId());
+    }
+
+    private @Nullable MachineImage toMachineImage( @Nullable JSONObject json, @Nullable String regionId ) throws CloudException, InternalException {
+        if( json == null ) {
+            return null;
+        }
         if( regionId == null ) {
             throw new InternalException("No region ID was specified for this request");
         }
@@ -304,9 +666,10 @@ public class Dataset extends AbstractImageSupport<SmartDataCenter> {
                 description = name + " (" + platform + ") [#" + imageId + "]";
             }
             if( json.has("os") ) {
-                String os = ( name == null ? json.getString("os") : name + " " + json.getString("os") );
-                platform = Platform.guess(os);
-                architecture = guessArch(os);
+                ImageClassifier classification = ImageClassifier.classify(name, json.getString("os"));
+
+                platform = classification.getPlatform();
+                architecture = classification.getArchitecture();
             }
             if( json.has("created") ) {
                 created = getProvider().parseTimestamp(json.getString("created"));
@@ -353,29 +716,4 @@ public class Dataset extends AbstractImageSupport<SmartDataCenter> {
         return machineImage;
 
     }
-
-    private static boolean surroundedByDigits(String hay, String needle ) throws Exception {
-        hay = " " + hay + " ";
-        int index = hay.indexOf(needle);
-        if( index > 0 ) {
-            if( Character.isDigit(hay.charAt(index-1)) && Character.isDigit(hay.charAt(index+needle.length())) )
-                return true;
-            else {
-                return false;
-            }
-        }
-        throw new Exception(); // not found the needle
-    }
-
-    private static Architecture guessArch(String testString) {
-        String[] needles = {"32", "386"};
-        for( String needle : needles ) {
-            try {
-                if( !surroundedByDigits(testString, needle) ) {
-                    return Architecture.I32;
-                }
-            } catch(Exception e) {}
-        }
-        return Architecture.I64;
-    }
 }
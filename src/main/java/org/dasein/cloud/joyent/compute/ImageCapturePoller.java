@@ -0,0 +1,242 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.joyent.compute;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.AsynchronousTask;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.compute.MachineImage;
+import org.dasein.cloud.joyent.SmartDataCenter;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Follows images being captured until they become active or fail. All captures in progress for an account share
+ * one polling thread that lists the account's images in all states once per round, backing off while nothing
+ * changes. An image missing from the listing is looked up on its own before it is reported as gone.
+ * @author Dell, Inc
+ */
+class ImageCapturePoller {
+    static private final Logger logger = SmartDataCenter.getLogger(ImageCapturePoller.class, "std");
+
+    static private final long MIN_INTERVAL = 5000L;
+    static private final long MAX_INTERVAL = 60000L;
+    static private final long TIMEOUT      = 2L * 60L * 60L * 1000L;
+    static private final int  MAX_FAILURES = 10;
+
+    static private final ConcurrentHashMap<String,ImageCapturePoller> pollers = new ConcurrentHashMap<String,ImageCapturePoller>();
+
+    static @Nonnull ImageCapturePoller getInstance(@Nonnull SmartDataCenter provider) throws CloudException, InternalException {
+        ProviderContext ctx = provider.getContext();
+
+        if( ctx == null ) {
+            throw new CloudException("No context has been established for this request");
+        }
+        String key = ctx.getAccountNumber() + "@" + provider.getEndpoint();
+        ImageCapturePoller poller = pollers.get(key);
+
+        if( poller == null ) {
+            pollers.putIfAbsent(key, new ImageCapturePoller(key));
+            poller = pollers.get(key);
+        }
+        return poller;
+    }
+
+    static private class Capture {
+        final AsynchronousTask<MachineImage> task;
+        final long                           started = System.currentTimeMillis();
+
+        Capture(@Nonnull AsynchronousTask<MachineImage> task) {
+            this.task = task;
+        }
+    }
+
+    private final String                 key;
+    private final Map<String,Capture>    pending = new HashMap<String,Capture>();
+    private Dataset                      support;
+    private boolean                      running;
+
+    private ImageCapturePoller(@Nonnull String key) {
+        this.key = key;
+    }
+
+    /**
+     * Starts following a new image. The task is completed with the image once it is active, or with an error once it
+     * has failed, disappeared or not finished in time.
+     * @param support the image support used for listing images
+     * @param imageId the ID of the image being created
+     * @param task the task to update and complete
+     */
+    synchronized void track(@Nonnull Dataset support, @Nonnull String imageId, @Nonnull AsynchronousTask<MachineImage> task) {
+        this.support = support;
+        pending.put(imageId, new Capture(task));
+        if( !running ) {
+            running = true;
+            Thread t = new Thread("Image capture poller for " + key) {
+                @Override
+                public void run() {
+                    poll();
+                }
+            };
+
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    private void poll() {
+        long interval = MIN_INTERVAL;
+        int failures = 0;
+
+        while( true ) {
+            try {
+                Thread.sleep(interval);
+            }
+            catch( InterruptedException e ) {
+                synchronized( this ) {
+                    running = false;
+                    failAll(new CloudException("Image capture polling was interrupted"));
+                }
+                return;
+            }
+            Dataset current;
+
+            synchronized( this ) {
+                if( pending.isEmpty() ) {
+                    running = false;
+                    return;
+                }
+                current = support;
+            }
+            boolean changed;
+
+            try {
+                // without state=all CloudAPI lists only active images, hiding those still being created
+                changed = update(current, current.fetchImages("images?public=false&state=all"));
+                failures = 0;
+            }
+            catch( Throwable t ) {
+                logger.warn("Unable to check images being captured for " + key + ": " + t.getMessage());
+                changed = false;
+                if( ++failures >= MAX_FAILURES ) {
+                    failAll(new CloudException("Unable to check image capture progress: " + t.getMessage()));
+                }
+            }
+            interval = ( changed ? MIN_INTERVAL : Math.min(MAX_INTERVAL, interval * 3 / 2) );
+        }
+    }
+
+    /**
+     * Applies one listing of the account's images to the captures in progress.
+     * @return true if any capture finished
+     */
+    private boolean update(@Nonnull Dataset current, @Nonnull JSONArray images) throws CloudException, InternalException, JSONException {
+        Map<String,JSONObject> byId = new HashMap<String,JSONObject>();
+
+        for( int i = 0; i < images.length(); i++ ) {
+            JSONObject ob = images.getJSONObject(i);
+
+            if( ob.has("id") ) {
+                byId.put(ob.getString("id"), ob);
+            }
+        }
+        List<String> unlisted = new ArrayList<String>();
+        Set<String> gone = new HashSet<String>();
+
+        synchronized( this ) {
+            for( String imageId : pending.keySet() ) {
+                if( !byId.containsKey(imageId) ) {
+                    unlisted.add(imageId);
+                }
+            }
+        }
+        for( String imageId : unlisted ) {
+            JSONObject ob = current.fetchImage(imageId);
+
+            if( ob == null ) {
+                gone.add(imageId);
+            }
+            else {
+                byId.put(imageId, ob);
+            }
+        }
+        boolean changed = false;
+        long now = System.currentTimeMillis();
+
+        synchronized( this ) {
+            for( Iterator<Map.Entry<String,Capture>> it = pending.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<String,Capture> entry = it.next();
+                Capture capture = entry.getValue();
+                JSONObject ob = byId.get(entry.getKey());
+                String state = ( ob == null ? null : ob.optString("state", "") );
+
+                if( "active".equalsIgnoreCase(state) ) {
+                    capture.task.completeWithResult(current.toMachineImage(ob));
+                }
+                else if( "failed".equalsIgnoreCase(state) ) {
+                    JSONObject error = ob.optJSONObject("error");
+                    String message = ( error == null ? "unknown error" : error.optString("message", "unknown error") );
+
+                    capture.task.complete(new CloudException("Image " + entry.getKey() + " failed: " + message));
+                }
+                else if( gone.contains(entry.getKey()) && now - capture.started > MIN_INTERVAL * 6 ) {
+                    // CloudAPI answered 404 for the image itself, past the time it may take to become visible
+                    capture.task.complete(new CloudException("Image " + entry.getKey() + " no longer exists"));
+                }
+                else if( now - capture.started > TIMEOUT ) {
+                    capture.task.complete(new CloudException("Timed out waiting for image " + entry.getKey()));
+                }
+                else {
+                    // CloudAPI reports no progress, so estimate it from the time spent so far
+                    int percent = ( int ) Math.min(90L, 10L + ( now - capture.started ) / 30000L);
+
+                    capture.task.setPercentComplete(percent);
+                    continue;
+                }
+                it.remove();
+                changed = true;
+            }
+        }
+        if( changed ) {
+            current.getCatalog().invalidate();
+        }
+        return changed;
+    }
+
+    private synchronized void failAll(@Nonnull CloudException error) {
+        for( Capture capture : pending.values() ) {
+            capture.task.complete(error);
+        }
+        pending.clear();
+    }
+}
@@ -0,0 +1,383 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.joyent.compute;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.compute.ImageFilterOptions;
+import org.dasein.cloud.compute.MachineImage;
+import org.dasein.cloud.compute.Platform;
+import org.dasein.cloud.joyent.SmartDataCenter;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory catalog of the images visible to one account in one region. The full {@code images} listing is loaded
+ * once; after that, stale data is served while a background refresh fetches the listing again and converts only
+ * the images that are new or whose state or visibility changed. Queries are answered from indexes by platform, owner
+ * and name.
+ * @author Dell, Inc
+ */
+class ImageCatalog {
+    static private final Logger logger = SmartDataCenter.getLogger(ImageCatalog.class, "std");
+
+    static private final long REFRESH_INTERVAL = 5L * 60L * 1000L;
+
+    static private final ConcurrentHashMap<String,ImageCatalog> catalogs = new ConcurrentHashMap<String,ImageCatalog>();
+    static private final AtomicLong                             versions = new AtomicLong();
+
+    static @Nonnull ImageCatalog getInstance(@Nonnull SmartDataCenter provider) throws CloudException, InternalException {
+        ProviderContext ctx = provider.getContext();
+
+        if( ctx == null ) {
+            throw new CloudException("No context has been established for this request");
+        }
+        String key = ctx.getAccountNumber() + "@" + provider.getEndpoint();
+        ImageCatalog catalog = catalogs.get(key);
+
+        if( catalog == null ) {
+            catalogs.putIfAbsent(key, new ImageCatalog(key));
+            catalog = catalogs.get(key);
+        }
+        return catalog;
+    }
+
+    static private class Entry {
+        final String       fingerprint;
+        final MachineImage image;
+        final boolean      isPublic;
+
+        Entry(@Nonnull String fingerprint, @Nonnull MachineImage image, boolean isPublic) {
+            this.fingerprint = fingerprint;
+            this.image = image;
+            this.isPublic = isPublic;
+        }
+    }
+
+    /**
+     * The images of one visibility, indexed by the criteria filters most often narrow on.
+     */
+    static class Index {
+        final List<MachineImage>                  all        = new ArrayList<MachineImage>();
+        final Map<Platform,List<MachineImage>>    byPlatform = new HashMap<Platform,List<MachineImage>>();
+        final Map<String,List<MachineImage>>      byOwner    = new HashMap<String,List<MachineImage>>();
+        final TreeMap<String,List<MachineImage>>  byName     = new TreeMap<String,List<MachineImage>>();
+
+        void add(@Nonnull MachineImage image) {
+            all.add(image);
+            add(byPlatform, image.getPlatform(), image);
+            add(byOwner, image.getProviderOwnerId(), image);
+            add(byName, image.getName() == null ? "" : image.getName().toLowerCase(Locale.ENGLISH), image);
+        }
+
+        static private <K> void add(@Nonnull Map<K,List<MachineImage>> index, @Nullable K key, @Nonnull MachineImage image) {
+            List<MachineImage> list = index.get(key);
+
+            if( list == null ) {
+                list = new ArrayList<MachineImage>();
+                index.put(key, list);
+            }
+            list.add(image);
+        }
+
+        /**
+         * @param options the filter the caller applies to the result
+         * @return a list holding at least every image the filter matches, and usually far fewer of the others
+         */
+        @Nonnull List<MachineImage> candidates(@Nullable ImageFilterOptions options) {
+            List<MachineImage> candidates = all;
+
+            if( options == null || options.isMatchesAny() ) {
+                // an image matching any one criterion is a match, so no single index holds them all
+                return candidates;
+            }
+            Platform platform = options.getPlatform();
+
+            // family platforms such as UNIX match several specific ones, so only exact platforms can use the index
+            if( platform != null && !platform.equals(Platform.UNIX) && !platform.equals(Platform.UNKNOWN) && !platform.isBsd() ) {
+                candidates = smaller(candidates, byPlatform.get(platform));
+            }
+            if( options.getAccountNumber() != null ) {
+                candidates = smaller(candidates, byOwner.get(options.getAccountNumber()));
+            }
+            return candidates;
+        }
+
+        static private @Nonnull List<MachineImage> smaller(@Nonnull List<MachineImage> current, @Nullable List<MachineImage> indexed) {
+            if( indexed == null ) {
+                return Collections.emptyList();
+            }
+            return ( indexed.size() < current.size() ? indexed : current );
+        }
+    }
+
+    static private class Snapshot {
+        final long              version;
+        final long              loadedAt;
+        final Map<String,Entry> byId;
+        final Index             publicImages;
+        final Index             privateImages;
+
+        Snapshot(@Nonnull Map<String,Entry> byId) {
+            this.version = versions.incrementAndGet();
+            this.loadedAt = System.currentTimeMillis();
+            this.byId = byId;
+            this.publicImages = new Index();
+            this.privateImages = new Index();
+            for( Entry entry : byId.values() ) {
+                ( entry.isPublic ? publicImages : privateImages ).add(entry.image);
+            }
+        }
+
+        /**
+         * A reload that found the same images, which keeps the version and indexes of the previous snapshot.
+         */
+        Snapshot(@Nonnull Snapshot unchanged) {
+            this.version = unchanged.version;
+            this.loadedAt = System.currentTimeMillis();
+            this.byId = unchanged.byId;
+            this.publicImages = unchanged.publicImages;
+            this.privateImages = unchanged.privateImages;
+        }
+    }
+
+    private final String        key;
+    private final AtomicBoolean refreshing = new AtomicBoolean(false);
+    private volatile Snapshot   snapshot;
+    private volatile boolean    invalid;
+
+    private ImageCatalog(@Nonnull String key) {
+        this.key = key;
+    }
+
+    /**
+     * @return the account and endpoint this catalog belongs to
+     */
+    @Nonnull String getKey() {
+        return key;
+    }
+
+    /**
+     * @return a number that changes whenever a reload finds images added, removed or changed, or 0 if the catalog
+     * has not been loaded
+     */
+    long getVersion() {
+        Snapshot current = snapshot;
+
+        return ( current == null ? 0L : current.version );
+    }
+
+    /**
+     * @return true if the catalog has been loaded at least once
+     */
+    boolean isLoaded() {
+        return ( snapshot != null );
+    }
+
+    /**
+     * Forces the next query to reload the catalog before answering, e.g. after an image was created or removed.
+     */
+    void invalidate() {
+        invalid = true;
+    }
+
+    /**
+     * Looks up a public image without loading the catalog. Private images are not served from here since their
+     * state changes quickly while they are being created.
+     * @param imageId the image to look up
+     * @return the cached image, or null if the catalog is not loaded or does not contain it as a public image
+     */
+    @Nullable MachineImage peekPublic(@Nonnull String imageId) {
+        Snapshot current = snapshot;
+
+        if( current == null || invalid ) {
+            return null;
+        }
+        Entry entry = current.byId.get(imageId);
+
+        return ( entry == null || !entry.isPublic ? null : entry.image );
+    }
+
+    /**
+     * Looks up any image, public or private, loading the catalog first if needed.
+     * @param support the image support used to load or refresh the catalog
+     * @param imageId the image to look up
+     * @return the image, or null if the listing does not contain it
+     * @throws CloudException an error occurred with the cloud provider while loading the catalog
+     * @throws InternalException an error occurred within Dasein Cloud while loading the catalog
+     */
+    @Nullable MachineImage find(@Nonnull Dataset support, @Nonnull String imageId) throws CloudException, InternalException {
+        Entry entry = get(support).byId.get(imageId);
+
+        return ( entry == null ? null : entry.image );
+    }
+
+    /**
+     * Lists the images of one visibility that match the given options.
+     * @param support the image support used to load or refresh the catalog
+     * @param publicImages true for public images, false for the images of the account (and those shared with it)
+     * @param options the filter to apply, or null for all images
+     * @return the matching images
+     * @throws CloudException an error occurred with the cloud provider while loading the catalog
+     * @throws InternalException an error occurred within Dasein Cloud while loading the catalog
+     */
+    @Nonnull List<MachineImage> query(@Nonnull Dataset support, boolean publicImages, @Nullable ImageFilterOptions options) throws CloudException, InternalException {
+        Snapshot current = get(support);
+        List<MachineImage> matches = new ArrayList<MachineImage>();
+
+        for( MachineImage image : ( publicImages ? current.publicImages : current.privateImages ).candidates(options) ) {
+            if( options == null || options.matches(image) ) {
+                matches.add(image);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * @param support the image support used to load or refresh the catalog
+     * @param prefix the start of the image name, compared without regard to case
+     * @return all public and private images whose name starts with the prefix, ordered by name
+     * @throws CloudException an error occurred with the cloud provider while loading the catalog
+     * @throws InternalException an error occurred within Dasein Cloud while loading the catalog
+     */
+    @Nonnull List<MachineImage> findByNamePrefix(@Nonnull Dataset support, @Nonnull String prefix) throws CloudException, InternalException {
+        Snapshot current = get(support);
+        String from = prefix.toLowerCase(Locale.ENGLISH);
+        String to = from + Character.MAX_VALUE;
+        List<MachineImage> matches = new ArrayList<MachineImage>();
+
+        for( Index index : new Index[] { current.privateImages, current.publicImages } ) {
+            SortedMap<String,List<MachineImage>> range = index.byName.subMap(from, to);
+
+            for( List<MachineImage> images : range.values() ) {
+                matches.addAll(images);
+            }
+        }
+        return matches;
+    }
+
+    private @Nonnull Snapshot get(@Nonnull Dataset support) throws CloudException, InternalException {
+        Snapshot current = snapshot;
+
+        if( current == null || invalid ) {
+            synchronized( this ) {
+                current = snapshot;
+                if( current == null || invalid ) {
+                    invalid = false;
+                    current = load(support, current);
+                    snapshot = current;
+                }
+            }
+        }
+        else if( System.currentTimeMillis() - current.loadedAt > REFRESH_INTERVAL ) {
+            refreshInBackground(support);
+        }
+        return current;
+    }
+
+    private void refreshInBackground(@Nonnull final Dataset support) {
+        if( !refreshing.compareAndSet(false, true) ) {
+            return;
+        }
+        Thread t = new Thread("Image catalog refresh for " + key) {
+            @Override
+            public void run() {
+                try {
+                    synchronized( ImageCatalog.this ) {
+                        snapshot = load(support, snapshot);
+                    }
+                }
+                catch( Throwable e ) {
+                    logger.warn("Unable to refresh image catalog " + key + ": " + e.getMessage());
+                }
+                finally {
+                    refreshing.set(false);
+                }
+            }
+        };
+
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Fetches the full image listing and builds a new snapshot, reusing the converted images of the previous
+     * snapshot for every image whose id, state and visibility are unchanged.
+     */
+    private @Nonnull Snapshot load(@Nonnull Dataset support, @Nullable Snapshot previous) throws CloudException, InternalException {
+        try {
+            JSONArray arr = support.fetchImages("images");
+            Map<String,Entry> byId = new LinkedHashMap<String,Entry>();
+            int converted = 0;
+
+            for( int i = 0; i < arr.length(); i++ ) {
+                JSONObject ob = arr.getJSONObject(i);
+
+                if( !ob.has("id") ) {
+                    continue;
+                }
+                String id = ob.getString("id");
+                boolean isPublic = ob.optBoolean("public", false);
+                String fingerprint = ob.optString("state", "") + ":" + isPublic;
+                Entry entry = ( previous == null ? null : previous.byId.get(id) );
+
+                if( entry == null || !entry.fingerprint.equals(fingerprint) ) {
+                    MachineImage image = support.toMachineImage(ob);
+
+                    if( image == null ) {
+                        continue;
+                    }
+                    entry = new Entry(fingerprint, image, isPublic);
+                    converted++;
+                }
+                byId.put(id, entry);
+            }
+            if( logger.isDebugEnabled() ) {
+                logger.debug("Loaded image catalog " + key + ": " + byId.size() + " images, " + converted + " converted");
+            }
+            // every entry was taken over, so the listing only differs if some were dropped
+            if( previous != null && converted == 0 && byId.size() == previous.byId.size() ) {
+                return new Snapshot(previous);
+            }
+            return new Snapshot(byId);
+        }
+        catch( JSONException e ) {
+            throw new CloudException(e);
+        }
+    }
+}
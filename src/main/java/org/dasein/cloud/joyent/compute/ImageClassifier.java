@@ -0,0 +1,102 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.joyent.compute;
+
+import org.dasein.cloud.compute.Architecture;
+import org.dasein.cloud.compute.Platform;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Works out the architecture and platform of an image from its name and OS. The result depends only on those two
+ * values, so it is computed once per distinct pair and remembered; every version of an image shares it.
+ * @author Dell, Inc
+ */
+final class ImageClassifier {
+    static private final int MAX_ENTRIES = 10000;
+    static private final String[] ARCH_32_NEEDLES = { "32", "386" };
+
+    static private final ConcurrentHashMap<String,ImageClassifier> cache = new ConcurrentHashMap<String,ImageClassifier>();
+
+    private final Architecture architecture;
+    private final Platform     platform;
+
+    private ImageClassifier(@Nonnull Architecture architecture, @Nonnull Platform platform) {
+        this.architecture = architecture;
+        this.platform = platform;
+    }
+
+    /**
+     * @param name the image name as reported by CloudAPI, without version
+     * @param os the image OS as reported by CloudAPI
+     * @return the classification of the image
+     */
+    static @Nonnull ImageClassifier classify(@Nullable String name, @Nullable String os) {
+        String key = name + "\u0000" + os;
+        ImageClassifier c = cache.get(key);
+
+        if( c == null ) {
+            String description = ( name == null ? os : ( os == null ? name : name + " " + os ) );
+
+            if( description == null ) {
+                c = new ImageClassifier(Architecture.I64, Platform.UNKNOWN);
+            }
+            else {
+                c = new ImageClassifier(guessArchitecture(description), Platform.guess(description));
+            }
+            if( cache.size() >= MAX_ENTRIES ) {
+                cache.clear();
+            }
+            cache.put(key, c);
+        }
+        return c;
+    }
+
+    /**
+     * An image is 32 bit if "32" or "386" appears in its description other than in the middle of a longer number.
+     */
+    static private @Nonnull Architecture guessArchitecture(@Nonnull String description) {
+        for( String needle : ARCH_32_NEEDLES ) {
+            int idx = description.indexOf(needle);
+
+            if( idx < 0 ) {
+                continue;
+            }
+            int after = idx + needle.length();
+            boolean digitBefore = ( idx > 0 && Character.isDigit(description.charAt(idx - 1)) );
+            boolean digitAfter = ( after < description.length() && Character.isDigit(description.charAt(after)) );
+
+            if( !digitBefore || !digitAfter ) {
+                return Architecture.I32;
+            }
+        }
+        return Architecture.I64;
+    }
+
+    @Nonnull Architecture getArchitecture() {
+        return architecture;
+    }
+
+    @Nonnull Platform getPlatform() {
+        return platform;
+    }
+}
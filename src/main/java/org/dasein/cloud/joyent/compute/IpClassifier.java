@@ -0,0 +1,167 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.joyent.compute;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Decides whether a machine address is publicly routable by looking at its characters directly, without splitting
+ * or parsing it into objects. Non-public space covers RFC 1918, RFC 6598 shared (CGNAT) space, loopback and
+ * link-local for IPv4, and loopback, unique local (fc00::/7) and link-local (fe80::/10) for IPv6. IPv4-mapped IPv6
+ * addresses are classified by their IPv4 part. Anything that cannot be read as an address is treated as public.
+ * @author Dell, Inc
+ */
+final class IpClassifier {
+    private static final String IPV4_MAPPED_PREFIX = "::ffff:";
+
+    private IpClassifier() { }
+
+    static boolean isPrivate(@Nonnull String address) {
+        int len = address.length();
+
+        if( len > 0 && address.charAt(0) == ':' ) {
+            if( address.regionMatches(true, 0, IPV4_MAPPED_PREFIX, 0, IPV4_MAPPED_PREFIX.length()) && address.indexOf('.') > 0 ) {
+                return isPrivateIpv4(address, IPV4_MAPPED_PREFIX.length());
+            }
+            return isPrivateIpv6(address);
+        }
+        // the first separator decides the family: it follows at most 3 decimal or 4 hex digits
+        for( int i=0; i<len && i<5; i++ ) {
+            char c = address.charAt(i);
+
+            if( c == '.' ) {
+                return isPrivateIpv4(address, 0);
+            }
+            if( c == ':' ) {
+                return isPrivateIpv6(address);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the dotted quad starting at {@code start}, up to the end or a {@code %} scope, and checks it against the
+     * non-public IPv4 ranges. The first two octets decide the range, so a public address is answered as soon as they
+     * are read; the rest is only read to make sure an address classified as private is well formed.
+     */
+    private static boolean isPrivateIpv4(@Nonnull String address, int start) {
+        int len = address.length();
+        int first = -1, octet = -1, count = 0;
+
+        for( int i=start; i<len; i++ ) {
+            char c = address.charAt(i);
+
+            if( c >= '0' && c <= '9' ) {
+                octet = ( octet < 0 ? 0 : octet * 10 ) + ( c - '0' );
+                if( octet > 255 ) {
+                    return false;
+                }
+            }
+            else if( c == '.' ) {
+                if( octet < 0 ) {
+                    return false;
+                }
+                if( count == 0 ) {
+                    first = octet;
+                }
+                else if( count == 1 && !isPrivateRange(first, octet) ) {
+                    return false;
+                }
+                count++;
+                octet = -1;
+            }
+            else if( c == '%' ) {
+                break;
+            }
+            else {
+                return false;
+            }
+        }
+        return ( count == 3 && octet >= 0 );
+    }
+
+    private static boolean isPrivateRange(int first, int second) {
+        switch( first ) {
+            case 10: case 127: return true;
+            case 172: return ( second >= 16 && second <= 31 );
+            case 192: return ( second == 168 );
+            case 169: return ( second == 254 );
+            case 100: return ( second >= 64 && second <= 127 );
+            default: return false;
+        }
+    }
+
+    /**
+     * Checks an IPv6 address for loopback, unique local and link-local space. Only the first group decides the
+     * latter two; only an all-zero first group needs the rest of the address read.
+     */
+    private static boolean isPrivateIpv6(@Nonnull String address) {
+        int len = address.length();
+        int group = 0, digits = 0;
+
+        for( int i=0; i<len; i++ ) {
+            int v = hexValue(address.charAt(i));
+
+            if( v < 0 ) {
+                break;
+            }
+            if( ++digits > 4 ) {
+                return false;
+            }
+            group = ( group << 4 ) | v;
+        }
+        if( group != 0 ) {
+            return ( (group & 0xfe00) == 0xfc00 || (group & 0xffc0) == 0xfe80 );
+        }
+        int end = address.indexOf('%');
+
+        return isIpv6Loopback(address, end < 0 ? len : end);
+    }
+
+    /**
+     * @return true for "::1" and its spelled-out forms, that is only zeros and colons followed by a final 1
+     */
+    private static boolean isIpv6Loopback(@Nonnull String address, int end) {
+        if( end < 3 || address.charAt(end - 1) != '1' ) {
+            return false;
+        }
+        for( int i=0; i<end-1; i++ ) {
+            char c = address.charAt(i);
+
+            if( c != '0' && c != ':' ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hexValue(char c) {
+        if( c >= '0' && c <= '9' ) {
+            return c - '0';
+        }
+        if( c >= 'a' && c <= 'f' ) {
+            return c - 'a' + 10;
+        }
+        if( c >= 'A' && c <= 'F' ) {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+}
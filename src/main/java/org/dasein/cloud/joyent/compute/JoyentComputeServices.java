@@ -25,15 +25,32 @@ import org.dasein.cloud.joyent.SmartDataCenter;
 import javax.annotation.Nonnull;
 
 public class JoyentComputeServices extends AbstractComputeServices<SmartDataCenter> {
+    private transient volatile Dataset imageSupport;
+    private transient volatile Machine virtualMachineSupport;
+
     public JoyentComputeServices(@Nonnull SmartDataCenter sdc) { super(sdc); }
     
     @Override
     public @Nonnull Dataset getImageSupport() {
-        return new Dataset(getProvider());
+        if( imageSupport == null ) {
+            synchronized( this ) {
+                if( imageSupport == null ) {
+                    imageSupport = new Dataset(getProvider());
+                }
+            }
+        }
+        return imageSupport;
     }
     
     @Override
     public @Nonnull Machine getVirtualMachineSupport() {
-        return new Machine(getProvider());
+        if( virtualMachineSupport == null ) {
+            synchronized( this ) {
+                if( virtualMachineSupport == null ) {
+                    virtualMachineSupport = new Machine(getProvider());
+                }
+            }
+        }
+        return virtualMachineSupport;
     }
 }
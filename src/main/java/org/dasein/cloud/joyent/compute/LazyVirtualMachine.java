@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.joyent.compute;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.compute.Architecture;
+import org.dasein.cloud.compute.Platform;
+import org.dasein.cloud.compute.VirtualMachine;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * A virtual machine whose image, architecture, platform and product are only looked up when first asked for.
+ * Everything else is populated straight from the CloudAPI listing.
+ * @author Dell, Inc
+ */
+class LazyVirtualMachine extends VirtualMachine {
+    private transient Machine support;
+    private String            datasetUrn;
+    private int               disk;
+    private int               memory;
+
+    private volatile boolean  resolved;
+    private boolean           resolving;
+
+    LazyVirtualMachine(@Nonnull Machine support, @Nullable String datasetUrn, int disk, int memory) {
+        this.support = support;
+        this.datasetUrn = datasetUrn;
+        this.disk = disk;
+        this.memory = memory;
+    }
+
+    /**
+     * Resolves the derived fields once. Other threads wait for the first one to finish; calls made by the resolving
+     * thread itself (the resolution reads these same getters) see the raw values.
+     */
+    private synchronized void resolve() {
+        if( resolved || resolving ) {
+            return;
+        }
+        resolving = true;
+        try {
+            if( support != null ) {
+                support.enrich(this, datasetUrn, disk, memory);
+            }
+        }
+        catch( CloudException e ) {
+            support.logger.warn("Unable to resolve details for " + getProviderVirtualMachineId() + ": " + e.getMessage());
+        }
+        catch( InternalException e ) {
+            support.logger.warn("Unable to resolve details for " + getProviderVirtualMachineId() + ": " + e.getMessage());
+        }
+        finally {
+            if( super.getArchitecture() == null ) {
+                setArchitecture(Architecture.I64);
+            }
+            if( super.getPlatform() == null ) {
+                setPlatform(Platform.UNKNOWN);
+            }
+            support = null;
+            resolving = false;
+            resolved = true;
+        }
+    }
+
+    @Override
+    public Architecture getArchitecture() {
+        if( !resolved ) {
+            resolve();
+        }
+        return super.getArchitecture();
+    }
+
+    @Override
+    public Platform getPlatform() {
+        if( !resolved ) {
+            resolve();
+        }
+        return super.getPlatform();
+    }
+
+    @Override
+    public String getProductId() {
+        if( !resolved && super.getProductId() == null ) {
+            resolve();
+        }
+        return super.getProductId();
+    }
+
+    @Override
+    public String getProviderMachineImageId() {
+        if( !resolved && super.getProviderMachineImageId() == null ) {
+            resolve();
+        }
+        return super.getProviderMachineImageId();
+    }
+}
@@ -46,8 +46,16 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Machine extends AbstractVMSupport<SmartDataCenter> {
+    /**
+     * Context property which, when set to "true", makes {@link #listVirtualMachines()} defer image, platform and
+     * product resolution until those fields are first read.
+     */
+    public static final String CUSTOM_PROP_LAZY_VM_LISTING = "lazyVmListing";
+
     Logger logger = SmartDataCenter.getLogger(Machine.class, "std");
 
     private SmartDataCenter provider;
@@ -63,7 +71,7 @@ public class Machine extends AbstractVMSupport<SmartDataCenter> {
      * Only resizing of type=smartmachine is supported.
      */
     public VirtualMachine alterVirtualMachineProduct( @Nonnull String virtualMachineId, @Nonnull String productId ) throws InternalException, CloudException {
-        JoyentMethod method = new JoyentMethod(provider);
+        JoyentMethod method = provider.getMethod();
 
         method.doPostString(provider.getEndpoint(), "machines/" + virtualMachineId, "action=resize&package="+productId);
         return getVirtualMachine(virtualMachineId);
@@ -72,7 +80,7 @@ public class Machine extends AbstractVMSupport<SmartDataCenter> {
 
     @Override
     public void start(@Nonnull String vmId) throws InternalException, CloudException {
-        JoyentMethod method = new JoyentMethod(provider);
+        JoyentMethod method = provider.getMethod();
         
         method.doPostString(provider.getEndpoint(), "machines/" + vmId, "action=start");
     }
@@ -82,12 +90,16 @@ public class Machine extends AbstractVMSupport<SmartDataCenter> {
         public Platform platform;
     }
     
-    static private HashMap<String,MiData> miCache = new HashMap<String,MiData>();
+    static private Map<String,MiData> miCache = new ConcurrentHashMap<String,MiData>();
     
     private void discover(@Nonnull VirtualMachine vm) throws InternalException, CloudException {
         String miId = vm.getProviderMachineImageId();
         
-        if( miCache.containsKey(miId) ) {
+        if( miId == null ) {
+            vm.setArchitecture(Architecture.I64);
+            vm.setPlatform(Platform.UNKNOWN);
+        }
+        else if( miCache.containsKey(miId) ) {
             MiData d = miCache.get(miId);
             
             vm.setArchitecture(d.architecture);
@@ -106,16 +118,9 @@ public class Machine extends AbstractVMSupport<SmartDataCenter> {
                 vm.setPlatform(Platform.UNKNOWN);
             }
             else {
-                if( img.getName().contains("64") ) {
-                    vm.setArchitecture(Architecture.I64);
-                }
-                else if( img.getName().contains("32") ) {
-                    vm.setArchitecture(Architecture.I32);
-                }
-                else {
-                    vm.setArchitecture(Architecture.I64);
-                }
-                vm.setPlatform(Platform.guess(img.getName() + " " + img.getDescription()));
+                // the image was classified by ImageClassifier when it was converted
+                vm.setArchitecture(img.getArchitecture() == null ? Architecture.I64 : img.getArchitecture());
+                vm.setPlatform(img.getPlatform() == null ? Platform.UNKNOWN : img.getPlatform());
                 MiData d = new MiData();
                 
                 d.architecture = vm.getArchitecture();
@@ -125,7 +130,22 @@ public class Machine extends AbstractVMSupport<SmartDataCenter> {
         }
     }
 
-    static private HashMap<String,VirtualMachineProduct> productCache = new HashMap<String,VirtualMachineProduct>();
+    static private Map<String,VirtualMachineProduct> productCache = new ConcurrentHashMap<String,VirtualMachineProduct>();
+    static private final ConcurrentHashMap<String,AtomicLong> productsVersions = new ConcurrentHashMap<String,AtomicLong>();
+
+    /**
+     * @param catalogKey the account and endpoint of an image catalog
+     * @return the version of the package list of the account, which changes whenever the list is reloaded
+     */
+    static private @Nonnull AtomicLong getProductsVersion(@Nonnull String catalogKey) {
+        AtomicLong version = productsVersions.get(catalogKey);
+
+        if( version == null ) {
+            productsVersions.putIfAbsent(catalogKey, new AtomicLong());
+            version = productsVersions.get(catalogKey);
+        }
+        return version;
+    }
 
     @Override
     public @Nonnull VirtualMachineCapabilities getCapabilities() throws InternalException, CloudException {
@@ -151,7 +171,7 @@ public class Machine extends AbstractVMSupport<SmartDataCenter> {
 
     @Override
     public @Nullable VirtualMachine getVirtualMachine(@Nonnull String vmId) throws InternalException, CloudException {
-        JoyentMethod method = new JoyentMethod(provider);
+        JoyentMethod method = provider.getMethod();
 
         try {
             String json = method.doGetJson(provider.getEndpoint(), "machines/" + vmId);
@@ -179,7 +199,7 @@ public class Machine extends AbstractVMSupport<SmartDataCenter> {
             }
         }
 
-        JoyentMethod method = new JoyentMethod(provider);
+        JoyentMethod method = provider.getMethod();
         try {
             method.doGetJson(provider.getEndpoint(), "packages");
         } catch (JoyentException e) {
@@ -195,7 +215,7 @@ public class Machine extends AbstractVMSupport<SmartDataCenter> {
 
     @Override
     public @Nonnull VirtualMachine launch(@Nonnull VMLaunchOptions withLaunchOptions) throws CloudException, InternalException {
-        JoyentMethod method = new JoyentMethod(provider);
+        JoyentMethod method = provider.getMethod();
         Map<String, Object> post = new HashMap<String,Object>();
 
         if( withLaunchOptions.getUserData() != null ) {
@@ -304,25 +324,25 @@ public class Machine extends AbstractVMSupport<SmartDataCenter> {
 
     @Override
     public @Nonnull Iterable<VirtualMachineProduct> listProducts(@Nonnull String machineImageId) throws InternalException, CloudException {
-        MachineImage image = getProvider().getComputeServices().getImageSupport().getImage(machineImageId);
-        Iterable<VirtualMachineProduct> allProducts = listProducts(image.getArchitecture());
-        List<VirtualMachineProduct> products = new ArrayList<VirtualMachineProduct>();
-        long minRamSize = 0L;
-        String value = image.getProviderMetadata().get("min_ram");
-        if( value != null ) {
-            minRamSize = Long.parseLong(value);
-        }
-        for( VirtualMachineProduct product : allProducts ) {
-            boolean includeProduct = true;
-            if( product.getRamSize().longValue() < minRamSize ) {
-                includeProduct = false;
-            }
-            else if( product.getRootVolumeSize() != null && product.getRootVolumeSize().longValue() < image.getMinimumDiskSizeGb() ) {
-                includeProduct = false;
-            }
-            if( includeProduct ) {
-                products.add(product);
+        Dataset support = getProvider().getComputeServices().getImageSupport();
+        ImageCatalog catalog = support.getCatalog();
+        MachineImage image = catalog.find(support, machineImageId);
+
+        if( image == null ) {
+            // not in the listing, e.g. an image that is still being created
+            image = support.getImage(machineImageId);
+            if( image == null ) {
+                throw new CloudException("No such image: " + machineImageId);
             }
+            return ProductCompatibilityIndex.compatibleProducts(image, listProducts(image.getArchitecture()));
+        }
+        // read the package list first, a reload bumps the products version and so retires the index
+        Iterable<VirtualMachineProduct> allProducts = listProducts(image.getArchitecture());
+        ProductCompatibilityIndex index = ProductCompatibilityIndex.getInstance(catalog, getProductsVersion(catalog.getKey()).get());
+        List<VirtualMachineProduct> products = index.get(machineImageId);
+
+        if( products == null ) {
+            products = index.index(image, allProducts);
         }
         return products;
     }
@@ -334,7 +354,7 @@ public class Machine extends AbstractVMSupport<SmartDataCenter> {
         if( cachedProducts != null && cachedProducts.iterator().hasNext() ) {
             return cachedProducts;
         }
-        JoyentMethod method = new JoyentMethod(provider);
+        JoyentMethod method = provider.getMethod();
         String json = method.doGetJson(provider.getEndpoint(), "packages");
         
         if( json == null ) {
@@ -382,6 +402,7 @@ public class Machine extends AbstractVMSupport<SmartDataCenter> {
                 }
             }
             cache.put(getContext(), products);
+            getProductsVersion(provider.getComputeServices().getImageSupport().getCatalog().getKey()).incrementAndGet();
             return products;
         }
         catch( JSONException e ) {
@@ -391,7 +412,7 @@ public class Machine extends AbstractVMSupport<SmartDataCenter> {
 
     @Override
     public @Nonnull Iterable<ResourceStatus> listVirtualMachineStatus() throws InternalException, CloudException {
-        JoyentMethod method = new JoyentMethod(provider);
+        JoyentMethod method = provider.getMethod();
 
         try {
             JSONArray machines = new JSONArray(method.doGetJson(provider.getEndpoint(), "machines"));
@@ -413,14 +434,15 @@ public class Machine extends AbstractVMSupport<SmartDataCenter> {
 
     @Override
     public @Nonnull Iterable<VirtualMachine> listVirtualMachines() throws InternalException, CloudException {
-        JoyentMethod method = new JoyentMethod(provider);
+        JoyentMethod method = provider.getMethod();
 
         try {
             JSONArray machines = new JSONArray(method.doGetJson(provider.getEndpoint(), "machines"));
             ArrayList<VirtualMachine> vms = new ArrayList<VirtualMachine>();
+            boolean lazy = isLazyListing();
     
             for( int i=0; i<machines.length(); i++ ) {
-                VirtualMachine vm = toVirtualMachine(machines.getJSONObject(i));
+                VirtualMachine vm = toVirtualMachine(machines.getJSONObject(i), lazy);
                 
                 if( vm != null ) {
                     vms.add(vm);
@@ -440,14 +462,14 @@ public class Machine extends AbstractVMSupport<SmartDataCenter> {
 
     @Override
     public void stop(@Nonnull String vmId, boolean force) throws InternalException, CloudException {
-        JoyentMethod method = new JoyentMethod(provider);
+        JoyentMethod method = provider.getMethod();
 
         method.doPostString(provider.getEndpoint(), "machines/" + vmId, "action=stop");
     }
 
     @Override
     public void reboot(@Nonnull String vmId) throws CloudException, InternalException {
-        JoyentMethod method = new JoyentMethod(provider);
+        JoyentMethod method = provider.getMethod();
         
         method.doPostString(provider.getEndpoint(), "machines/" + vmId, "action=reboot");
     }
@@ -455,7 +477,7 @@ public class Machine extends AbstractVMSupport<SmartDataCenter> {
     @Override
     public void terminate(@Nonnull String vmId, @Nullable String explanation) throws InternalException, CloudException {
         long timeout = System.currentTimeMillis() + (CalendarWrapper.MINUTE * 20);
-        JoyentMethod method = new JoyentMethod(provider);
+        JoyentMethod method = provider.getMethod();
         VirtualMachine vm = getVirtualMachine(vmId);
         
         if( vm == null ) {
@@ -501,7 +523,7 @@ public class Machine extends AbstractVMSupport<SmartDataCenter> {
     @Override
     public @Nullable String getPassword( @Nonnull String vmId ) throws InternalException, CloudException {
         final String[] adminUsernames = {"root", "administrator", "admin"};
-        JoyentMethod method = new JoyentMethod(provider);
+        JoyentMethod method = provider.getMethod();
         try {
             JSONObject ob = new JSONObject(method.doGetJson(provider.getEndpoint(), "machines/"+vmId+"/metadata?credentials=true"));
             if( ob.has("credentials") ) {
@@ -520,7 +542,7 @@ public class Machine extends AbstractVMSupport<SmartDataCenter> {
 
     @Override
     public @Nullable String getUserData( @Nonnull String vmId ) throws InternalException, CloudException {
-        JoyentMethod method = new JoyentMethod(provider);
+        JoyentMethod method = provider.getMethod();
         try {
             JSONObject ob = new JSONObject(method.doGetJson(provider.getEndpoint(), "machines/"+vmId+"/metadata"));
             if( ob.has("user-script") ) {
@@ -532,12 +554,29 @@ public class Machine extends AbstractVMSupport<SmartDataCenter> {
         return null;
     }
 
+    private boolean isLazyListing() {
+        ProviderContext ctx = provider.getContext();
+
+        return ctx != null && ctx.getCustomProperties() != null && "true".equalsIgnoreCase(ctx.getCustomProperties().getProperty(CUSTOM_PROP_LAZY_VM_LISTING));
+    }
+
     private VirtualMachine toVirtualMachine(JSONObject ob) throws CloudException, InternalException {
+        return toVirtualMachine(ob, false);
+    }
+
+    private VirtualMachine toVirtualMachine(JSONObject ob, boolean lazy) throws CloudException, InternalException {
         if( ob == null ) {
             return null;
         }
         try {
-            VirtualMachine vm = new VirtualMachine();
+            String datasetUrn = ( ob.has("dataset") ? ob.getString("dataset") : null );
+            int disk = -1, ram = -1;
+
+            if( !ob.has("package") ) {
+                disk = ob.getInt("disk");
+                ram = ob.getInt("memory");
+            }
+            VirtualMachine vm = ( lazy ? new LazyVirtualMachine(this, datasetUrn, disk, ram) : new VirtualMachine() );
             
             vm.setClonable(false);
             vm.setImagable(false);
@@ -564,32 +603,8 @@ public class Machine extends AbstractVMSupport<SmartDataCenter> {
                 
                 for( int i=0; i<ips.length(); i++ ) {
                     String addr = ips.getString(i);
-                    boolean pub = false;
-                    
-                    if( !addr.startsWith("10.") && !addr.startsWith("192.168.") ) {
-                        if( addr.startsWith("172.") ) {
-                            String[] nums = addr.split("\\.");
-                            
-                            if( nums.length != 4 ) {
-                                pub = true;
-                            }
-                            else {
-                                try {
-                                    int x = Integer.parseInt(nums[1]);
-                                    
-                                    if( x < 16 || x > 31 ) {
-                                        pub = true;
-                                    }
-                                }
-                                catch( NumberFormatException ignore ) {
-                                    // ignore
-                                }
-                            }
-                        }
-                        else {
-                            pub = true;
-                        }
-                    }
+                    boolean pub = !IpClassifier.isPrivate(addr);
+
                     if( pub ) {
                         pubIp.add(addr);
                     }
@@ -627,9 +642,6 @@ public class Machine extends AbstractVMSupport<SmartDataCenter> {
                     }
                 }
             }
-            if( vm.getProviderMachineImageId() == null && ob.has("dataset") ) {
-                vm.setProviderMachineImageId(getImageIdFromUrn(ob.getString("dataset")));
-            }
             if( ob.has("created") ) {
                 vm.setCreationTimestamp(provider.parseTimestamp(ob.getString("created")));
             }
@@ -652,31 +664,8 @@ public class Machine extends AbstractVMSupport<SmartDataCenter> {
             if( vm.getDescription() == null ) {
                 vm.setDescription(vm.getName());
             }
-            discover(vm);
-            boolean isVMSmartOs = (vm.getPlatform().equals(Platform.SMARTOS));
-            if( vm.getProductId() == null ) {
-                VirtualMachineProduct d = null;
-                int disk, ram;
-                
-                disk = ob.getInt("disk");
-                ram = ob.getInt("memory");
-                for( VirtualMachineProduct prd : listProducts(vm.getArchitecture()) ) {
-                    d = prd;
-                    boolean isProductSmartOs = prd.getName().contains("smartos");
-                    if( prd.getRootVolumeSize().convertTo(Storage.MEGABYTE).intValue() == disk && prd.getRamSize().intValue() == ram ) {
-                        if (isVMSmartOs && !isProductSmartOs){
-                            continue;
-                        }
-                        if (!isVMSmartOs && isProductSmartOs){
-                            continue;
-                        }
-                        vm.setProductId(prd.getProviderProductId());
-                        break;
-                    }
-                }
-//                if( vm.getProductId() == null && d != null ) {
-//                    vm.setProductId(d.getProviderProductId());
-//                }
+            if( !lazy ) {
+                enrich(vm, datasetUrn, disk, ram);
             }
             return vm;
         }
@@ -685,6 +674,44 @@ public class Machine extends AbstractVMSupport<SmartDataCenter> {
         }
     }
 
+    /**
+     * Fills in the fields of a machine that need further lookups: the true image id, architecture, platform and,
+     * when CloudAPI did not name a package, the product matching the machine's disk and memory.
+     * @param vm the machine to complete
+     * @param datasetUrn the dataset the machine was provisioned from, if known
+     * @param disk the machine's disk size in megabytes
+     * @param ram the machine's memory in megabytes
+     * @throws CloudException an error occurred with the cloud provider while looking up images or products
+     * @throws InternalException an error occurred within Dasein Cloud while looking up images or products
+     */
+    void enrich(@Nonnull VirtualMachine vm, @Nullable String datasetUrn, int disk, int ram) throws CloudException, InternalException {
+        if( vm.getProviderMachineImageId() == null && datasetUrn != null ) {
+            vm.setProviderMachineImageId(getImageIdFromUrn(datasetUrn));
+        }
+        discover(vm);
+        boolean isVMSmartOs = (vm.getPlatform().equals(Platform.SMARTOS));
+        if( vm.getProductId() == null ) {
+            VirtualMachineProduct d = null;
+            for( VirtualMachineProduct prd : listProducts(vm.getArchitecture()) ) {
+                d = prd;
+                boolean isProductSmartOs = prd.getName().contains("smartos");
+                if( prd.getRootVolumeSize().convertTo(Storage.MEGABYTE).intValue() == disk && prd.getRamSize().intValue() == ram ) {
+                    if (isVMSmartOs && !isProductSmartOs){
+                        continue;
+                    }
+                    if (!isVMSmartOs && isProductSmartOs){
+                        continue;
+                    }
+                    vm.setProductId(prd.getProviderProductId());
+                    break;
+                }
+            }
+//            if( vm.getProductId() == null && d != null ) {
+//                vm.setProductId(d.getProviderProductId());
+//            }
+        }
+    }
+
     private @Nonnull VmState toState(@Nonnull String s) {
         if( s.equalsIgnoreCase("running") ) {
             return VmState.RUNNING;
@@ -731,7 +758,7 @@ public class Machine extends AbstractVMSupport<SmartDataCenter> {
         }
     }
 
-    static private HashMap<String,String> urnMapping = new HashMap<String,String>();
+    static private Map<String,String> urnMapping = new ConcurrentHashMap<String,String>();
     
     private String getImageIdFromUrn(String urn) throws CloudException, InternalException {
         if( logger.isTraceEnabled() ) {
@@ -794,7 +821,7 @@ public class Machine extends AbstractVMSupport<SmartDataCenter> {
     	APITrace.begin(getProvider(), "Server.createTags");
     	try {
     		try{
-    			JoyentMethod method = new JoyentMethod(provider);
+    			JoyentMethod method = provider.getMethod();
     			method.doDelete(provider.getEndpoint(), "machines/" + vmId + "/tags");
     			// Delete tags takes time to reflect
     			do {
@@ -824,7 +851,7 @@ public class Machine extends AbstractVMSupport<SmartDataCenter> {
     	APITrace.begin(getProvider(), "Server.updateTags");
     	try {
     		try{
-    			JoyentMethod method = new JoyentMethod(provider);
+    			JoyentMethod method = provider.getMethod();
     			Map<String, Object> post = new HashMap<String,Object>();
     			for (int i = 0; i < tags.length; i++){
     				post.put(tags[i].getKey(), tags[i].getValue() == null ? "" : tags[i].getValue());
@@ -851,7 +878,7 @@ public class Machine extends AbstractVMSupport<SmartDataCenter> {
     public void removeTags(@Nonnull String vmId, @Nonnull Tag... tags) throws CloudException, InternalException {
     	APITrace.begin(getProvider(), "Server.removeTags");
     	try {
-    		JoyentMethod method = new JoyentMethod(provider);
+    		JoyentMethod method = provider.getMethod();
     		for (int i = 0; i < tags.length; i++) {
     			try{
     				method.doDelete(provider.getEndpoint(), "machines/" + vmId + "/tags/" + tags[i].getKey());
@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.joyent.compute;
+
+import org.dasein.cloud.compute.MachineImage;
+import org.dasein.cloud.compute.VirtualMachineProduct;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers which packages each image of an {@link ImageCatalog} can be launched with. An index is tied to one
+ * version of the catalog and one version of the package list and is replaced as soon as either changes.
+ * @author Dell, Inc
+ */
+final class ProductCompatibilityIndex {
+    static private final ConcurrentHashMap<String,ProductCompatibilityIndex> indexes = new ConcurrentHashMap<String,ProductCompatibilityIndex>();
+
+    /**
+     * @param catalog the image catalog the index is derived from
+     * @param productsVersion the version of the package list the index is derived from
+     * @return the current index for the catalog, empty if either source changed since it was built
+     */
+    static @Nonnull ProductCompatibilityIndex getInstance(@Nonnull ImageCatalog catalog, long productsVersion) {
+        long catalogVersion = catalog.getVersion();
+        ProductCompatibilityIndex index = indexes.get(catalog.getKey());
+
+        if( index == null || index.catalogVersion != catalogVersion || index.productsVersion != productsVersion ) {
+            index = new ProductCompatibilityIndex(catalogVersion, productsVersion);
+            indexes.put(catalog.getKey(), index);
+        }
+        return index;
+    }
+
+    /**
+     * Lists the packages that satisfy the memory and disk requirements of an image.
+     * @param image the image to be launched
+     * @param products all available packages
+     * @return the packages the image can be launched with
+     */
+    static @Nonnull List<VirtualMachineProduct> compatibleProducts(@Nonnull MachineImage image, @Nonnull Iterable<VirtualMachineProduct> products) {
+        List<VirtualMachineProduct> compatible = new ArrayList<VirtualMachineProduct>();
+        long minRamSize = 0L;
+        String value = image.getProviderMetadata().get("min_ram");
+
+        if( value != null ) {
+            minRamSize = Long.parseLong(value);
+        }
+        for( VirtualMachineProduct product : products ) {
+            if( product.getRamSize().longValue() < minRamSize ) {
+                continue;
+            }
+            if( product.getRootVolumeSize() != null && product.getRootVolumeSize().longValue() < image.getMinimumDiskSizeGb() ) {
+                continue;
+            }
+            compatible.add(product);
+        }
+        return compatible;
+    }
+
+    private final long catalogVersion;
+    private final long productsVersion;
+    private final ConcurrentHashMap<String,List<VirtualMachineProduct>> byImage = new ConcurrentHashMap<String,List<VirtualMachineProduct>>();
+
+    private ProductCompatibilityIndex(long catalogVersion, long productsVersion) {
+        this.catalogVersion = catalogVersion;
+        this.productsVersion = productsVersion;
+    }
+
+    /**
+     * @param imageId the image to look up
+     * @return the compatible packages, or null if the image has not been indexed yet
+     */
+    @Nullable List<VirtualMachineProduct> get(@Nonnull String imageId) {
+        return byImage.get(imageId);
+    }
+
+    /**
+     * Indexes an image, computing its compatible packages once.
+     * @param image the image to index
+     * @param products all available packages
+     * @return the compatible packages
+     */
+    @Nonnull List<VirtualMachineProduct> index(@Nonnull MachineImage image, @Nonnull Iterable<VirtualMachineProduct> products) {
+        List<VirtualMachineProduct> compatible = Collections.unmodifiableList(compatibleProducts(image, products));
+
+        byImage.put(image.getProviderMachineImageId(), compatible);
+        return compatible;
+    }
+}
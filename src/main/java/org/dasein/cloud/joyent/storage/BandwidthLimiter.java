@@ -0,0 +1,249 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.joyent.storage;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * Caps the rate at which bytes go through the streams it wraps, as a token bucket holding up to one second of
+ * traffic. A limiter may have a parent, in which case bytes are counted against both, so one transfer can be held
+ * below the limit shared by all background transfers, itself held below the limit of the whole JVM. A rate of zero
+ * or less means no limit. Rates can be changed at any time and apply from the next chunk sent or received. While
+ * neither a limiter nor its parents has a limit, bytes go through without locking and without being cut into chunks.
+ * @author Dell, Inc
+ */
+public final class BandwidthLimiter {
+    /**
+     * Streams are throttled in chunks of at most this many bytes.
+     */
+    static final int CHUNK_SIZE = 16 * 1024;
+
+    static private final BandwidthLimiter global     = new BandwidthLimiter(0L, null);
+    static private final BandwidthLimiter background = new BandwidthLimiter(0L, global);
+
+    /**
+     * @return the limiter all Manta traffic of the JVM goes through
+     */
+    static public @Nonnull BandwidthLimiter getGlobal() {
+        return global;
+    }
+
+    /**
+     * @return the limiter the traffic of all {@link MantaTransfer.Priority#BACKGROUND} transfers goes through, below
+     * the global one
+     */
+    static public @Nonnull BandwidthLimiter getBackground() {
+        return background;
+    }
+
+    /**
+     * @param priority the priority of a transfer
+     * @return the shared limiter transfers of the priority go through
+     */
+    static @Nonnull BandwidthLimiter forPriority(@Nonnull MantaTransfer.Priority priority) {
+        return ( priority == MantaTransfer.Priority.BACKGROUND ? background : global );
+    }
+
+    private final BandwidthLimiter parent;
+    private volatile long          bytesPerSecond;
+    private double                 tokens;
+    private long                   refilledAt = System.nanoTime();
+
+    /**
+     * @param bytesPerSecond the rate, or zero or less for no limit
+     * @param parent the limiter bytes are also counted against, or null
+     */
+    public BandwidthLimiter(long bytesPerSecond, @Nullable BandwidthLimiter parent) {
+        this.parent = parent;
+        setBytesPerSecond(bytesPerSecond);
+    }
+
+    /**
+     * @return the rate, or zero or less for no limit
+     */
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * @param bytesPerSecond the new rate, or zero or less for no limit
+     */
+    public synchronized void setBytesPerSecond(long bytesPerSecond) {
+        refill();
+        this.bytesPerSecond = bytesPerSecond;
+        tokens = Math.min(tokens, capacity());
+    }
+
+    /**
+     * Waits until the given number of bytes may go through this limiter and its parents.
+     * @param bytes the number of bytes about to be sent or received
+     * @throws InterruptedIOException the thread was interrupted while waiting
+     */
+    void acquire(int bytes) throws InterruptedIOException {
+        if( bytesPerSecond > 0L ) {
+            long wait;
+
+            synchronized( this ) {
+                wait = reserve(bytes);
+            }
+            if( wait > 0L ) {
+                try {
+                    Thread.sleep(wait / 1000000L, ( int ) ( wait % 1000000L ));
+                }
+                catch( InterruptedException e ) {
+                    throw new InterruptedIOException("Interrupted while waiting for bandwidth");
+                }
+            }
+        }
+        if( parent != null ) {
+            parent.acquire(bytes);
+        }
+    }
+
+    /**
+     * @return true if this limiter or one of its parents has a limit
+     */
+    boolean isLimited() {
+        for( BandwidthLimiter limiter = this; limiter != null; limiter = limiter.parent ) {
+            if( limiter.bytesPerSecond > 0L ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param out the stream to throttle
+     * @return a stream writing to {@code out} no faster than this limiter allows
+     */
+    @Nonnull OutputStream wrap(@Nonnull OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                if( isLimited() ) {
+                    acquire(1);
+                }
+                out.write(b);
+            }
+
+            @Override
+            public void write(@Nonnull byte[] b, int off, int len) throws IOException {
+                if( !isLimited() ) {
+                    out.write(b, off, len);
+                    return;
+                }
+                while( len > 0 ) {
+                    int n = Math.min(len, CHUNK_SIZE);
+
+                    acquire(n);
+                    out.write(b, off, n);
+                    off += n;
+                    len -= n;
+                }
+            }
+        };
+    }
+
+    /**
+     * @param in the stream to throttle
+     * @return a stream reading from {@code in} no faster than this limiter allows
+     */
+    @Nonnull InputStream wrap(@Nonnull InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = in.read();
+
+                if( b >= 0 && isLimited() ) {
+                    acquire(1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(@Nonnull byte[] b, int off, int len) throws IOException {
+                if( !isLimited() ) {
+                    return in.read(b, off, len);
+                }
+                int n = in.read(b, off, Math.min(len, CHUNK_SIZE));
+
+                if( n > 0 ) {
+                    acquire(n);
+                }
+                return n;
+            }
+        };
+    }
+
+    /**
+     * @param entity the request body to throttle
+     * @return a request body sending {@code entity} no faster than this limiter allows
+     */
+    @Nonnull HttpEntity wrap(@Nonnull HttpEntity entity) {
+        return new HttpEntityWrapper(entity) {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                OutputStream throttled = wrap(out);
+
+                super.writeTo(throttled);
+                throttled.flush();
+            }
+        };
+    }
+
+    /**
+     * Takes the bytes from the bucket, running into debt if there are not enough.
+     * @return the time in nanoseconds to wait until the debt is paid off
+     */
+    private long reserve(int bytes) {
+        if( bytesPerSecond <= 0L ) {
+            return 0L;
+        }
+        refill();
+        tokens -= bytes;
+        if( tokens >= 0 ) {
+            return 0L;
+        }
+        return ( long ) ( ( -tokens * 1000000000.0 ) / bytesPerSecond );
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+
+        if( bytesPerSecond > 0L ) {
+            tokens = Math.min(capacity(), tokens + ( ( now - refilledAt ) * ( double ) bytesPerSecond ) / 1000000000.0);
+        }
+        refilledAt = now;
+    }
+
+    private double capacity() {
+        return Math.max(bytesPerSecond, CHUNK_SIZE);
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.joyent.storage;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Request body made of the remaining bytes of a {@link ByteBuffer}, which may be a heap buffer, a direct buffer or
+ * a memory-mapped file. A heap buffer is written straight from its backing array; other buffers go through one
+ * small transfer buffer. The position of the caller's buffer is never changed, so the entity can be written again
+ * for a retry.
+ * @author Dell, Inc
+ */
+class ByteBufferEntity extends AbstractHttpEntity {
+    private final ByteBuffer buffer;
+
+    /**
+     * @param buffer the buffer holding the payload between its position and its limit
+     */
+    ByteBufferEntity(@Nonnull ByteBuffer buffer) {
+        this.buffer = buffer.duplicate();
+        setContentType("application/octet-stream");
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return buffer.remaining();
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        final ByteBuffer source = buffer.duplicate();
+
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                return ( source.hasRemaining() ? source.get() & 0xff : -1 );
+            }
+
+            @Override
+            public int read(@Nonnull byte[] b, int off, int len) throws IOException {
+                if( !source.hasRemaining() ) {
+                    return -1;
+                }
+                int n = Math.min(len, source.remaining());
+
+                source.get(b, off, n);
+                return n;
+            }
+        };
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        ByteBuffer source = buffer.duplicate();
+
+        if( source.hasArray() ) {
+            out.write(source.array(), source.arrayOffset() + source.position(), source.remaining());
+        }
+        else {
+            byte[] chunk = new byte[Math.min(FileChannelEntity.BUFFER_SIZE, Math.max(source.remaining(), 1))];
+
+            while( source.hasRemaining() ) {
+                int n = Math.min(chunk.length, source.remaining());
+
+                source.get(chunk, 0, n);
+                out.write(chunk, 0, n);
+            }
+        }
+        out.flush();
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+}
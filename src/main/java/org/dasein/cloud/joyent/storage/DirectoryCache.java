@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.joyent.storage;
+
+import javax.annotation.Nonnull;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The Manta directories of one account that are known to exist because they were created or written to through
+ * this storage support. Shared by all storage supports for the account. A directory removed by someone else stays
+ * listed until a write into it fails, at which point the caller forgets it and creates it again.
+ * @author Dell, Inc
+ */
+class DirectoryCache {
+    static final int MAX_ENTRIES = 10000;
+
+    static private final ConcurrentHashMap<String,DirectoryCache> caches = new ConcurrentHashMap<String,DirectoryCache>();
+
+    /**
+     * @param key the Manta URL and account the directories belong to
+     * @return the directory cache shared by all storage supports for the account
+     */
+    static @Nonnull DirectoryCache getInstance(@Nonnull String key) {
+        DirectoryCache cache = caches.get(key);
+
+        if( cache == null ) {
+            caches.putIfAbsent(key, new DirectoryCache());
+            cache = caches.get(key);
+        }
+        return cache;
+    }
+
+    private final Set<String> directories = Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
+
+    /**
+     * @param path the full Manta path of a directory
+     * @return true if the directory is known to exist
+     */
+    boolean contains(@Nonnull String path) {
+        return directories.contains(normalize(path));
+    }
+
+    /**
+     * Records that a directory exists.
+     * @param path the full Manta path of a directory
+     */
+    void add(@Nonnull String path) {
+        if( directories.size() >= MAX_ENTRIES ) {
+            directories.clear();
+        }
+        directories.add(normalize(path));
+    }
+
+    /**
+     * Forgets a directory and every directory below it.
+     * @param path the full Manta path of a directory
+     */
+    void remove(@Nonnull String path) {
+        String key = normalize(path);
+        String prefix = key + "/";
+
+        for( Iterator<String> it = directories.iterator(); it.hasNext(); ) {
+            String dir = it.next();
+
+            if( dir.equals(key) || dir.startsWith(prefix) ) {
+                it.remove();
+            }
+        }
+    }
+
+    static @Nonnull String normalize(@Nonnull String path) {
+        int end = path.length();
+
+        while( end > 1 && path.charAt(end - 1) == '/' ) {
+            end--;
+        }
+        return ( end == path.length() ? path : path.substring(0, end) );
+    }
+}
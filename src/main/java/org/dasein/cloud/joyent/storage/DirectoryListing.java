@@ -0,0 +1,287 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.joyent.storage;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.HttpGet;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.joyent.Iso8601;
+import org.dasein.cloud.storage.Blob;
+import org.dasein.util.uom.storage.Storage;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URLEncoder;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The content of a Manta directory, read one page at a time with the {@code limit} and {@code marker} parameters so
+ * that a directory of any size is never held in memory at once. While the caller works through one page, the next
+ * one is fetched in the background.
+ * @author Dell, Inc
+ */
+class DirectoryListing implements Iterable<Blob> {
+    /**
+     * Manta returns at most 1024 entries per request.
+     */
+    static final int PAGE_SIZE = 1000;
+
+    /**
+     * One response of the directory listing.
+     */
+    static class Page {
+        final String     path;
+        final List<Blob> blobs;
+        final String     lastName;
+        final boolean    last;
+
+        Page(@Nonnull String path, @Nonnull List<Blob> blobs, @Nullable String lastName, boolean last) {
+            this.path = path;
+            this.blobs = blobs;
+            this.lastName = lastName;
+            this.last = last;
+        }
+    }
+
+    /**
+     * Where the pages of a listing come from.
+     */
+    interface PageSource {
+        /**
+         * @param path the full Manta path of the directory
+         * @param marker the name of the last entry of the previous page, or null for the first page
+         * @return the page
+         * @throws CloudException Manta answered with an error or an invalid entry
+         * @throws InternalException the request could not be made
+         * @throws IOException the request failed
+         */
+        @Nonnull Page fetch(@Nonnull String path, @Nullable String marker) throws CloudException, InternalException, IOException;
+    }
+
+    /**
+     * @param http the connection to Manta
+     * @param bucket the bucket name the entries are reported in
+     * @param regionId the region the entries are reported in
+     * @param limit the maximum number of entries per page
+     * @return a source reading pages from Manta
+     */
+    static @Nonnull PageSource over(@Nonnull final MantaHttp http, @Nonnull final String bucket, @Nonnull final String regionId, final int limit) {
+        return new PageSource() {
+            @Override
+            public @Nonnull Page fetch(@Nonnull String path, @Nullable String marker) throws CloudException, InternalException, IOException {
+                return DirectoryListing.fetch(http, path, bucket, regionId, marker, limit);
+            }
+        };
+    }
+
+    /**
+     * Reads one page of a directory.
+     * @param http the connection to Manta
+     * @param path the full Manta path of the directory
+     * @param bucket the bucket name the entries are reported in
+     * @param regionId the region the entries are reported in
+     * @param marker the name of the last entry of the previous page, or null for the first page
+     * @param limit the maximum number of entries to read
+     * @return the page
+     * @throws CloudException Manta answered with an error or an invalid entry
+     * @throws InternalException the request could not be signed
+     * @throws IOException the request failed
+     */
+    static @Nonnull Page fetch(@Nonnull MantaHttp http, @Nonnull String path, @Nonnull String bucket, @Nonnull String regionId, @Nullable String marker, int limit) throws CloudException, InternalException, IOException {
+        HttpGet get = new HttpGet(http.toUrl(path) + "?limit=" + limit + ( marker == null ? "" : "&marker=" + URLEncoder.encode(marker, "UTF-8") ));
+
+        get.addHeader("Accept", "application/x-json-stream");
+        HttpEntity entity = http.execute(get).getEntity();
+
+        if( entity == null ) {
+            return new Page(path, new ArrayList<Blob>(), marker, true);
+        }
+        InputStream content = entity.getContent();
+
+        try {
+            return read(path, content, bucket, regionId, marker, limit);
+        }
+        catch( CloudException e ) {
+            get.abort();
+            throw e;
+        }
+        finally {
+            content.close();
+        }
+    }
+
+    /**
+     * Reads one page of a directory from a listing response.
+     * @param path the full Manta path of the directory
+     * @param content the response, one JSON entry per line
+     * @param bucket the bucket name the entries are reported in
+     * @param regionId the region the entries are reported in
+     * @param marker the marker the page was requested with, or null for the first page
+     * @param limit the limit the page was requested with
+     * @return the page, which is the last one if Manta returned fewer entries than the limit
+     * @throws CloudException an entry is not valid
+     * @throws IOException the response could not be read
+     */
+    static @Nonnull Page read(@Nonnull String path, @Nonnull InputStream content, @Nonnull String bucket, @Nonnull String regionId, @Nullable String marker, int limit) throws CloudException, IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(content, "UTF-8"));
+        List<Blob> blobs = new ArrayList<Blob>();
+        String lastName = marker;
+        int count = 0;
+
+        try {
+            String line;
+
+            while( (line = reader.readLine()) != null ) {
+                if( line.trim().length() == 0 ) {
+                    continue;
+                }
+                JSONObject ob = new JSONObject(line);
+                String name = ob.getString("name");
+
+                count++;
+                // the marker entry itself is repeated at the top of the next page
+                if( name.equals(marker) ) {
+                    continue;
+                }
+                lastName = name;
+                blobs.add(toBlob(ob, name, bucket, regionId));
+            }
+        }
+        catch( JSONException e ) {
+            throw new CloudException(e);
+        }
+        return new Page(path, blobs, lastName, count < limit);
+    }
+
+    static private @Nonnull Blob toBlob(@Nonnull JSONObject ob, @Nonnull String name, @Nonnull String bucket, @Nonnull String regionId) {
+        long timestamp = System.currentTimeMillis();
+
+        if( ob.has("mtime") ) {
+            try {
+                timestamp = Iso8601.parse(ob.optString("mtime"));
+            }
+            catch( ParseException ignore ) {
+                // keep the listing time
+            }
+        }
+        if( "directory".equals(ob.optString("type")) ) {
+            return Blob.getInstance(regionId, "", bucket.length() == 0 ? name : bucket + "/" + name, timestamp);
+        }
+        return Blob.getInstance(regionId, "", bucket, name, timestamp,
+                new Storage<org.dasein.util.uom.storage.Byte>(ob.optLong("size", 0L), Storage.BYTE));
+    }
+
+    private final PageSource source;
+    private final Executor   prefetcher;
+    private final Page       first;
+
+    /**
+     * @param source reads the next pages
+     * @param prefetcher runs the requests for the next pages
+     * @param first the first page, already read
+     */
+    DirectoryListing(@Nonnull PageSource source, @Nonnull Executor prefetcher, @Nonnull Page first) {
+        this.source = source;
+        this.prefetcher = prefetcher;
+        this.first = first;
+    }
+
+    @Override
+    public @Nonnull Iterator<Blob> iterator() {
+        return new PageIterator(first);
+    }
+
+    private class PageIterator implements Iterator<Blob> {
+        private Page              page;
+        private int               index;
+        private FutureTask<Page>  next;
+
+        PageIterator(@Nonnull Page page) {
+            this.page = page;
+            prefetch();
+        }
+
+        private void prefetch() {
+            if( page.last ) {
+                next = null;
+                return;
+            }
+            final Page current = page;
+
+            next = new FutureTask<Page>(new Callable<Page>() {
+                @Override
+                public Page call() throws Exception {
+                    return source.fetch(current.path, current.lastName);
+                }
+            });
+            prefetcher.execute(next);
+        }
+
+        @Override
+        public boolean hasNext() {
+            while( index >= page.blobs.size() ) {
+                if( next == null ) {
+                    return false;
+                }
+                try {
+                    page = next.get();
+                }
+                catch( ExecutionException e ) {
+                    next = null;
+                    throw new IllegalStateException("Unable to list " + page.path + ": " + e.getCause().getMessage(), e.getCause());
+                }
+                catch( InterruptedException e ) {
+                    throw new IllegalStateException("Interrupted while listing " + page.path);
+                }
+                index = 0;
+                prefetch();
+            }
+            return true;
+        }
+
+        @Override
+        public Blob next() {
+            if( !hasNext() ) {
+                throw new NoSuchElementException();
+            }
+            return page.blobs.get(index++);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("Listings are read only");
+        }
+    }
+}
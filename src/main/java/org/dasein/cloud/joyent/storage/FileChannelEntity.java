@@ -0,0 +1,139 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.joyent.storage;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Request body made of one region of an open {@link FileChannel}. The region is read with positional reads straight
+ * into a small transfer buffer, so the payload is never held on the heap and the position of the channel is left
+ * alone; the entity can be written again for a retry.
+ * @author Dell, Inc
+ */
+class FileChannelEntity extends AbstractHttpEntity {
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final long        position;
+    private final long        count;
+
+    /**
+     * @param channel the channel to read from, which stays open
+     * @param position the offset of the region in the channel
+     * @param count the length of the region
+     */
+    FileChannelEntity(@Nonnull FileChannel channel, long position, long count) {
+        this.channel = channel;
+        this.position = position;
+        this.count = count;
+        setContentType("application/octet-stream");
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return count;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        return new BoundedChannelInputStream(channel, position, count);
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        write(channel, position, count, out);
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    /**
+     * Copies a region of a channel to a stream through one transfer buffer, without moving the channel position.
+     */
+    static void write(@Nonnull FileChannel channel, long position, long count, @Nonnull OutputStream out) throws IOException {
+        byte[] chunk = new byte[( int ) Math.min(BUFFER_SIZE, Math.max(count, 1))];
+        ByteBuffer buffer = ByteBuffer.wrap(chunk);
+        long done = 0;
+
+        while( done < count ) {
+            buffer.clear();
+            if( count - done < chunk.length ) {
+                buffer.limit(( int ) ( count - done ));
+            }
+            int n = channel.read(buffer, position + done);
+
+            if( n < 0 ) {
+                throw new IOException("Channel ended " + ( count - done ) + " bytes before the end of the region");
+            }
+            out.write(chunk, 0, n);
+            done += n;
+        }
+        out.flush();
+    }
+
+    /**
+     * Reads a region of a channel with positional reads.
+     */
+    static private class BoundedChannelInputStream extends InputStream {
+        private final FileChannel channel;
+        private final long        end;
+        private long              position;
+
+        BoundedChannelInputStream(@Nonnull FileChannel channel, long position, long count) {
+            this.channel = channel;
+            this.position = position;
+            this.end = position + count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+
+            return ( read(b, 0, 1) < 0 ? -1 : b[0] & 0xff );
+        }
+
+        @Override
+        public int read(@Nonnull byte[] b, int off, int len) throws IOException {
+            if( position >= end ) {
+                return -1;
+            }
+            int n = channel.read(ByteBuffer.wrap(b, off, ( int ) Math.min(len, end - position)), position);
+
+            if( n > 0 ) {
+                position += n;
+            }
+            return n;
+        }
+    }
+}
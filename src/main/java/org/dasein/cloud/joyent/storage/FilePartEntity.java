@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.joyent.storage;
+
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.http.entity.AbstractHttpEntity;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+/**
+ * Request body made of one byte range of a file. The range is read from disk each time the entity is written, so a
+ * failed request can be sent again without holding the part in memory.
+ * @author Dell, Inc
+ */
+class FilePartEntity extends AbstractHttpEntity {
+    private final File file;
+    private final long offset;
+    private final long length;
+
+    FilePartEntity(@Nonnull File file, long offset, long length) {
+        this.file = file;
+        this.offset = offset;
+        this.length = length;
+        setContentType("application/octet-stream");
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return length;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        FileInputStream in = new FileInputStream(file);
+
+        try {
+            long skipped = 0;
+
+            while( skipped < offset ) {
+                long n = in.skip(offset - skipped);
+
+                if( n <= 0 ) {
+                    throw new IOException("File " + file + " is shorter than expected");
+                }
+                skipped += n;
+            }
+        }
+        catch( IOException e ) {
+            in.close();
+            throw e;
+        }
+        return new BoundedInputStream(in, length);
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+        try {
+            FileChannelEntity.write(raf.getChannel(), offset, length, out);
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+}
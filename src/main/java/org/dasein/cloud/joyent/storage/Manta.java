@@ -23,10 +23,13 @@ import com.joyent.manta.client.MantaClient;
 import com.joyent.manta.client.MantaObject;
 import com.joyent.manta.exception.MantaClientHttpResponseException;
 import com.joyent.manta.exception.MantaCryptoException;
-import com.joyent.manta.exception.MantaObjectException;
-import org.apache.commons.io.FileUtils;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
 import org.apache.log4j.Logger;
+import org.bouncycastle.util.encoders.Base64;
 import org.dasein.cloud.*;
 import org.dasein.cloud.identity.ServiceAction;
 import org.dasein.cloud.joyent.SmartDataCenter;
@@ -38,7 +41,13 @@ import org.dasein.util.uom.storage.*;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * @author ilya.drabenia
@@ -54,11 +63,97 @@ import java.util.*;
  */
 public class Manta extends AbstractBlobStoreSupport<SmartDataCenter>  {
     public static final  String CUSTOM_PROP_STORAGE_URL = "storageUrl";
+    /**
+     * Context property with the HTTP timeout, in milliseconds, for requests to Manta.
+     */
+    public static final  String CUSTOM_PROP_STORAGE_TIMEOUT = "storageTimeout";
+    /**
+     * Context property with the file size, in bytes, from which uploads are split into parts sent in parallel.
+     */
+    public static final  String CUSTOM_PROP_MULTIPART_THRESHOLD = "storageMultipartThreshold";
+    /**
+     * Context property with the size, in bytes, of the parts of a multipart upload.
+     */
+    public static final  String CUSTOM_PROP_PART_SIZE = "storagePartSize";
+    /**
+     * Context property with the number of parts of one multipart upload that are sent at the same time.
+     */
+    public static final  String CUSTOM_PROP_UPLOAD_PARALLELISM = "storageUploadParallelism";
+    /**
+     * Context property with the size, in bytes, of the ranges objects are downloaded in. An object no larger than one
+     * range is downloaded with a single request.
+     */
+    public static final  String CUSTOM_PROP_RANGE_SIZE = "storageRangeSize";
+    /**
+     * Context property with the number of ranges of one object that are downloaded at the same time.
+     */
+    public static final  String CUSTOM_PROP_DOWNLOAD_PARALLELISM = "storageDownloadParallelism";
+    /**
+     * Context property with the number of objects deleted at the same time when a directory is removed with its content.
+     */
+    public static final  String CUSTOM_PROP_DELETE_PARALLELISM = "storageDeleteParallelism";
+    /**
+     * Context property with the number of transfers of the account that run at the same time; others wait in line.
+     * Together with {@link #CUSTOM_PROP_WORKER_THREADS}, it sizes the default per-endpoint limit of the pooled HTTP
+     * client, so that admitted transfers do not wait for a connection behind one another.
+     */
+    public static final  String CUSTOM_PROP_TRANSFER_THREADS = "storageTransferThreads";
+    /**
+     * Context property with the number of threads of the account that send parts, ranges, deletes and listing pages.
+     * Each may hold a pooled connection to Manta; see {@link #getConnectionsPerAccount(Properties)}.
+     */
+    public static final  String CUSTOM_PROP_WORKER_THREADS = "storageWorkerThreads";
+    /**
+     * Context property with the number of transfers, of all accounts, that run at the same time in the JVM. Like the
+     * bandwidth limits, it is JVM-wide: the first context using Manta that sets it decides, and later contexts do not
+     * change it. Use {@link TransferScheduler#setGlobalLimit(int)} to change it afterwards.
+     */
+    public static final  String CUSTOM_PROP_GLOBAL_TRANSFER_LIMIT = "storageGlobalTransferLimit";
+    /**
+     * Context property with the priority, INTERACTIVE, NORMAL or BACKGROUND, of transfers not given one explicitly.
+     */
+    public static final  String CUSTOM_PROP_TRANSFER_PRIORITY = "storageTransferPriority";
+    /**
+     * Context property with the bytes per second all Manta transfers of the JVM may use together; unlimited if unset.
+     * Taken from the first context using Manta that sets it; use {@link BandwidthLimiter#getGlobal()} to change it
+     * afterwards.
+     */
+    public static final  String CUSTOM_PROP_BANDWIDTH_LIMIT = "storageBandwidthLimit";
+    /**
+     * Context property with the bytes per second all background Manta transfers of the JVM may use together. Taken
+     * from the first context using Manta that sets it; use {@link BandwidthLimiter#getBackground()} to change it
+     * afterwards.
+     */
+    public static final  String CUSTOM_PROP_BACKGROUND_BANDWIDTH_LIMIT = "storageBackgroundBandwidthLimit";
+    /**
+     * Context property telling whether multipart uploads and ranged downloads keep a checkpoint file next to the local
+     * file, named after it with a {@code .manta-upload} or {@code .manta-download} suffix, so that they can be resumed
+     * after a failure or a restart. Off unless set to "true".
+     */
+    public static final  String CUSTOM_PROP_RESUMABLE_TRANSFERS = "storageResumableTransfers";
+    private static final long    DEFAULT_MULTIPART_THRESHOLD = 128L * 1024L * 1024L;
     private static final Logger logger                  = SmartDataCenter.getLogger(MantaStorageServices.class, "std");
 
-    private MantaClient   mantaClient;
-    private String        rootPath;
-    private String        publicPath;
+    // JVM-wide limits are applied once, so that contexts with different settings do not keep overriding one another
+    private static final AtomicBoolean globalLimitApplied         = new AtomicBoolean();
+    private static final AtomicBoolean bandwidthApplied           = new AtomicBoolean();
+    private static final AtomicBoolean backgroundBandwidthApplied = new AtomicBoolean();
+
+    private volatile MantaClient mantaClient;
+    private volatile String      rootPath;
+    private volatile String      publicPath;
+    private volatile DirectoryCache directories;
+    private volatile MantaHttp      http;
+    private volatile String         accountKey;
+
+    private final PathVisibilityCache visibility = new PathVisibilityCache();
+
+    /**
+     * A request against one concrete Manta path, see {@link #onResolvedPath}.
+     */
+    private interface PathOperation<T> {
+        T run(@Nonnull String path) throws Exception;
+    }
 
     public Manta( SmartDataCenter provider ) throws IOException, CloudException {
         super(provider);
@@ -85,14 +180,21 @@ public class Manta extends AbstractBlobStoreSupport<SmartDataCenter>  {
             throw new InternalException("No context has been established for this request");
         }
         if( mantaClient == null ) {
-            try {
-                mantaClient = getClient();
-            }
-            catch( IOException e ) {
-                throw new CloudException("Unable to initialise Manta client", e);
+            synchronized( this ) {
+                if( mantaClient == null ) {
+                    rootPath = "/" + ctx.getAccountNumber() + "/stor";
+                    publicPath = "/" + ctx.getAccountNumber() + "/public";
+                    http = new MantaHttp(getProvider(), ctx.getCustomProperties().getProperty(CUSTOM_PROP_STORAGE_URL));
+                    accountKey = ctx.getCustomProperties().getProperty(CUSTOM_PROP_STORAGE_URL) + "|" + ctx.getAccountNumber();
+                    directories = DirectoryCache.getInstance(accountKey);
+                    try {
+                        mantaClient = getClient();
+                    }
+                    catch( IOException e ) {
+                        throw new CloudException("Unable to initialise Manta client", e);
+                    }
+                }
             }
-            rootPath = "/" + ctx.getAccountNumber() + "/stor";
-            publicPath = "/" + ctx.getAccountNumber() + "/public";
         }
     }
 
@@ -115,7 +217,12 @@ public class Manta extends AbstractBlobStoreSupport<SmartDataCenter>  {
             }
         }
 
-        return MantaClient.newInstance(getProvider().getContext().getCustomProperties().getProperty(CUSTOM_PROP_STORAGE_URL), getProvider().getContext().getAccountNumber(), privateKey, keyName, keyPassword);
+        Properties properties = getProvider().getContext().getCustomProperties();
+        String timeout = properties.getProperty(CUSTOM_PROP_STORAGE_TIMEOUT);
+
+        // the Manta client uses the JDK HTTP stack; its keep-alive pool is sized by the JVM-wide http.maxConnections
+        // system property, which is left to the application
+        return MantaClientRegistry.getClient(properties.getProperty(CUSTOM_PROP_STORAGE_URL), getProvider().getContext().getAccountNumber(), keyName, privateKey, keyPassword, timeout == null || timeout.length() == 0 ? 0 : Integer.parseInt(timeout));
     }
 
     /**
@@ -166,31 +273,40 @@ public class Manta extends AbstractBlobStoreSupport<SmartDataCenter>  {
     @Override
     public void clearBucket(@Nonnull String bucket) throws CloudException, InternalException {
         checkContext();
-        String path = toStoragePath(bucket, null, !isPublic(bucket, null));
-        boolean retryRecursively = false;
-        try {
-            mantaClient.delete(path);
-        } catch (MantaCryptoException e) {
-            throw new CloudException(e);
-        } catch (IOException e) {
-            retryRecursively = true;
-            logger.debug("Directory is not empty. Delete recursively.", e);
-        } catch( MantaClientHttpResponseException e ) {
-            retryRecursively = true;
-            logger.debug("Directory is not empty. Delete recursively.", e);
-        }
-        if( retryRecursively ) {
-            // if bucket is not empty remove recursively
-            try {
-                mantaClient.deleteRecursive(path);
-            } catch( MantaCryptoException e ) {
-                throw new CloudException(e);
-            } catch( IOException e ) {
-                throw new CloudException(e);
-            } catch( MantaClientHttpResponseException e ) {
-                throw new CloudException(e);
+        deleteDirectory(bucket);
+    }
+
+    /**
+     * Deletes a directory, and its content if it is not empty.
+     */
+    private void deleteDirectory(@Nonnull String bucket) throws CloudException, InternalException {
+        onResolvedPath(bucket, null, false, new PathOperation<Void>() {
+            @Override
+            public Void run(@Nonnull String path) throws IOException, MantaCryptoException, MantaClientHttpResponseException, CloudException, InternalException {
+                try {
+                    mantaClient.delete(path);
+                    directories.remove(path);
+                    return null;
+                } catch (IOException e) {
+                    logger.debug("Directory is not empty. Delete recursively.", e);
+                } catch( MantaClientHttpResponseException e ) {
+                    if( e.getStatusCode() == HttpStatus.SC_NOT_FOUND ) {
+                        throw e;
+                    }
+                    logger.debug("Directory is not empty. Delete recursively.", e);
+                }
+                // if bucket is not empty remove its content in parallel, bottom-up
+                try {
+                    new TreeDeleter(http, getTransferExecutor().getWorkers(), ( int ) getLongProperty(CUSTOM_PROP_DELETE_PARALLELISM, TreeDeleter.DEFAULT_PARALLELISM)).delete(path);
+                }
+                finally {
+                    // whatever was left behind is recreated on the next write
+                    directories.remove(path);
+                }
+                return null;
             }
-        }
+        });
+        visibility.invalidate(toPath(bucket, null));
     }
 
     /**
@@ -207,7 +323,8 @@ public class Manta extends AbstractBlobStoreSupport<SmartDataCenter>  {
     public Blob createBucket(@Nonnull String bucket, boolean findFreeName) throws InternalException, CloudException {
         checkContext();
         try {
-            mantaClient.putDirectory(toStoragePath(bucket, null, true), null);
+            createDirectory(toStoragePath(bucket, null, true));
+            visibility.put(toPath(bucket, null), PathVisibilityCache.Visibility.PRIVATE);
         } catch (IOException e) {
             throw new CloudException(e);
         } catch (MantaCryptoException e) {
@@ -229,8 +346,12 @@ public class Manta extends AbstractBlobStoreSupport<SmartDataCenter>  {
     @Override
     public boolean exists(@Nonnull String bucket) throws InternalException, CloudException {
         checkContext();
-        return getMantaObjectMetadata(bucket, null, true) != null
-                || getMantaObjectMetadata(bucket, null, false) != null;
+        PathVisibilityCache.Visibility v = visibility.get(toPath(bucket, null));
+
+        if( v != null ) {
+            return ( v != PathVisibilityCache.Visibility.MISSING );
+        }
+        return getMantaObjectMetadata(bucket, null) != null;
     }
 
 //    private boolean checkMantaPathExists( @Nonnull String path ) throws InternalException, CloudException {
@@ -370,12 +491,89 @@ public class Manta extends AbstractBlobStoreSupport<SmartDataCenter>  {
         }
     }
 
+    /**
+     * Loads {@link MantaObject} without it`s content from whichever storage root holds it.
+     *
+     * @param bucket bucket name
+     * @param object object name
+     * @return Manta object, or null if it exists under neither root
+     */
     private @Nullable MantaObject getMantaObjectMetadata( @Nullable String bucket, @Nullable String object) throws CloudException, InternalException {
-        MantaObject o = getMantaObjectMetadata(bucket, object, true);
-        if( o == null ) {
-            o = getMantaObjectMetadata(bucket, object, false);
+        if( visibility.get(toPath(bucket, object)) == PathVisibilityCache.Visibility.MISSING ) {
+            return null;
         }
-        return o;
+        return onResolvedPath(bucket, object, true, new PathOperation<MantaObject>() {
+            @Override
+            public MantaObject run(@Nonnull String path) throws IOException, MantaCryptoException, MantaClientHttpResponseException {
+                return mantaClient.head(path);
+            }
+        });
+    }
+
+    /**
+     * Runs a request against the storage root the path most likely lives under, which is the root it was last seen
+     * under, else the root of its bucket, else {@code /:login/stor}. Only if that answers 404 is the request repeated
+     * against the other root. The root that answered is remembered for the next request.
+     *
+     * @param bucket bucket name
+     * @param object object name
+     * @param missingAsNull return null instead of failing if the path exists under neither root
+     * @param operation the request to run
+     * @return the result of the request
+     */
+    private @Nullable <T> T onResolvedPath( @Nullable String bucket, @Nullable String object, boolean missingAsNull, @Nonnull PathOperation<T> operation ) throws CloudException, InternalException {
+        String key = toPath(bucket, object);
+        PathVisibilityCache.Visibility v = visibility.get(key);
+
+        if( v == null && object != null ) {
+            v = visibility.get(toPath(bucket, null));
+        }
+        boolean isPrivate = ( v != PathVisibilityCache.Visibility.PUBLIC );
+
+        try {
+            T result;
+
+            try {
+                result = operation.run(toStoragePath(bucket, object, isPrivate));
+            } catch( Exception e ) {
+                if( !isNotFound(e) ) {
+                    throw e;
+                }
+                isPrivate = !isPrivate;
+                try {
+                    result = operation.run(toStoragePath(bucket, object, isPrivate));
+                } catch( Exception again ) {
+                    if( !isNotFound(again) ) {
+                        throw again;
+                    }
+                    visibility.put(key, PathVisibilityCache.Visibility.MISSING);
+                    if( missingAsNull ) {
+                        return null;
+                    }
+                    throw again;
+                }
+            }
+            visibility.put(key, isPrivate ? PathVisibilityCache.Visibility.PRIVATE : PathVisibilityCache.Visibility.PUBLIC);
+            return result;
+        } catch (CloudException e) {
+            throw e;
+        } catch (InternalException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CloudException(e);
+        }
+    }
+
+    /**
+     * @return true if the error is a 404 from either the Manta client or a direct request
+     */
+    static private boolean isNotFound(@Nonnull Exception e) {
+        if( e instanceof MantaClientHttpResponseException ) {
+            return (( MantaClientHttpResponseException ) e).getStatusCode() == HttpStatus.SC_NOT_FOUND;
+        }
+        return ( e instanceof CloudException && (( CloudException ) e).getHttpCode() == HttpStatus.SC_NOT_FOUND );
     }
 
     /**
@@ -464,7 +662,17 @@ public class Manta extends AbstractBlobStoreSupport<SmartDataCenter>  {
     @Override
     public boolean isPublic(@Nullable String bucket, @Nullable String object) throws CloudException, InternalException {
         checkContext();
-        return getMantaObjectMetadata(bucket, object, false) != null;
+        String key = toPath(bucket, object);
+        PathVisibilityCache.Visibility v = visibility.get(key);
+
+        if( v != null ) {
+            return ( v == PathVisibilityCache.Visibility.PUBLIC );
+        }
+        if( getMantaObjectMetadata(bucket, object, false) != null ) {
+            visibility.put(key, PathVisibilityCache.Visibility.PUBLIC);
+            return true;
+        }
+        return false;
     }
 
     /**
@@ -507,30 +715,16 @@ public class Manta extends AbstractBlobStoreSupport<SmartDataCenter>  {
     public Iterable<Blob> list(@Nullable String bucket) throws CloudException, InternalException {
         checkContext();
         checkBucket(bucket);
-        Collection<MantaObject> mantaObjects;
-        Collection<Blob> result = new ArrayList<Blob>();
-        try {
-            mantaObjects = mantaClient.listObjects(toStoragePath(bucket, null, !isPublic(bucket, null)));
-        } catch (MantaCryptoException e) {
-            throw new CloudException(e);
-        } catch (IOException e) {
-            throw new CloudException(e);
-        } catch (MantaObjectException e) {
-            throw new CloudException(e);
-        } catch( MantaClientHttpResponseException e ) {
-            throw new CloudException(e);
-        }
-        for (MantaObject mantaObject : mantaObjects) {
-            if (mantaObject.isDirectory()) {
-                result.add(Blob.getInstance(getProvider().getContext().getRegionId(), "", bucket, new Date().getTime()));
-            } else {
-                String objectName = parseObjectName(mantaObject.getPath());
-                result.add(Blob.getInstance(getProvider().getContext().getRegionId(), "", bucket, objectName, new Date().getTime(),
-                        new Storage<org.dasein.util.uom.storage.Byte>(mantaObject.getContentLength(), Storage.BYTE)
-                ));
+        String name = ( bucket == null ? "" : DirectoryCache.normalize(bucket) );
+        String regionId = getProvider().getContext().getRegionId();
+        final DirectoryListing.PageSource source = DirectoryListing.over(http, name, regionId, DirectoryListing.PAGE_SIZE);
+        DirectoryListing.Page first = onResolvedPath(bucket, null, false, new PathOperation<DirectoryListing.Page>() {
+            @Override
+            public DirectoryListing.Page run(@Nonnull String path) throws Exception {
+                return source.fetch(path, null);
             }
-        }
-        return result;
+        });
+        return new DirectoryListing(source, getTransferExecutor().getWorkers(), first);
     }
 
     /**
@@ -585,31 +779,7 @@ public class Manta extends AbstractBlobStoreSupport<SmartDataCenter>  {
     @Override
     public void removeBucket(@Nonnull String bucket) throws CloudException, InternalException {
         checkContext();
-        boolean retryRecursively = false;
-        String path = toStoragePath(bucket, null, !isPublic(bucket, null));
-        try {
-            mantaClient.delete(path);
-        } catch (MantaCryptoException e) {
-            throw new CloudException(e);
-        } catch (IOException e) {
-            retryRecursively = true;
-            logger.debug("Directory is not empty. Delete recursively.", e);
-        } catch( MantaClientHttpResponseException e ) {
-            retryRecursively = true;
-            logger.debug("Directory is not empty. Delete recursively.", e);
-        }
-        if( retryRecursively ) {
-            // if bucket is not empty remove recursively
-            try {
-                mantaClient.deleteRecursive(path);
-            } catch (MantaCryptoException ex) {
-                throw new CloudException(ex);
-            } catch (MantaClientHttpResponseException ex) {
-                throw new CloudException(ex);
-            } catch (IOException ex) {
-                throw new CloudException(ex);
-            }
-        }
+        deleteDirectory(bucket);
     }
 
     /**
@@ -624,15 +794,14 @@ public class Manta extends AbstractBlobStoreSupport<SmartDataCenter>  {
     public void removeObject(@Nullable String bucket, @Nonnull String object) throws CloudException, InternalException {
         checkContext();
         checkBucket(bucket);
-        try {
-            mantaClient.delete(toStoragePath(bucket, object, !isPublic(bucket, object)));
-        } catch (MantaCryptoException e) {
-            throw new CloudException(e);
-        } catch (IOException e) {
-            throw new CloudException(e);
-        } catch( MantaClientHttpResponseException e ) {
-            throw new CloudException(e);
-        }
+        onResolvedPath(bucket, object, false, new PathOperation<Void>() {
+            @Override
+            public Void run(@Nonnull String path) throws IOException, MantaCryptoException, MantaClientHttpResponseException {
+                mantaClient.delete(path);
+                return null;
+            }
+        });
+        visibility.invalidate(toPath(bucket, object));
     }
 
     /**
@@ -665,18 +834,20 @@ public class Manta extends AbstractBlobStoreSupport<SmartDataCenter>  {
     public void renameObject(@Nullable String bucket, @Nonnull String oldName, @Nonnull String newName) throws
             CloudException, InternalException {
         checkContext();
-        String path = toStoragePath(bucket, oldName, !isPublic(bucket, oldName));
-        String linkPath = path + parseObjectName(newName);
-        String objPath = path + parseObjectName(oldName);
-        try {
-            mantaClient.putSnapLink(linkPath, objPath, null);
-            mantaClient.delete(objPath);
-        } catch (MantaCryptoException e) {
-            throw new CloudException(e);
-        } catch (IOException e) {
-            throw new CloudException(e);
-        } catch( MantaClientHttpResponseException e ) {
-            throw new CloudException(e);
+        final String validNewName = parseObjectName(newName);
+        onResolvedPath(bucket, oldName, false, new PathOperation<Void>() {
+            @Override
+            public Void run(@Nonnull String objPath) throws IOException, MantaCryptoException, MantaClientHttpResponseException {
+                mantaClient.putSnapLink(parsePath(objPath) + validNewName, objPath, null);
+                mantaClient.delete(objPath);
+                return null;
+            }
+        });
+        PathVisibilityCache.Visibility v = visibility.get(toPath(bucket, oldName));
+
+        visibility.invalidate(toPath(bucket, oldName));
+        if( v != null ) {
+            visibility.put(toPath(bucket, validNewName), v);
         }
     }
 
@@ -774,50 +945,90 @@ public class Manta extends AbstractBlobStoreSupport<SmartDataCenter>  {
         return path.substring(path.lastIndexOf('/') + 1);
     }
 
-//    /**
-//     * Method download file {@code objectName} from Manta to file {@code toFile}. Action occurs asynchronous.
-//     * @param bucket Manta does not support buckets. This parameter is ignored.
-//     * @param objectName
-//     * @param toFile
-//     *
-//     * @return
-//     *
-//     * @throws InternalException
-//     * @throws CloudException
-//     */
-//    @Override
-//    public FileTransfer download(final @Nullable String bucket, @Nonnull final String objectName, final @Nonnull File toFile)
-//            throws InternalException, CloudException {
-//        checkBucket(bucket);
-//        final FileTransfer fileTransfer = new FileTransfer();
-//
-//        new Thread(new Runnable() {
-//            @Override
-//            public void run() {
-//                try {
-//                    processDownloadAsync(fileTransfer, toStoragePath(bucket, objectName, !isPublic(bucket, objectName)), toFile);
-//                } catch (Exception ex) {
-//                    logger.error("Error on file download from Manta Storage", ex);
-//                    fileTransfer.complete(ex);
-//                }
-//            }
-//        }).start();
-//
-//        return fileTransfer;
-//    }
+    /**
+     * Downloads {@code objectName} to {@code toFile} in the background, on the transfer threads shared by the account.
+     * The returned transfer reports progress and throughput, can be cancelled, and calls its listeners on completion.
+     *
+     * @param bucket path to Manta object
+     * @param objectName Manta object name
+     * @param toFile the file to write
+     * @return the transfer, completed once the file is written or the download failed
+     * @throws InternalException
+     * @throws CloudException
+     */
+    @Override
+    public @Nonnull MantaTransfer download(@Nullable String bucket, @Nonnull String objectName, @Nonnull File toFile) throws InternalException, CloudException {
+        checkContext();
+        return download(bucket, objectName, toFile, getDefaultPriority());
+    }
+
+    /**
+     * Downloads {@code objectName} to {@code toFile} in the background once the transfer scheduler lets a transfer of
+     * the given priority start.
+     *
+     * @param bucket path to Manta object
+     * @param objectName Manta object name
+     * @param toFile the file to write
+     * @param priority when the download may start compared to other transfers
+     * @return the transfer, completed once the file is written or the download failed
+     * @throws InternalException
+     * @throws CloudException
+     */
+    public @Nonnull MantaTransfer download(@Nullable final String bucket, @Nonnull final String objectName, @Nonnull final File toFile, @Nonnull MantaTransfer.Priority priority) throws InternalException, CloudException {
+        checkContext();
+        checkBucket(bucket);
+        return getTransferExecutor().submit(new MantaTransfer("Download of " + objectName + " from Manta", priority), new TransferExecutor.Task() {
+            @Override
+            public void run(@Nonnull MantaTransfer transfer) throws Exception {
+                get(bucket, objectName, toFile, transfer);
+            }
+        });
+    }
 
     @Override
     protected void get( @Nullable String bucket, @Nonnull String object, @Nonnull File toFile, @Nullable FileTransfer transfer ) throws InternalException, CloudException {
         checkContext();
+        boolean admitted = admit();
+
         try {
-            MantaObject mantaObject = mantaClient.get(toStoragePath(bucket, object, !isPublic(bucket, object)));
-            FileUtils.copyInputStreamToFile(mantaObject.getDataInputStream(), toFile);
+            fetchObject(bucket, object, toFile, transfer);
         }
-        catch( MantaCryptoException e ) {
-            throw new CloudException(e);
+        finally {
+            if( admitted ) {
+                TransferScheduler.getInstance().release(accountKey);
+            }
         }
-        catch( MantaClientHttpResponseException e ) {
-            throw new CloudException(e);
+    }
+
+    private void fetchObject( @Nullable String bucket, @Nonnull String object, @Nonnull File toFile, @Nullable FileTransfer transfer ) throws InternalException, CloudException {
+        final RangedDownloader downloader = new RangedDownloader(http, getTransferExecutor().getWorkers(),
+                getLongProperty(CUSTOM_PROP_RANGE_SIZE, RangedDownloader.DEFAULT_RANGE_SIZE),
+                ( int ) getLongProperty(CUSTOM_PROP_DOWNLOAD_PARALLELISM, RangedDownloader.DEFAULT_PARALLELISM));
+        // one request finds the object, tells its size and brings its first range, which is all of a small object
+        RangedDownloader.FirstRange first = onResolvedPath(bucket, object, false, new PathOperation<RangedDownloader.FirstRange>() {
+            @Override
+            public RangedDownloader.FirstRange run(@Nonnull String path) throws Exception {
+                return RangedDownloader.fetchFirst(http, path, downloader.getRangeSize());
+            }
+        });
+
+        if( !first.complete ) {
+            downloader.download(first, toFile, transfer, getBandwidthLimiter(transfer), getCheckpoint(toFile, ".manta-download"));
+            return;
+        }
+        try {
+            if( transfer != null && first.length >= 0 ) {
+                transfer.setBytesToTransfer(first.length);
+            }
+            DigestInputStream in = new DigestInputStream(first.content, MessageDigest.getInstance("MD5"));
+
+            copy(getBandwidthLimiter(transfer).wrap(in), toFile, transfer);
+            if( first.md5 != null && !Arrays.equals(in.getMessageDigest().digest(), Base64.decode(first.md5)) ) {
+                throw new CloudException("MD5 hash values do not match, probably data corruption");
+            }
+        }
+        catch( NoSuchAlgorithmException e ) {
+            throw new InternalException(e);
         }
         catch( IOException e ) {
             throw new CloudException(e);
@@ -826,8 +1037,118 @@ public class Manta extends AbstractBlobStoreSupport<SmartDataCenter>  {
 
     @Override
     protected void put( @Nullable String bucket, @Nonnull String objectName, @Nonnull File file ) throws InternalException, CloudException {
+        put(bucket, objectName, file, null);
+    }
+
+    /**
+     * Uploads {@code sourceFile} in the background, on the transfer threads shared by the account. Files of at least
+     * {@link #CUSTOM_PROP_MULTIPART_THRESHOLD} bytes are sent as a multipart upload, and the returned transfer reports
+     * progress as parts complete. It can be cancelled, and calls its listeners on completion.
+     *
+     * @param sourceFile file that will be uploaded
+     * @param bucket path to Manta object
+     * @param objectName Manta object name
+     * @return the transfer, completed once the object is stored or the upload failed
+     * @throws CloudException
+     * @throws InternalException
+     */
+    public @Nonnull MantaTransfer uploadAsync(@Nonnull File sourceFile, @Nullable String bucket, @Nonnull String objectName) throws CloudException, InternalException {
+        checkContext();
+        return uploadAsync(sourceFile, bucket, objectName, getDefaultPriority());
+    }
+
+    /**
+     * Uploads {@code sourceFile} in the background once the transfer scheduler lets a transfer of the given priority
+     * start.
+     *
+     * @param sourceFile file that will be uploaded
+     * @param bucket path to Manta object
+     * @param objectName Manta object name
+     * @param priority when the upload may start compared to other transfers
+     * @return the transfer, completed once the object is stored or the upload failed
+     * @throws CloudException
+     * @throws InternalException
+     */
+    public @Nonnull MantaTransfer uploadAsync(@Nonnull final File sourceFile, @Nullable final String bucket, @Nonnull final String objectName, @Nonnull MantaTransfer.Priority priority) throws CloudException, InternalException {
         checkContext();
+        checkBucket(bucket);
+        return getTransferExecutor().submit(new MantaTransfer("Upload of " + objectName + " to Manta", priority), new TransferExecutor.Task() {
+            @Override
+            public void run(@Nonnull MantaTransfer transfer) throws Exception {
+                put(bucket, objectName, sourceFile, transfer);
+            }
+        });
+    }
+
+    /**
+     * Uploads a region of an open channel, e.g. part of a larger file, without copying it to a temporary file or
+     * holding it on the heap. The channel is neither closed nor repositioned.
+     *
+     * @param channel the channel to read from
+     * @param position the offset of the region in the channel
+     * @param count the length of the region
+     * @param bucket path to Manta object
+     * @param objectName Manta object name
+     * @return representation of uploaded object
+     * @throws CloudException
+     * @throws InternalException
+     */
+    public @Nonnull Blob upload(@Nonnull FileChannel channel, long position, long count, @Nullable String bucket, @Nonnull String objectName) throws CloudException, InternalException {
+        return putEntity(bucket, objectName, new FileChannelEntity(channel, position, count));
+    }
+
+    /**
+     * Uploads the bytes between the position and the limit of a buffer. Heap, direct and memory-mapped buffers are
+     * all sent without an intermediate copy of the whole payload. The position of the buffer is not changed.
+     *
+     * @param buffer the buffer to upload
+     * @param bucket path to Manta object
+     * @param objectName Manta object name
+     * @return representation of uploaded object
+     * @throws CloudException
+     * @throws InternalException
+     */
+    public @Nonnull Blob upload(@Nonnull ByteBuffer buffer, @Nullable String bucket, @Nonnull String objectName) throws CloudException, InternalException {
+        return putEntity(bucket, objectName, new ByteBufferEntity(buffer));
+    }
 
+    /**
+     * Opens an object for random access. Only the parts that are read are fetched from Manta, using range requests.
+     *
+     * @param bucket directory path
+     * @param object object name
+     * @return a channel positioned at the start of the object
+     * @throws CloudException
+     * @throws InternalException
+     */
+    public @Nonnull MantaObjectChannel openChannel(@Nullable String bucket, @Nonnull String object) throws CloudException, InternalException {
+        checkContext();
+        MantaObject mantaObject = onResolvedPath(bucket, object, false, new PathOperation<MantaObject>() {
+            @Override
+            public MantaObject run(@Nonnull String path) throws IOException, MantaCryptoException, MantaClientHttpResponseException {
+                return mantaClient.head(path);
+            }
+        });
+        Long length = mantaObject.getHttpHeaders().getContentLength();
+
+        return new MantaObjectChannel(http, mantaObject.getPath(), length == null ? 0L : length, mantaObject.getHttpHeaders().getETag());
+    }
+
+    private @Nonnull Blob putEntity( @Nullable String bucket, @Nonnull String objectName, @Nonnull HttpEntity entity ) throws CloudException, InternalException {
+        checkContext();
+        boolean admitted = admit();
+
+        try {
+            return storeEntity(bucket, objectName, entity);
+        }
+        finally {
+            if( admitted ) {
+                TransferScheduler.getInstance().release(accountKey);
+            }
+        }
+    }
+
+    private @Nonnull Blob storeEntity( @Nullable String bucket, @Nonnull String objectName, @Nonnull HttpEntity entity ) throws CloudException, InternalException {
         if( bucket == null ) {
             bucket = "";
         }
@@ -835,13 +1156,8 @@ public class Manta extends AbstractBlobStoreSupport<SmartDataCenter>  {
         String pathToDir = toStoragePath(bucket, null, true);
         String validObjectName = parseObjectName(objectName);
         try {
-            if (!exists(pathToDir)) {
-                createBucket(bucket, false);
-            }
-
-            MantaObject mantaObject = new MantaObject(pathToDir + "/" + validObjectName);
-            mantaObject.setDataInputFile(file);
-            mantaClient.put(mantaObject);
+            putInDirectory(pathToDir, pathToDir + "/" + validObjectName, getBandwidthLimiter(null).wrap(entity));
+            visibility.put(toPath(bucket, validObjectName), PathVisibilityCache.Visibility.PRIVATE);
         } catch (IOException e) {
             throw new CloudException(e);
         } catch (MantaCryptoException e) {
@@ -849,26 +1165,60 @@ public class Manta extends AbstractBlobStoreSupport<SmartDataCenter>  {
         } catch( MantaClientHttpResponseException e ) {
             throw new CloudException(e);
         }
+        return Blob.getInstance(getProvider().getContext().getRegionId(), "", bucket, validObjectName, new Date().getTime(),
+                new Storage<org.dasein.util.uom.storage.Byte>(entity.getContentLength(), Storage.BYTE));
     }
 
-    @Override
-    protected void put( @Nullable String bucketName, @Nonnull String objectName, @Nonnull String content ) throws InternalException, CloudException {
+    private void putEntity( @Nonnull String objectPath, @Nonnull HttpEntity entity ) throws CloudException, InternalException, IOException {
+        HttpPut put = new HttpPut(http.toUrl(objectPath));
+
+        put.setEntity(entity);
+        try {
+            EntityUtils.consume(http.execute(put).getEntity());
+        } catch( IOException e ) {
+            put.abort();
+            throw e;
+        }
+    }
+
+    private void put( @Nullable String bucket, @Nonnull String objectName, @Nonnull File file, @Nullable FileTransfer transfer ) throws InternalException, CloudException {
         checkContext();
+        boolean admitted = admit();
 
-        if( bucketName == null ) {
-            bucketName = "";
+        try {
+            storeFile(bucket, objectName, file, transfer);
         }
-        checkBucket(bucketName);
-        String pathToDir = toStoragePath(bucketName, null, true);
+        finally {
+            if( admitted ) {
+                TransferScheduler.getInstance().release(accountKey);
+            }
+        }
+    }
+
+    private void storeFile( @Nullable String bucket, @Nonnull String objectName, @Nonnull File file, @Nullable FileTransfer transfer ) throws InternalException, CloudException {
+        if( bucket == null ) {
+            bucket = "";
+        }
+        checkBucket(bucket);
+        String pathToDir = toStoragePath(bucket, null, true);
         String validObjectName = parseObjectName(objectName);
         try {
-            if (!exists(pathToDir)) {
-                createBucket(bucketName, false);
+            if( file.length() >= getLongProperty(CUSTOM_PROP_MULTIPART_THRESHOLD, DEFAULT_MULTIPART_THRESHOLD) ) {
+                createDirectory(pathToDir);
+                new MultipartUploader(http, getTransferExecutor().getWorkers(),
+                        getLongProperty(CUSTOM_PROP_PART_SIZE, MultipartUploader.DEFAULT_PART_SIZE),
+                        ( int ) getLongProperty(CUSTOM_PROP_UPLOAD_PARALLELISM, MultipartUploader.DEFAULT_PARALLELISM)).upload(file, pathToDir + "/" + validObjectName, transfer, getBandwidthLimiter(transfer), getCheckpoint(file, ".manta-upload"));
             }
-
-            MantaObject mantaObject = new MantaObject(pathToDir + "/" + validObjectName);
-            mantaObject.setDataInputString(content);
-            mantaClient.put(mantaObject);
+            else {
+                if( transfer != null ) {
+                    transfer.setBytesToTransfer(file.length());
+                }
+                putInDirectory(pathToDir, pathToDir + "/" + validObjectName, getBandwidthLimiter(transfer).wrap(new FilePartEntity(file, 0L, file.length())));
+                if( transfer != null ) {
+                    transfer.setBytesTransferred(file.length());
+                }
+            }
+            visibility.put(toPath(bucket, validObjectName), PathVisibilityCache.Visibility.PRIVATE);
         } catch (IOException e) {
             throw new CloudException(e);
         } catch (MantaCryptoException e) {
@@ -878,25 +1228,208 @@ public class Manta extends AbstractBlobStoreSupport<SmartDataCenter>  {
         }
     }
 
-//    private void processDownloadAsync(FileTransfer fileTransfer, String path, File toFile) throws IOException, MantaCryptoException, MantaClientHttpResponseException {
-//
-//        // need to synchronize because variables in task is not synchronized properly
-//        synchronized (fileTransfer) {
-//            fileTransfer.setStartTime(new Date().getTime());
-//            fileTransfer.setPercentComplete(0);
-//        }
-//
-//        MantaObject mantaObject = mantaClient.get(path);
-//        FileUtils.copyInputStreamToFile(mantaObject.getDataInputStream(), toFile);
-//
-//        synchronized (fileTransfer) {
-//            fileTransfer.setPercentComplete(100);
-//            fileTransfer.setBytesToTransfer(0);
-//            fileTransfer.setBytesTransferred(getContentLength(mantaObject).longValue());
-//            fileTransfer.completeWithResult(toFile);
-//        }
-//
-//    }
+    @Override
+    protected void put( @Nullable String bucketName, @Nonnull String objectName, @Nonnull String content ) throws InternalException, CloudException {
+        try {
+            // sent like any other upload, so it waits for its turn and counts against the bandwidth limits
+            putEntity(bucketName, objectName, new StringEntity(content, "UTF-8"));
+        } catch( UnsupportedEncodingException e ) {
+            throw new InternalException(e);
+        }
+    }
+
+    /**
+     * The number of connections to Manta the transfers of one account may hold at the same time: one per running
+     * transfer and one per worker sending a part, range, delete or listing page. The provider's pooled HTTP client
+     * allows at least that many per endpoint unless {@code maxConnectionsPerRoute} says otherwise; a smaller pool
+     * makes admitted transfers queue for connections, out of the scheduler's priority order.
+     * @param properties the custom properties of a context
+     * @return the number of connections the storage transfers of the context may use
+     */
+    public static int getConnectionsPerAccount(@Nullable Properties properties) {
+        return ( int ) ( getLongProperty(properties, CUSTOM_PROP_TRANSFER_THREADS, TransferExecutor.DEFAULT_TRANSFER_THREADS)
+                + getLongProperty(properties, CUSTOM_PROP_WORKER_THREADS, TransferExecutor.DEFAULT_WORKER_THREADS) );
+    }
+
+    /**
+     * @return the transfer threads shared by all storage supports for the account
+     */
+    private @Nonnull TransferExecutor getTransferExecutor() {
+        applyGlobalLimits();
+        return TransferExecutor.getInstance(accountKey,
+                ( int ) getLongProperty(CUSTOM_PROP_TRANSFER_THREADS, TransferExecutor.DEFAULT_TRANSFER_THREADS),
+                ( int ) getLongProperty(CUSTOM_PROP_WORKER_THREADS, TransferExecutor.DEFAULT_WORKER_THREADS));
+    }
+
+    /**
+     * Waits until the transfer scheduler lets a synchronous transfer of this storage support start.
+     * @return true if a slot was taken and must be released once the transfer is over
+     */
+    private boolean admit() throws InternalException {
+        getTransferExecutor();
+        try {
+            return TransferScheduler.getInstance().acquire(accountKey, getDefaultPriority());
+        }
+        catch( InterruptedException e ) {
+            throw new InternalException("Interrupted while waiting for a transfer slot");
+        }
+    }
+
+    /**
+     * Applies the JVM-wide limits this context sets, unless an earlier context already set them.
+     */
+    private void applyGlobalLimits() {
+        long limit = getLongProperty(CUSTOM_PROP_GLOBAL_TRANSFER_LIMIT, 0L);
+
+        if( limit > 0L && globalLimitApplied.compareAndSet(false, true) ) {
+            TransferScheduler.getInstance().setGlobalLimit(( int ) limit);
+        }
+        applyBandwidthLimit(CUSTOM_PROP_BANDWIDTH_LIMIT, BandwidthLimiter.getGlobal(), bandwidthApplied);
+        applyBandwidthLimit(CUSTOM_PROP_BACKGROUND_BANDWIDTH_LIMIT, BandwidthLimiter.getBackground(), backgroundBandwidthApplied);
+    }
+
+    private void applyBandwidthLimit(@Nonnull String name, @Nonnull BandwidthLimiter limiter, @Nonnull AtomicBoolean applied) {
+        String value = getProvider().getContext().getCustomProperties().getProperty(name);
+
+        // contexts that do not set a limit leave the one set by others alone
+        if( value != null && value.trim().length() > 0 && applied.compareAndSet(false, true) ) {
+            limiter.setBytesPerSecond(Long.parseLong(value.trim()));
+        }
+    }
+
+    /**
+     * @param transfer the transfer the bytes belong to, or null
+     * @return the limiter of the transfer if it has one, otherwise the shared limiter of the default priority
+     */
+    private @Nonnull BandwidthLimiter getBandwidthLimiter(@Nullable FileTransfer transfer) throws InternalException {
+        applyGlobalLimits();
+        if( transfer instanceof MantaTransfer ) {
+            return (( MantaTransfer ) transfer).getBandwidthLimiter();
+        }
+        return BandwidthLimiter.forPriority(getDefaultPriority());
+    }
+
+    /**
+     * @return the priority of transfers of this storage support that were not given one
+     */
+    private @Nonnull MantaTransfer.Priority getDefaultPriority() throws InternalException {
+        String value = getProvider().getContext().getCustomProperties().getProperty(CUSTOM_PROP_TRANSFER_PRIORITY);
+
+        if( value == null || value.trim().length() == 0 ) {
+            return MantaTransfer.Priority.NORMAL;
+        }
+        try {
+            return MantaTransfer.Priority.valueOf(value.trim().toUpperCase());
+        }
+        catch( IllegalArgumentException e ) {
+            throw new InternalException("Invalid " + CUSTOM_PROP_TRANSFER_PRIORITY + ": " + value);
+        }
+    }
+
+    /**
+     * @param file the local file of a transfer
+     * @param suffix added to the name of the file to name the checkpoint
+     * @return the checkpoint of the transfer, or null if transfers are not to be resumable
+     */
+    private @Nullable TransferCheckpoint getCheckpoint(@Nonnull File file, @Nonnull String suffix) {
+        String value = getProvider().getContext().getCustomProperties().getProperty(CUSTOM_PROP_RESUMABLE_TRANSFERS);
+
+        if( value == null || !value.trim().equalsIgnoreCase("true") ) {
+            return null;
+        }
+        return TransferCheckpoint.open(new File(file.getPath() + suffix));
+    }
+
+    /**
+     * Writes a stream to a file, reporting progress as it goes and giving up if the thread is interrupted, e.g.
+     * because the transfer was cancelled.
+     */
+    static private void copy(@Nonnull InputStream in, @Nonnull File toFile, @Nullable FileTransfer transfer) throws IOException {
+        OutputStream out = new FileOutputStream(toFile);
+
+        try {
+            byte[] buffer = new byte[FileChannelEntity.BUFFER_SIZE];
+            long written = 0;
+            int n;
+
+            while( (n = in.read(buffer)) >= 0 ) {
+                if( Thread.currentThread().isInterrupted() ) {
+                    throw new InterruptedIOException("Download of " + toFile + " was interrupted");
+                }
+                out.write(buffer, 0, n);
+                written += n;
+                if( transfer != null ) {
+                    transfer.setBytesTransferred(written);
+                }
+            }
+        }
+        finally {
+            try { out.close(); }
+            finally { in.close(); }
+        }
+    }
+
+    private long getLongProperty( @Nonnull String name, long defaultValue ) {
+        return getLongProperty(getProvider().getContext().getCustomProperties(), name, defaultValue);
+    }
+
+    static private long getLongProperty( @Nullable Properties properties, @Nonnull String name, long defaultValue ) {
+        String value = ( properties == null ? null : properties.getProperty(name) );
+
+        if( value == null || value.trim().length() == 0 ) {
+            return defaultValue;
+        }
+        return Long.parseLong(value.trim());
+    }
+
+    /**
+     * Uploads a request body, creating its directory first unless it is known to exist. If the directory turns out
+     * to have been removed in the meantime, it is created again and the upload repeated once.
+     *
+     * @param pathToDir full path of the directory the object goes into
+     * @param objectPath full path of the object
+     * @param entity the content of the object, which must be repeatable
+     */
+    private void putInDirectory(@Nonnull String pathToDir, @Nonnull String objectPath, @Nonnull HttpEntity entity) throws IOException, MantaCryptoException, MantaClientHttpResponseException, CloudException, InternalException {
+        createDirectory(pathToDir);
+        try {
+            putEntity(objectPath, entity);
+        } catch( CloudException e ) {
+            if( e.getHttpCode() != HttpStatus.SC_NOT_FOUND ) {
+                throw e;
+            }
+            directories.remove(pathToDir);
+            createDirectory(pathToDir);
+            putEntity(objectPath, entity);
+        }
+    }
+
+    /**
+     * Creates a directory and any missing parents, like {@code mkdir -p}. The directory itself is created first, and
+     * only if Manta answers that its parent does not exist are the parents created, so an existing parent costs no
+     * request. Directories known to exist are skipped entirely.
+     *
+     * @param path full path of the directory
+     */
+    private void createDirectory(@Nonnull String path) throws IOException, MantaCryptoException, MantaClientHttpResponseException {
+        String dir = DirectoryCache.normalize(path);
+
+        if( dir.equals(rootPath) || dir.equals(publicPath) || directories.contains(dir) ) {
+            return;
+        }
+        try {
+            mantaClient.putDirectory(dir, null);
+        } catch( MantaClientHttpResponseException e ) {
+            String parent = dir.substring(0, dir.lastIndexOf('/'));
+
+            if( e.getStatusCode() != HttpStatus.SC_NOT_FOUND || parent.length() <= rootPath.length() ) {
+                throw e;
+            }
+            createDirectory(parent);
+            mantaClient.putDirectory(dir, null);
+        }
+        directories.add(dir);
+    }
 
     @Override
     public String getSignedObjectUrl(@Nonnull String bucket, @Nonnull String object, @Nonnull String expiresEpochInSeconds) throws InternalException, CloudException{
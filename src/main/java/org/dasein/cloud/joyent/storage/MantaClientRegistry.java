@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.joyent.storage;
+
+import com.joyent.manta.client.MantaClient;
+import org.apache.log4j.Logger;
+import org.dasein.cloud.joyent.SmartDataCenter;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Shares one {@link MantaClient} per Manta URL, account and key, so the key is parsed once and every storage
+ * support instance for the account uses the same client. A client is built by exactly one thread; other threads
+ * asking for it at the same time wait for that build and then see the fully constructed client.
+ * @author Dell, Inc
+ */
+final class MantaClientRegistry {
+    static private final Logger logger = SmartDataCenter.getLogger(MantaClientRegistry.class, "std");
+
+    static private final ConcurrentHashMap<String,FutureTask<MantaClient>> clients = new ConcurrentHashMap<String,FutureTask<MantaClient>>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread("Manta client registry shutdown") {
+            @Override
+            public void run() {
+                shutdown();
+            }
+        });
+    }
+
+    private MantaClientRegistry() { }
+
+    /**
+     * @param url the Manta storage URL
+     * @param account the Manta login
+     * @param keyName the fingerprint of the key used to sign requests
+     * @param privateKey the PEM encoded private key
+     * @param password the password of the private key, if any
+     * @param timeout the HTTP timeout in milliseconds, or 0 for the client default
+     * @return the shared client for the account and key
+     * @throws IOException the client could not be created
+     */
+    static @Nonnull MantaClient getClient(@Nonnull final String url, @Nonnull final String account, @Nonnull final String keyName, @Nonnull final String privateKey, @Nullable final char[] password, final int timeout) throws IOException {
+        String key = url + "|" + account + "|" + keyName + "|" + timeout;
+        FutureTask<MantaClient> task = clients.get(key);
+
+        if( task == null ) {
+            FutureTask<MantaClient> created = new FutureTask<MantaClient>(new Callable<MantaClient>() {
+                @Override
+                public MantaClient call() throws IOException {
+                    if( timeout > 0 ) {
+                        return MantaClient.newInstance(url, account, privateKey, keyName, password, timeout);
+                    }
+                    return MantaClient.newInstance(url, account, privateKey, keyName, password);
+                }
+            });
+
+            task = clients.putIfAbsent(key, created);
+            if( task == null ) {
+                task = created;
+                task.run();
+            }
+        }
+        try {
+            return task.get();
+        }
+        catch( ExecutionException e ) {
+            // forget the failed attempt so the next caller can try again
+            clients.remove(key, task);
+            if( e.getCause() instanceof IOException ) {
+                throw ( IOException ) e.getCause();
+            }
+            throw new IOException("Unable to create Manta client: " + e.getCause().getMessage(), e.getCause());
+        }
+        catch( InterruptedException e ) {
+            throw new IOException("Interrupted while waiting for Manta client");
+        }
+    }
+
+    /**
+     * Drops all shared clients. Storage supports created afterwards build new ones. Called automatically when the
+     * JVM shuts down.
+     */
+    static void shutdown() {
+        if( !clients.isEmpty() ) {
+            logger.debug("Releasing " + clients.size() + " Manta clients");
+        }
+        clients.clear();
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.joyent.storage;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.util.EntityUtils;
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudErrorType;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.joyent.JoyentException;
+import org.dasein.cloud.joyent.SmartDataCenter;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+
+/**
+ * Sends signed requests straight to Manta over the provider's pooled HTTP client, for the operations the Manta
+ * client library does not offer, such as multipart uploads, range requests and uploads from buffers and channels.
+ * @author Dell, Inc
+ */
+class MantaHttp {
+    static private final Logger logger = SmartDataCenter.getLogger(MantaHttp.class, "std");
+
+    private final SmartDataCenter provider;
+    private final String          storageUrl;
+
+    /**
+     * @param provider the provider whose HTTP client and request signer are used
+     * @param storageUrl the Manta URL
+     */
+    MantaHttp(@Nonnull SmartDataCenter provider, @Nonnull String storageUrl) {
+        this.provider = provider;
+        this.storageUrl = ( storageUrl.endsWith("/") ? storageUrl.substring(0, storageUrl.length() - 1) : storageUrl );
+    }
+
+    /**
+     * @return the Manta account requests are made for
+     */
+    @Nonnull String getAccount() {
+        return provider.getContext().getAccountNumber();
+    }
+
+    /**
+     * @param path a full Manta path
+     * @return the URL of the path
+     */
+    @Nonnull String toUrl(@Nonnull String path) {
+        return storageUrl + path;
+    }
+
+    /**
+     * Signs and sends a request. A response with a status other than 2xx is read and turned into an exception; any
+     * other response is returned to the caller, who must consume its entity.
+     * @param request the request to send
+     * @return the successful response
+     * @throws CloudException Manta answered with an error
+     * @throws InternalException the request could not be signed
+     * @throws IOException the request could not be sent or the response could not be read
+     */
+    @Nonnull HttpResponse execute(@Nonnull HttpRequestBase request) throws CloudException, InternalException, IOException {
+        provider.getHttpAuth().addPreemptiveAuth(request);
+        HttpResponse response = provider.getClientFactory().getClient(storageUrl).execute(request);
+        int code = response.getStatusLine().getStatusCode();
+
+        if( code < 200 || code >= 300 ) {
+            HttpEntity entity = response.getEntity();
+            String body = ( entity == null ? null : EntityUtils.toString(entity) );
+            JoyentException.ExceptionItems items = JoyentException.parseException(code, body);
+
+            if( items == null ) {
+                items = new JoyentException.ExceptionItems();
+                items.code = code;
+                items.type = CloudErrorType.COMMUNICATION;
+                items.message = "itemNotFound";
+                items.details = "No such object: " + request.getURI().getPath();
+            }
+            logger.error("[" +  code + " : " + items.message + "] " + items.details);
+            throw new JoyentException(items);
+        }
+        return response;
+    }
+
+    /**
+     * @param e an error from a request
+     * @return true if sending the same request again may succeed
+     */
+    static boolean isRetryable(@Nonnull Exception e) {
+        if( e instanceof IOException ) {
+            return true;
+        }
+        if( e instanceof JoyentException ) {
+            int code = (( JoyentException ) e).getHttpCode();
+
+            return ( code >= 500 || code == 429 );
+        }
+        return ( e.getCause() instanceof IOException );
+    }
+}
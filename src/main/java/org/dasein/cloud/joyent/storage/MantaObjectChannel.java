@@ -0,0 +1,261 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.joyent.storage;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Random access to a Manta object through range requests, for readers that only need parts of a large object, such
+ * as a file footer followed by a few blocks it points to. The object is read in fixed size blocks, the most recently
+ * used of which are kept in memory. While reads are sequential, each request fetches more blocks ahead of the
+ * reader, up to a limit; a seek starts over with a single block. All requests are pinned to the ETag the object had
+ * when the channel was opened, so a concurrent overwrite makes reads fail instead of mixing versions.
+ * @author Dell, Inc
+ */
+public final class MantaObjectChannel implements ReadableByteChannel {
+    static final int DEFAULT_BLOCK_SIZE    = 256 * 1024;
+    static final int DEFAULT_CACHE_BLOCKS  = 32;
+    static final int MAX_READ_AHEAD_BLOCKS = 16;
+
+    /**
+     * Where the bytes of the object come from.
+     */
+    interface RangeSource {
+        /**
+         * @param offset the first byte to read
+         * @param length the number of bytes to read
+         * @return a stream holding exactly the requested bytes
+         */
+        @Nonnull InputStream open(long offset, long length) throws IOException;
+    }
+
+    private final RangeSource                source;
+    private final long                       size;
+    private final int                        blockSize;
+    private final int                        maxReadAhead;
+    private final LinkedHashMap<Long,byte[]> blocks;
+    private long                             position;
+    private long                             expectedPosition;
+    private int                              readAhead = 1;
+    private long                             requests;
+    private boolean                          open = true;
+
+    MantaObjectChannel(@Nonnull MantaHttp http, @Nonnull String objectPath, long size, @Nullable String etag) {
+        this(new HttpRangeSource(http, objectPath, etag), size, DEFAULT_BLOCK_SIZE, DEFAULT_CACHE_BLOCKS);
+    }
+
+    MantaObjectChannel(@Nonnull RangeSource source, long size, int blockSize, final int cacheBlocks) {
+        this.source = source;
+        this.size = size;
+        this.blockSize = blockSize;
+        this.maxReadAhead = Math.max(1, Math.min(MAX_READ_AHEAD_BLOCKS, cacheBlocks));
+        this.blocks = new LinkedHashMap<Long,byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long,byte[]> eldest) {
+                return size() > cacheBlocks;
+            }
+        };
+    }
+
+    /**
+     * Reads bytes from the current position, fetching the blocks that are not cached.
+     * @param dst the buffer to fill
+     * @return the number of bytes read, or -1 at the end of the object
+     * @throws IOException the channel is closed or a range request failed
+     */
+    @Override
+    public synchronized int read(@Nonnull ByteBuffer dst) throws IOException {
+        if( !open ) {
+            throw new ClosedChannelException();
+        }
+        if( position >= size ) {
+            return -1;
+        }
+        if( position != expectedPosition ) {
+            readAhead = 1;
+        }
+        int total = 0;
+
+        while( dst.hasRemaining() && position < size ) {
+            long index = position / blockSize;
+            byte[] block = getBlock(index);
+            int offset = ( int ) ( position - index * blockSize );
+            int n = Math.min(dst.remaining(), block.length - offset);
+
+            dst.put(block, offset, n);
+            position += n;
+            total += n;
+        }
+        expectedPosition = position;
+        return total;
+    }
+
+    /**
+     * @return the offset the next read starts at
+     */
+    public synchronized long position() {
+        return position;
+    }
+
+    /**
+     * Moves to another offset. Moving past the end is allowed, reads there return -1.
+     * @param newPosition the offset the next read starts at
+     * @return this channel
+     */
+    public synchronized @Nonnull MantaObjectChannel position(long newPosition) {
+        if( newPosition < 0 ) {
+            throw new IllegalArgumentException("Negative position: " + newPosition);
+        }
+        position = newPosition;
+        return this;
+    }
+
+    /**
+     * @return the size of the object in bytes
+     */
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public synchronized void close() {
+        open = false;
+        blocks.clear();
+    }
+
+    /**
+     * @return the number of range requests made so far
+     */
+    synchronized long getRequestCount() {
+        return requests;
+    }
+
+    private @Nonnull byte[] getBlock(long index) throws IOException {
+        byte[] block = blocks.get(index);
+
+        if( block != null ) {
+            return block;
+        }
+        long blockCount = ( size + blockSize - 1 ) / blockSize;
+        int count = 1;
+
+        while( count < readAhead && index + count < blockCount && !blocks.containsKey(index + count) ) {
+            count++;
+        }
+        long start = index * blockSize;
+        long end = Math.min(size, ( index + count ) * blockSize);
+        InputStream in = source.open(start, end - start);
+        byte[] first = null;
+
+        requests++;
+        try {
+            for( long i = index; i < index + count; i++ ) {
+                byte[] data = new byte[( int ) ( Math.min(end, ( i + 1 ) * blockSize) - i * blockSize )];
+
+                readFully(in, data);
+                if( first == null ) {
+                    first = data;
+                }
+                else {
+                    blocks.put(i, data);
+                }
+            }
+        }
+        finally {
+            in.close();
+        }
+        // the requested block goes in last so the read-ahead blocks cannot evict it
+        blocks.put(index, first);
+        readAhead = Math.min(maxReadAhead, readAhead * 2);
+        return first;
+    }
+
+    static private void readFully(@Nonnull InputStream in, @Nonnull byte[] data) throws IOException {
+        int done = 0;
+
+        while( done < data.length ) {
+            int n = in.read(data, done, data.length - done);
+
+            if( n < 0 ) {
+                throw new IOException("Range ended " + ( data.length - done ) + " bytes early");
+            }
+            done += n;
+        }
+    }
+
+    static private class HttpRangeSource implements RangeSource {
+        private final MantaHttp http;
+        private final String    objectPath;
+        private final String    etag;
+
+        HttpRangeSource(@Nonnull MantaHttp http, @Nonnull String objectPath, @Nullable String etag) {
+            this.http = http;
+            this.objectPath = objectPath;
+            this.etag = etag;
+        }
+
+        @Override
+        public @Nonnull InputStream open(long offset, long length) throws IOException {
+            HttpGet get = new HttpGet(http.toUrl(objectPath));
+
+            get.addHeader("Range", "bytes=" + offset + "-" + ( offset + length - 1 ));
+            if( etag != null ) {
+                get.addHeader("If-Match", etag);
+            }
+            try {
+                HttpResponse response = http.execute(get);
+
+                if( response.getEntity() == null ) {
+                    throw new IOException("Empty response for " + objectPath);
+                }
+                if( response.getStatusLine().getStatusCode() != HttpStatus.SC_PARTIAL_CONTENT && offset > 0 ) {
+                    get.abort();
+                    throw new IOException("Manta ignored the range request for " + objectPath);
+                }
+                return response.getEntity().getContent();
+            }
+            catch( CloudException e ) {
+                throw new IOException("Unable to read " + objectPath + ": " + e.getMessage(), e);
+            }
+            catch( InternalException e ) {
+                throw new IOException("Unable to read " + objectPath + ": " + e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -35,19 +35,26 @@ import java.io.IOException;
 public class MantaStorageServices extends AbstractStorageServices<SmartDataCenter> {
     private static final Logger logger = SmartDataCenter.getLogger(MantaStorageServices.class, "std");
 
+    private transient volatile Manta storeSupport;
+
     public MantaStorageServices(SmartDataCenter provider) {
         super(provider);
     }
 
     @Override
     public @Nullable BlobStoreSupport getOnlineStorageSupport() {
-        BlobStoreSupport storeSupport = null;
-        try {
-            storeSupport = new Manta(getProvider());
-        } catch (IOException e) {
-            logger.error("Could not initialise Manta Storage", e);
-        } catch (CloudException e) {
-            logger.error("Could not initialise Manta Storage", e);
+        if( storeSupport == null ) {
+            synchronized( this ) {
+                if( storeSupport == null ) {
+                    try {
+                        storeSupport = new Manta(getProvider());
+                    } catch (IOException e) {
+                        logger.error("Could not initialise Manta Storage", e);
+                    } catch (CloudException e) {
+                        logger.error("Could not initialise Manta Storage", e);
+                    }
+                }
+            }
         }
         return storeSupport;
     }
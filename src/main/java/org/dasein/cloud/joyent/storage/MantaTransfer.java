@@ -0,0 +1,240 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.joyent.storage;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.joyent.SmartDataCenter;
+import org.dasein.cloud.storage.FileTransfer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+
+/**
+ * A Manta upload or download scheduled by the {@link TransferScheduler}. On top of the progress reported by
+ * {@link FileTransfer}, it tells how fast the transfer goes, can be throttled and cancelled, and calls back its
+ * listeners once it is complete, whether it succeeded, failed or was cancelled.
+ * @author Dell, Inc
+ */
+public class MantaTransfer extends FileTransfer {
+    static private final Logger logger = SmartDataCenter.getLogger(MantaTransfer.class, "std");
+
+    /**
+     * How urgent a transfer is. Queued transfers start in this order.
+     */
+    public enum Priority {
+        /**
+         * Someone is waiting for the transfer, e.g. a restore.
+         */
+        INTERACTIVE,
+        NORMAL,
+        /**
+         * Bulk work that may wait, e.g. archival. Never takes the last quarter of the transfer slots.
+         */
+        BACKGROUND
+    }
+
+    /**
+     * Told when a transfer is complete.
+     */
+    public interface Listener {
+        /**
+         * Called once, from the thread that completed the transfer. {@link MantaTransfer#getTransferError()} tells
+         * whether the transfer succeeded.
+         * @param transfer the completed transfer
+         */
+        void transferComplete(@Nonnull MantaTransfer transfer);
+    }
+
+    private final String           description;
+    private final Priority         priority;
+    private final BandwidthLimiter limiter;
+    private final List<Listener>   listeners = new ArrayList<Listener>();
+    private Future<?>              future;
+    private boolean                cancelled;
+    private boolean                notified;
+    private long                   startedAt;
+    private long                   completedAt;
+
+    /**
+     * @param description what is transferred, for logging
+     */
+    public MantaTransfer(@Nonnull String description) {
+        this(description, Priority.NORMAL);
+    }
+
+    /**
+     * @param description what is transferred, for logging
+     * @param priority when the transfer may start compared to others
+     */
+    public MantaTransfer(@Nonnull String description, @Nonnull Priority priority) {
+        this.description = description;
+        this.priority = priority;
+        this.limiter = new BandwidthLimiter(0L, BandwidthLimiter.forPriority(priority));
+    }
+
+    /**
+     * @return what is transferred
+     */
+    public @Nonnull String getDescription() {
+        return description;
+    }
+
+    /**
+     * @return when the transfer may start compared to others
+     */
+    public @Nonnull Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * The bandwidth of this transfer alone, unlimited unless set. The transfer is also held to the limits shared by
+     * all transfers of its priority and of the JVM. Changing the rate takes effect while the transfer runs.
+     * @return the limiter of the transfer
+     */
+    public @Nonnull BandwidthLimiter getBandwidthLimiter() {
+        return limiter;
+    }
+
+    /**
+     * Registers a listener. A listener added to a transfer that is already complete is called right away.
+     * @param listener the listener to call on completion
+     */
+    public void addListener(@Nonnull Listener listener) {
+        boolean now;
+
+        synchronized( this ) {
+            now = notified;
+            if( !now ) {
+                listeners.add(listener);
+            }
+        }
+        if( now ) {
+            tell(listener);
+        }
+    }
+
+    /**
+     * Stops the transfer. A transfer still waiting for a thread never starts; a running one is interrupted and stops
+     * at its next part, range or buffer. The transfer completes with a {@link CancellationException}.
+     * @return false if the transfer was already complete
+     */
+    public boolean cancel() {
+        Future<?> f;
+
+        synchronized( this ) {
+            if( isComplete() ) {
+                return false;
+            }
+            cancelled = true;
+            f = future;
+        }
+        if( f != null ) {
+            f.cancel(true);
+        }
+        complete(new CancellationException(description + " was cancelled"));
+        return true;
+    }
+
+    /**
+     * @return true if the transfer was cancelled before it completed
+     */
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return the share of the bytes transferred so far, from 0 to 100, or 0 while the size is unknown
+     */
+    public synchronized double getPercentTransferred() {
+        long total = getBytesToTransfer();
+
+        if( total <= 0L ) {
+            return ( isComplete() && getTransferError() == null ? 100.0 : 0.0 );
+        }
+        return Math.min(100.0, ( getBytesTransferred() * 100.0 ) / total);
+    }
+
+    /**
+     * @return the average number of bytes transferred per second since the transfer started, or 0 if it has not
+     */
+    public synchronized long getBytesPerSecond() {
+        if( startedAt == 0L ) {
+            return 0L;
+        }
+        long elapsed = ( completedAt == 0L ? System.currentTimeMillis() : completedAt ) - startedAt;
+
+        return ( getBytesTransferred() * 1000L ) / Math.max(1L, elapsed);
+    }
+
+    /**
+     * @return the time in milliseconds the transfer started running, or 0 if it is still waiting for a thread
+     */
+    public synchronized long getStartedAt() {
+        return startedAt;
+    }
+
+    /**
+     * Completes the transfer and calls the listeners. Only the first call counts, so a cancelled transfer stays
+     * cancelled even if its task reports an outcome afterwards.
+     * @param error the reason the transfer failed, or null if it succeeded
+     */
+    @Override
+    public void complete(@Nullable Throwable error) {
+        List<Listener> toNotify;
+
+        synchronized( this ) {
+            if( isComplete() ) {
+                return;
+            }
+            completedAt = System.currentTimeMillis();
+            super.complete(error);
+            notified = true;
+            toNotify = new ArrayList<Listener>(listeners);
+            listeners.clear();
+        }
+        for( Listener listener : toNotify ) {
+            tell(listener);
+        }
+    }
+
+    synchronized void setFuture(@Nonnull Future<?> future) {
+        this.future = future;
+        if( cancelled ) {
+            future.cancel(true);
+        }
+    }
+
+    synchronized void started() {
+        startedAt = System.currentTimeMillis();
+    }
+
+    private void tell(@Nonnull Listener listener) {
+        try {
+            listener.transferComplete(this);
+        }
+        catch( Throwable t ) {
+            logger.warn("Listener of " + description + " failed: " + t.getMessage(), t);
+        }
+    }
+}
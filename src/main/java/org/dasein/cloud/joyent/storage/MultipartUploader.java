@@ -0,0 +1,444 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.joyent.storage;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.joyent.SmartDataCenter;
+import org.dasein.cloud.storage.FileTransfer;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Uploads a file to Manta through the multipart upload API: an upload is created under {@code /:login/uploads},
+ * the file is split into parts that are sent concurrently, each part being retried on its own if it fails, and the
+ * parts are finally committed into the target object. A failed upload is aborted so no parts are left behind,
+ * unless it is kept to be resumed from a checkpoint.
+ * @author Dell, Inc
+ */
+class MultipartUploader {
+    static private final Logger logger = SmartDataCenter.getLogger(MultipartUploader.class, "std");
+
+    static private final ContentType APPLICATION_JSON_UTF8 = ContentType.create("application/json", "UTF-8");
+
+    /**
+     * Manta requires every part but the last to be at least this large.
+     */
+    static public final long MIN_PART_SIZE       = 5L * 1024L * 1024L;
+    static public final long DEFAULT_PART_SIZE   = 64L * 1024L * 1024L;
+    static public final int  DEFAULT_PARALLELISM = 4;
+    static private final int MAX_PARTS           = 10000;
+    static private final int MAX_ATTEMPTS        = 3;
+
+    /**
+     * The multipart upload API the parts go through.
+     */
+    interface UploadApi {
+        /**
+         * Starts an upload for an object.
+         * @param objectPath the full Manta path of the object
+         * @return the path of the directory the parts go into
+         */
+        @Nonnull String create(@Nonnull String objectPath) throws CloudException, InternalException;
+
+        /**
+         * @param partsDirectory the parts directory of an upload
+         * @return the state of the upload, which is {@code created} while parts can be added, or null if not known
+         */
+        @Nullable String getState(@Nonnull String partsDirectory) throws CloudException, InternalException;
+
+        /**
+         * Sends one part, once.
+         * @return the ETag of the stored part
+         */
+        @Nonnull String putPart(@Nonnull String partsDirectory, int partNumber, @Nonnull HttpEntity entity) throws CloudException, InternalException;
+
+        /**
+         * Assembles the parts into the object.
+         */
+        void commit(@Nonnull String partsDirectory, @Nonnull JSONArray etags) throws CloudException, InternalException;
+
+        /**
+         * Discards the upload and its parts.
+         */
+        void abort(@Nonnull String partsDirectory) throws CloudException, InternalException;
+    }
+
+    private final UploadApi       api;
+    private final ExecutorService workers;
+    private final long            partSize;
+    private final int             parallelism;
+
+    /**
+     * @param http the connection to Manta
+     * @param workers the pool the parts are sent from
+     * @param partSize the preferred part size in bytes, raised as needed to stay within Manta's limits
+     * @param parallelism the number of parts sent at the same time
+     */
+    MultipartUploader(@Nonnull MantaHttp http, @Nonnull ExecutorService workers, long partSize, int parallelism) {
+        this(new HttpUploadApi(http), workers, partSize, parallelism);
+    }
+
+    MultipartUploader(@Nonnull UploadApi api, @Nonnull ExecutorService workers, long partSize, int parallelism) {
+        this.api = api;
+        this.workers = workers;
+        this.partSize = Math.max(MIN_PART_SIZE, partSize);
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Uploads a file as the object at the given path. The directory of the object must already exist.
+     * <p>
+     * With a checkpoint, every part Manta accepts is recorded together with its ETag. If the upload fails in a way
+     * that may not happen again, such as a lost connection, the upload is left open instead of being aborted, and a
+     * later upload of the same, unchanged file to the same object sends only the parts that are missing, provided
+     * Manta still holds the upload.
+     * </p>
+     * @param file the file to upload
+     * @param objectPath the full Manta path of the object
+     * @param transfer the transfer to report progress to, or null
+     * @param limiter caps the rate at which the parts are sent, all together
+     * @param checkpoint where the progress of the upload is kept, or null to not make it resumable
+     * @throws CloudException Manta rejected the upload or a part failed after all retries
+     * @throws InternalException an error occurred within Dasein Cloud while uploading
+     */
+    void upload(@Nonnull final File file, @Nonnull String objectPath, @Nullable final FileTransfer transfer, @Nonnull final BandwidthLimiter limiter, @Nullable final TransferCheckpoint checkpoint) throws CloudException, InternalException {
+        final long length = file.length();
+        final long size = Math.max(partSize, ( length + MAX_PARTS - 1 ) / MAX_PARTS);
+        final int count = ( int ) Math.max(1L, ( length + size - 1 ) / size);
+        final String[] etags = new String[count];
+        final AtomicLong transferred = new AtomicLong();
+        String resumed = resume(checkpoint, file, objectPath, size);
+
+        if( resumed != null ) {
+            for( int i = 0; i < count; i++ ) {
+                etags[i] = checkpoint.get("part." + i);
+                if( etags[i] != null ) {
+                    transferred.addAndGet(Math.min(size, length - i * size));
+                }
+            }
+            logger.info("Resuming upload of " + file + " to " + objectPath + " with " + transferred.get() + " of " + length + " bytes already sent");
+        }
+        if( transfer != null ) {
+            transfer.setBytesToTransfer(length);
+            transfer.setBytesTransferred(transferred.get());
+        }
+        final String partsDirectory = ( resumed == null ? api.create(objectPath) : resumed );
+        boolean committed = false;
+        boolean keep = false;
+
+        if( resumed == null && checkpoint != null ) {
+            checkpoint.clear();
+            checkpoint.put("objectPath", objectPath);
+            checkpoint.put("fileLength", length);
+            checkpoint.put("fileModified", file.lastModified());
+            checkpoint.put("partSize", size);
+            checkpoint.put("partsDirectory", partsDirectory);
+            checkpoint.save();
+        }
+        final List<Integer> missing = new ArrayList<Integer>();
+
+        for( int i = 0; i < count; i++ ) {
+            if( etags[i] == null ) {
+                missing.add(i);
+            }
+        }
+        if( logger.isDebugEnabled() ) {
+            logger.debug("Uploading " + missing.size() + " of " + count + " parts of " + file + " to " + objectPath + " through " + partsDirectory);
+        }
+        final AtomicInteger nextPart = new AtomicInteger();
+        final AtomicBoolean stop = new AtomicBoolean();
+        List<Future<Void>> senders = new ArrayList<Future<Void>>();
+
+        try {
+            // each sender takes the next part until none are left, so at most parallelism parts of this upload are
+            // in flight however busy the shared pool is
+            for( int i = 0; i < Math.min(parallelism, missing.size()); i++ ) {
+                senders.add(workers.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        int next;
+
+                        while( !stop.get() && (next = nextPart.getAndIncrement()) < missing.size() ) {
+                            int partNumber = missing.get(next);
+                            long offset = partNumber * size;
+                            long partLength = Math.min(size, length - offset);
+
+                            try {
+                                etags[partNumber] = uploadPart(partsDirectory, partNumber, limiter.wrap(new FilePartEntity(file, offset, partLength)));
+                            }
+                            catch( Exception e ) {
+                                stop.set(true);
+                                throw e;
+                            }
+                            if( checkpoint != null ) {
+                                checkpoint.put("part." + partNumber, etags[partNumber]);
+                                checkpoint.save();
+                            }
+                            long done = transferred.addAndGet(partLength);
+
+                            if( transfer != null ) {
+                                transfer.setBytesTransferred(done);
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for( Future<Void> sender : senders ) {
+                get(sender);
+            }
+            api.commit(partsDirectory, new JSONArray(Arrays.asList(etags)));
+            committed = true;
+            if( checkpoint != null ) {
+                checkpoint.delete();
+            }
+        }
+        catch( CloudException e ) {
+            // an upload nobody can find again would hold its parts on Manta forever
+            keep = ( checkpoint != null && checkpoint.isSaved() && MantaHttp.isRetryable(e) );
+            throw e;
+        }
+        finally {
+            stop.set(true);
+            for( Future<Void> sender : senders ) {
+                sender.cancel(true);
+            }
+            if( !committed ) {
+                if( keep ) {
+                    logger.info("Keeping multipart upload " + partsDirectory + " of " + file + " to resume from " + checkpoint);
+                }
+                else {
+                    abort(partsDirectory);
+                    if( checkpoint != null ) {
+                        checkpoint.delete();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds out whether an earlier upload of the same file to the same object can be continued.
+     * @return the parts directory of the earlier upload, or null to start a new one
+     */
+    private @Nullable String resume(@Nullable TransferCheckpoint checkpoint, @Nonnull File file, @Nonnull String objectPath, long size) {
+        if( checkpoint == null ) {
+            return null;
+        }
+        String partsDirectory = checkpoint.get("partsDirectory");
+
+        if( partsDirectory == null || !checkpoint.matches("objectPath", objectPath) || !checkpoint.matches("fileLength", file.length())
+                || !checkpoint.matches("fileModified", file.lastModified()) || !checkpoint.matches("partSize", size) ) {
+            return null;
+        }
+        try {
+            // parts can only be added while the upload has been neither committed nor aborted
+            if( "created".equals(api.getState(partsDirectory)) ) {
+                return partsDirectory;
+            }
+        }
+        catch( Exception e ) {
+            logger.debug("Unable to resume multipart upload " + partsDirectory + ": " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Sends one part, trying again after a short pause if the connection fails or Manta reports a temporary error.
+     * @return the ETag of the stored part
+     */
+    private @Nonnull String uploadPart(@Nonnull String partsDirectory, int partNumber, @Nonnull HttpEntity entity) throws CloudException, InternalException {
+        for( int attempt = 1; ; attempt++ ) {
+            try {
+                return api.putPart(partsDirectory, partNumber, entity);
+            }
+            catch( CloudException e ) {
+                if( attempt >= MAX_ATTEMPTS || !MantaHttp.isRetryable(e) ) {
+                    throw e;
+                }
+                logger.warn("Retrying part " + partNumber + " of " + partsDirectory + " after: " + e.getMessage());
+            }
+            try {
+                Thread.sleep(1000L << attempt);
+            }
+            catch( InterruptedException e ) {
+                throw new InternalException("Interrupted while uploading part " + partNumber);
+            }
+        }
+    }
+
+    private void abort(@Nonnull String partsDirectory) {
+        try {
+            api.abort(partsDirectory);
+        }
+        catch( Throwable t ) {
+            logger.warn("Unable to abort multipart upload " + partsDirectory + ": " + t.getMessage());
+        }
+    }
+
+    static private void get(@Nonnull Future<Void> sender) throws CloudException, InternalException {
+        try {
+            sender.get();
+        }
+        catch( ExecutionException e ) {
+            Throwable cause = e.getCause();
+
+            if( cause instanceof CloudException ) {
+                throw ( CloudException ) cause;
+            }
+            if( cause instanceof InternalException ) {
+                throw ( InternalException ) cause;
+            }
+            throw new CloudException(cause);
+        }
+        catch( InterruptedException e ) {
+            throw new InternalException("Interrupted while waiting for upload parts");
+        }
+    }
+
+    static private class HttpUploadApi implements UploadApi {
+        private final MantaHttp http;
+
+        HttpUploadApi(@Nonnull MantaHttp http) {
+            this.http = http;
+        }
+
+        @Override
+        public @Nonnull String create(@Nonnull String objectPath) throws CloudException, InternalException {
+            try {
+                JSONObject body = new JSONObject();
+
+                body.put("objectPath", objectPath);
+                HttpPost post = new HttpPost(http.toUrl("/" + http.getAccount() + "/uploads"));
+
+                post.setEntity(new StringEntity(body.toString(), APPLICATION_JSON_UTF8));
+                String json = execute(post, null);
+
+                if( json == null ) {
+                    throw new CloudException("Manta did not describe the multipart upload for " + objectPath);
+                }
+                return new JSONObject(json).getString("partsDirectory");
+            }
+            catch( JSONException e ) {
+                throw new CloudException(e);
+            }
+        }
+
+        @Override
+        public @Nullable String getState(@Nonnull String partsDirectory) throws CloudException, InternalException {
+            String json = execute(new HttpGet(http.toUrl(partsDirectory + "/state")), null);
+
+            try {
+                return ( json == null ? null : new JSONObject(json).optString("state", null) );
+            }
+            catch( JSONException e ) {
+                throw new CloudException(e);
+            }
+        }
+
+        @Override
+        public @Nonnull String putPart(@Nonnull String partsDirectory, int partNumber, @Nonnull HttpEntity entity) throws CloudException, InternalException {
+            HttpPut put = new HttpPut(http.toUrl(partsDirectory + "/" + partNumber));
+            String[] etag = new String[1];
+
+            put.setEntity(entity);
+            execute(put, etag);
+            if( etag[0] == null ) {
+                throw new CloudException("Manta returned no ETag for part " + partNumber);
+            }
+            return etag[0];
+        }
+
+        @Override
+        public void commit(@Nonnull String partsDirectory, @Nonnull JSONArray etags) throws CloudException, InternalException {
+            try {
+                JSONObject body = new JSONObject();
+
+                body.put("parts", etags);
+                HttpPost post = new HttpPost(http.toUrl(partsDirectory + "/commit"));
+
+                post.setEntity(new StringEntity(body.toString(), APPLICATION_JSON_UTF8));
+                execute(post, null);
+            }
+            catch( JSONException e ) {
+                throw new CloudException(e);
+            }
+        }
+
+        @Override
+        public void abort(@Nonnull String partsDirectory) throws CloudException, InternalException {
+            execute(new HttpPost(http.toUrl(partsDirectory + "/abort")), null);
+        }
+
+        /**
+         * Sends a request and reads the response.
+         * @param request the request to send
+         * @param etag if not null, receives the ETag header of the response
+         * @return the response body, or null if there was none
+         */
+        private @Nullable String execute(@Nonnull HttpRequestBase request, @Nullable String[] etag) throws CloudException, InternalException {
+            request.addHeader("Accept", "application/json");
+            try {
+                HttpResponse response = http.execute(request);
+                HttpEntity entity = response.getEntity();
+                String body = ( entity == null ? null : EntityUtils.toString(entity) );
+
+                if( etag != null ) {
+                    Header header = response.getFirstHeader("ETag");
+
+                    etag[0] = ( header == null ? null : header.getValue() );
+                }
+                return ( body == null || body.trim().length() == 0 ? null : body );
+            }
+            catch( IOException e ) {
+                request.abort();
+                throw new CloudException(e);
+            }
+        }
+    }
+}
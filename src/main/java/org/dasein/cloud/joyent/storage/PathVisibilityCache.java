@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.joyent.storage;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers whether a bucket or object path was last found under {@code /:login/stor}, under
+ * {@code /:login/public} or not at all, so the storage support does not have to probe both roots before every
+ * request. Found paths are kept longer than missing ones, since a missing path is more likely to be created soon.
+ * @author Dell, Inc
+ */
+class PathVisibilityCache {
+    static final long POSITIVE_TTL = 60000L;
+    static final long NEGATIVE_TTL = 5000L;
+    static final int  MAX_ENTRIES  = 10000;
+
+    enum Visibility { PRIVATE, PUBLIC, MISSING }
+
+    static private class Entry {
+        final Visibility visibility;
+        final long       expires;
+
+        Entry(@Nonnull Visibility visibility, long expires) {
+            this.visibility = visibility;
+            this.expires = expires;
+        }
+    }
+
+    private final ConcurrentHashMap<String,Entry> entries = new ConcurrentHashMap<String,Entry>();
+
+    /**
+     * @param path the bucket or object path, relative to the storage root
+     * @return the last known visibility of the path, or null if it is unknown or has expired
+     */
+    @Nullable Visibility get(@Nonnull String path) {
+        String key = normalize(path);
+        Entry entry = entries.get(key);
+
+        if( entry == null ) {
+            return null;
+        }
+        if( entry.expires <= now() ) {
+            entries.remove(key, entry);
+            return null;
+        }
+        return entry.visibility;
+    }
+
+    /**
+     * Records where a path was found, or that it was found under neither root.
+     * @param path the bucket or object path, relative to the storage root
+     * @param visibility the visibility of the path
+     */
+    void put(@Nonnull String path, @Nonnull Visibility visibility) {
+        long now = now();
+
+        if( entries.size() >= MAX_ENTRIES ) {
+            purge(now);
+        }
+        entries.put(normalize(path), new Entry(visibility, now + ( visibility == Visibility.MISSING ? NEGATIVE_TTL : POSITIVE_TTL )));
+    }
+
+    /**
+     * Forgets a path and everything below it, e.g. after it has been removed.
+     * @param path the bucket or object path, relative to the storage root
+     */
+    void invalidate(@Nonnull String path) {
+        String key = normalize(path);
+        String prefix = ( key.endsWith("/") ? key : key + "/" );
+
+        entries.remove(key);
+        for( Iterator<String> it = entries.keySet().iterator(); it.hasNext(); ) {
+            if( it.next().startsWith(prefix) ) {
+                it.remove();
+            }
+        }
+    }
+
+    long now() {
+        return System.currentTimeMillis();
+    }
+
+    private void purge(long now) {
+        for( Iterator<Map.Entry<String,Entry>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+            if( it.next().getValue().expires <= now ) {
+                it.remove();
+            }
+        }
+        if( entries.size() >= MAX_ENTRIES ) {
+            entries.clear();
+        }
+    }
+
+    static private @Nonnull String normalize(@Nonnull String path) {
+        int end = path.length();
+
+        while( end > 1 && path.charAt(end - 1) == '/' ) {
+            end--;
+        }
+        return ( end == path.length() ? path : path.substring(0, end) );
+    }
+}
@@ -0,0 +1,591 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.joyent.storage;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.log4j.Logger;
+import org.bouncycastle.util.encoders.Base64;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.joyent.SmartDataCenter;
+import org.dasein.cloud.storage.FileTransfer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Downloads a Manta object over several connections at once. The target file is allocated at its final size, the
+ * object is fetched as byte ranges in parallel, and each range is written at its own offset. Every range request is
+ * pinned to the ETag of the object so a concurrent overwrite cannot produce a mixed file, and the finished file is
+ * checked against the MD5 Manta reports for the object. With a checkpoint, the bytes of each range that are on disk
+ * are recorded so an interrupted download of the same version of the object fetches only what is missing.
+ * @author Dell, Inc
+ */
+class RangedDownloader {
+    static private final Logger logger = SmartDataCenter.getLogger(RangedDownloader.class, "std");
+
+    static public final long DEFAULT_RANGE_SIZE  = 16L * 1024L * 1024L;
+    static public final int  DEFAULT_PARALLELISM = 4;
+    static private final int MAX_ATTEMPTS        = 3;
+    static private final int BUFFER_SIZE         = 64 * 1024;
+
+    /**
+     * Where the bytes of the object come from.
+     */
+    interface RangeSource {
+        /**
+         * @param objectPath the full Manta path of the object
+         * @param etag the ETag the object must still have, or null to accept any version
+         * @param offset the first byte to read
+         * @param length the number of bytes to read
+         * @return a stream holding exactly the requested bytes; closing it before the end gives up the rest
+         * @throws CloudException Manta answered with an error
+         * @throws InternalException the request could not be made
+         * @throws IOException the request failed
+         */
+        @Nonnull InputStream open(@Nonnull String objectPath, @Nullable String etag, long offset, long length) throws CloudException, InternalException, IOException;
+    }
+
+    private final RangeSource     source;
+    private final ExecutorService workers;
+    private final long            rangeSize;
+    private final int             parallelism;
+
+    /**
+     * @param http the connection to Manta
+     * @param workers the pool the ranges are fetched from
+     * @param rangeSize the number of bytes fetched by one range request
+     * @param parallelism the number of ranges fetched at the same time
+     */
+    RangedDownloader(@Nonnull MantaHttp http, @Nonnull ExecutorService workers, long rangeSize, int parallelism) {
+        this(new HttpRangeSource(http), workers, rangeSize, parallelism);
+    }
+
+    RangedDownloader(@Nonnull RangeSource source, @Nonnull ExecutorService workers, long rangeSize, int parallelism) {
+        this.source = source;
+        this.workers = workers;
+        this.rangeSize = Math.max(BUFFER_SIZE, rangeSize);
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * @return the number of bytes fetched by one range request
+     */
+    long getRangeSize() {
+        return rangeSize;
+    }
+
+    /**
+     * Requests the first range of an object. The response tells how large the object is and, for an object no larger
+     * than one range, holds all of it, so a small object is downloaded with a single request.
+     * @param http the connection to Manta
+     * @param objectPath the full Manta path of the object
+     * @param rangeSize the number of bytes to request
+     * @return the first range
+     * @throws CloudException Manta answered with an error or did not report the size of the object
+     * @throws InternalException the request could not be signed
+     * @throws IOException the request failed
+     */
+    static @Nonnull FirstRange fetchFirst(@Nonnull MantaHttp http, @Nonnull String objectPath, long rangeSize) throws CloudException, InternalException, IOException {
+        HttpGet get = new HttpGet(http.toUrl(objectPath));
+        HttpResponse response;
+
+        get.addHeader("Range", "bytes=0-" + ( rangeSize - 1 ));
+        try {
+            response = http.execute(get);
+        }
+        catch( CloudException e ) {
+            if( e.getHttpCode() == HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE ) {
+                // only an empty object has no first byte
+                return new FirstRange(objectPath, new ByteArrayInputStream(new byte[0]), 0L, true, null, null);
+            }
+            throw e;
+        }
+        HttpEntity entity = response.getEntity();
+        InputStream content = ( entity == null ? new ByteArrayInputStream(new byte[0]) : entity.getContent() );
+        long received = ( entity == null ? 0L : entity.getContentLength() );
+        String etag = getHeader(response, "ETag");
+        // Manta reports the MD5 of the whole object, also when answering with a range of it
+        String md5 = getHeader(response, "computed-md5");
+
+        if( md5 == null ) {
+            md5 = getHeader(response, "Content-MD5");
+        }
+        if( response.getStatusLine().getStatusCode() != HttpStatus.SC_PARTIAL_CONTENT ) {
+            return new FirstRange(objectPath, new ResponseStream(get, content, received), received, true, etag, md5);
+        }
+        long length = getTotalLength(getHeader(response, "Content-Range"));
+
+        if( length < 0 ) {
+            get.abort();
+            throw new CloudException("Manta did not report the size of " + objectPath);
+        }
+        return new FirstRange(objectPath, new ResponseStream(get, content, received), length, received >= length, etag, md5);
+    }
+
+    /**
+     * Downloads the rest of an object after its first range was fetched with {@link #fetchFirst}. The first range is
+     * written from the response already in hand.
+     * @param first the first range of an object larger than one range
+     * @param toFile the file to write, replaced if it exists
+     * @param transfer the transfer to report progress to, or null
+     * @param limiter caps the rate at which the ranges are received, all together
+     * @param checkpoint where the progress of the download is kept, or null to not make it resumable
+     * @throws CloudException a range failed after all retries or the downloaded file does not match the checksum
+     * @throws InternalException an error occurred within Dasein Cloud while downloading
+     */
+    void download(@Nonnull FirstRange first, @Nonnull File toFile, @Nullable FileTransfer transfer, @Nonnull BandwidthLimiter limiter, @Nullable TransferCheckpoint checkpoint) throws CloudException, InternalException {
+        download(first.objectPath, first.length, first.etag, first.md5, first.content, toFile, transfer, limiter, checkpoint);
+    }
+
+    /**
+     * Downloads an object whose size and checksum are already known.
+     * <p>
+     * With a checkpoint, the number of bytes of every range that were synced to disk is recorded as the download goes.
+     * If an earlier download of the object left a checkpoint with the same ETag and a file of the right size, each
+     * range is requested from the first byte missing, so only what was not written yet is fetched again.
+     * </p>
+     * @param objectPath the full Manta path of the object
+     * @param length the size of the object in bytes
+     * @param etag the ETag of the object, or null to not pin the ranges to one version
+     * @param md5 the base64 encoded MD5 of the object, or null to skip verification
+     * @param firstRange the content of the first range, already requested from its first byte, or null
+     * @param toFile the file to write, replaced if it exists
+     * @param transfer the transfer to report progress to, or null
+     * @param limiter caps the rate at which the ranges are received, all together
+     * @param checkpoint where the progress of the download is kept, or null to not make it resumable
+     * @throws CloudException a range failed after all retries or the downloaded file does not match the checksum
+     * @throws InternalException an error occurred within Dasein Cloud while downloading
+     */
+    void download(@Nonnull final String objectPath, final long length, @Nullable final String etag, @Nullable String md5, @Nullable InputStream firstRange, @Nonnull File toFile, @Nullable final FileTransfer transfer, @Nonnull final BandwidthLimiter limiter, @Nullable final TransferCheckpoint checkpoint) throws CloudException, InternalException {
+        final int count = ( int ) ( ( length + rangeSize - 1 ) / rangeSize );
+        final long[] written = new long[count];
+        final AtomicLong transferred = new AtomicLong();
+        final AtomicReference<InputStream> inHand = new AtomicReference<InputStream>(firstRange);
+
+        if( checkpoint != null ) {
+            if( resumable(checkpoint, objectPath, length, etag, toFile) ) {
+                for( int i = 0; i < count; i++ ) {
+                    written[i] = Math.max(0L, Math.min(checkpoint.getLong("range." + i, 0L), Math.min(rangeSize, length - i * rangeSize)));
+                    transferred.addAndGet(written[i]);
+                }
+                logger.info("Resuming download of " + objectPath + " to " + toFile + " with " + transferred.get() + " of " + length + " bytes already written");
+            }
+            else {
+                checkpoint.clear();
+                checkpoint.put("objectPath", objectPath);
+                checkpoint.put("etag", etag);
+                checkpoint.put("length", length);
+                checkpoint.put("rangeSize", rangeSize);
+                checkpoint.save();
+            }
+        }
+        if( transfer != null ) {
+            transfer.setBytesToTransfer(length);
+            transfer.setBytesTransferred(transferred.get());
+        }
+        final List<Integer> missing = new ArrayList<Integer>();
+
+        for( int i = 0; i < count; i++ ) {
+            if( written[i] < Math.min(rangeSize, length - i * rangeSize) ) {
+                missing.add(i);
+            }
+        }
+        if( count > 0 && written[0] > 0L ) {
+            // a resumed first range starts further in than the response in hand
+            close(inHand.getAndSet(null));
+        }
+        if( logger.isDebugEnabled() ) {
+            logger.debug("Downloading " + missing.size() + " of " + count + " ranges of " + objectPath + " to " + toFile);
+        }
+        RandomAccessFile raf = null;
+        final AtomicInteger nextRange = new AtomicInteger();
+        final AtomicBoolean stop = new AtomicBoolean();
+        List<Future<Void>> fetchers = new ArrayList<Future<Void>>();
+        boolean verified = false;
+
+        try {
+            raf = new RandomAccessFile(toFile, "rw");
+            raf.setLength(length);
+            final FileChannel channel = raf.getChannel();
+
+            // each fetcher takes the next range until none are left, so at most parallelism ranges of this object
+            // are in flight however busy the shared pool is
+            for( int i = 0; i < Math.min(parallelism, missing.size()); i++ ) {
+                fetchers.add(workers.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        int next;
+
+                        while( !stop.get() && (next = nextRange.getAndIncrement()) < missing.size() ) {
+                            int range = missing.get(next);
+                            long offset = range * rangeSize;
+
+                            try {
+                                downloadRange(objectPath, etag, range, offset, Math.min(rangeSize, length - offset), written, inHand, channel, transferred, transfer, limiter, checkpoint);
+                            }
+                            catch( Exception e ) {
+                                stop.set(true);
+                                throw e;
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for( Future<Void> fetcher : fetchers ) {
+                get(fetcher);
+            }
+            channel.force(false);
+            raf.close();
+            raf = null;
+            if( md5 != null ) {
+                verify(toFile, md5);
+            }
+            verified = true;
+        }
+        catch( IOException e ) {
+            throw new CloudException(e);
+        }
+        finally {
+            stop.set(true);
+            close(inHand.getAndSet(null));
+            for( Future<Void> fetcher : fetchers ) {
+                fetcher.cancel(true);
+            }
+            if( raf != null ) {
+                try { raf.close(); }
+                catch( IOException ignore ) { }
+            }
+            if( checkpoint != null && (verified || transferred.get() >= length) ) {
+                // done, or the complete file does not match and nothing of it can be trusted
+                checkpoint.delete();
+            }
+        }
+    }
+
+    /**
+     * @return true if the checkpoint was left by a download of the same version of the object into a file that is
+     * still there
+     */
+    private boolean resumable(@Nonnull TransferCheckpoint checkpoint, @Nonnull String objectPath, long length, @Nullable String etag, @Nonnull File toFile) {
+        // without an ETag there is no telling whether the object changed since
+        return ( etag != null && checkpoint.matches("objectPath", objectPath) && checkpoint.matches("etag", etag)
+                && checkpoint.matches("length", length) && checkpoint.matches("rangeSize", rangeSize)
+                && toFile.isFile() && toFile.length() == length );
+    }
+
+    /**
+     * Fetches what is missing of one range and writes it at its offset, trying again after a short pause if the
+     * connection fails or Manta reports a temporary error. A retry continues after the bytes already written.
+     */
+    private void downloadRange(@Nonnull String objectPath, @Nullable String etag, int range, long offset, long length, @Nonnull long[] progress, @Nonnull AtomicReference<InputStream> inHand, @Nonnull FileChannel channel, @Nonnull AtomicLong transferred, @Nullable FileTransfer transfer, @Nonnull BandwidthLimiter limiter, @Nullable TransferCheckpoint checkpoint) throws CloudException, InternalException {
+        long written = progress[range];
+
+        for( int attempt = 1; ; attempt++ ) {
+            try {
+                InputStream in = ( offset + written == 0L ? inHand.getAndSet(null) : null );
+
+                in = limiter.wrap(in == null ? source.open(objectPath, etag, offset + written, length - written) : in);
+
+                try {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+
+                    while( written < length ) {
+                        int n = in.read(buffer, 0, ( int ) Math.min(buffer.length, length - written));
+
+                        if( n < 0 ) {
+                            throw new IOException("Range at " + offset + " of " + objectPath + " ended early");
+                        }
+                        ByteBuffer bb = ByteBuffer.wrap(buffer, 0, n);
+
+                        while( bb.hasRemaining() ) {
+                            channel.write(bb, offset + written + bb.position());
+                        }
+                        written += n;
+                        long done = transferred.addAndGet(n);
+
+                        if( transfer != null ) {
+                            transfer.setBytesTransferred(done);
+                        }
+                    }
+                }
+                finally {
+                    in.close();
+                    record(range, written, progress, channel, checkpoint);
+                }
+                return;
+            }
+            catch( IOException e ) {
+                if( attempt >= MAX_ATTEMPTS ) {
+                    throw new CloudException(e);
+                }
+                logger.warn("Retrying range at " + offset + " of " + objectPath + " after: " + e.getMessage());
+            }
+            catch( CloudException e ) {
+                if( attempt >= MAX_ATTEMPTS || !MantaHttp.isRetryable(e) ) {
+                    throw e;
+                }
+                logger.warn("Retrying range at " + offset + " of " + objectPath + " after: " + e.getMessage());
+            }
+            try {
+                Thread.sleep(1000L << attempt);
+            }
+            catch( InterruptedException e ) {
+                throw new InternalException("Interrupted while downloading " + objectPath);
+            }
+        }
+    }
+
+    /**
+     * Records how much of a range is on disk. The bytes are synced before they are counted in the checkpoint, so a
+     * crash can lose progress but never make a resumed download skip bytes that were not written.
+     */
+    private void record(int range, long written, @Nonnull long[] progress, @Nonnull FileChannel channel, @Nullable TransferCheckpoint checkpoint) {
+        if( checkpoint == null || written <= progress[range] ) {
+            return;
+        }
+        try {
+            channel.force(false);
+            progress[range] = written;
+            checkpoint.put("range." + range, written);
+            checkpoint.save();
+        }
+        catch( IOException e ) {
+            logger.debug("Unable to sync range " + range + " of " + checkpoint + ": " + e.getMessage());
+        }
+    }
+
+    static private void close(@Nullable InputStream in) {
+        if( in != null ) {
+            try { in.close(); }
+            catch( IOException ignore ) { }
+        }
+    }
+
+    static private @Nullable String getHeader(@Nonnull HttpResponse response, @Nonnull String name) {
+        Header header = response.getFirstHeader(name);
+
+        return ( header == null ? null : header.getValue() );
+    }
+
+    /**
+     * @param contentRange a Content-Range header such as {@code bytes 0-1023/4096}
+     * @return the size of the whole object, or -1 if the header does not tell
+     */
+    static long getTotalLength(@Nullable String contentRange) {
+        int idx = ( contentRange == null ? -1 : contentRange.lastIndexOf('/') );
+
+        if( idx < 0 ) {
+            return -1L;
+        }
+        try {
+            return Long.parseLong(contentRange.substring(idx + 1).trim());
+        }
+        catch( NumberFormatException e ) {
+            return -1L;
+        }
+    }
+
+    static private void verify(@Nonnull File file, @Nonnull String md5) throws CloudException, InternalException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            FileInputStream in = new FileInputStream(file);
+
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int n;
+
+                while( (n = in.read(buffer)) >= 0 ) {
+                    digest.update(buffer, 0, n);
+                }
+            }
+            finally {
+                in.close();
+            }
+            if( !Arrays.equals(digest.digest(), Base64.decode(md5)) ) {
+                throw new CloudException("MD5 hash values do not match, probably data corruption");
+            }
+        }
+        catch( NoSuchAlgorithmException e ) {
+            throw new InternalException(e);
+        }
+        catch( IOException e ) {
+            throw new CloudException(e);
+        }
+    }
+
+    static private void get(@Nonnull Future<Void> range) throws CloudException, InternalException {
+        try {
+            range.get();
+        }
+        catch( ExecutionException e ) {
+            Throwable cause = e.getCause();
+
+            if( cause instanceof CloudException ) {
+                throw ( CloudException ) cause;
+            }
+            if( cause instanceof InternalException ) {
+                throw ( InternalException ) cause;
+            }
+            throw new CloudException(cause);
+        }
+        catch( InterruptedException e ) {
+            throw new InternalException("Interrupted while waiting for download ranges");
+        }
+    }
+
+    /**
+     * The first range of an object, see {@link #fetchFirst}.
+     */
+    static class FirstRange {
+        final String      objectPath;
+        final InputStream content;
+        final long        length;
+        final boolean     complete;
+        final String      etag;
+        final String      md5;
+
+        /**
+         * @param objectPath the full Manta path of the object
+         * @param content the content of the range
+         * @param length the size of the object in bytes, or -1 if not known
+         * @param complete true if the content is the whole object
+         * @param etag the ETag of the object, or null
+         * @param md5 the base64 encoded MD5 of the object, or null
+         */
+        FirstRange(@Nonnull String objectPath, @Nonnull InputStream content, long length, boolean complete, @Nullable String etag, @Nullable String md5) {
+            this.objectPath = objectPath;
+            this.content = content;
+            this.length = length;
+            this.complete = complete;
+            this.etag = etag;
+            this.md5 = md5;
+        }
+    }
+
+    /**
+     * The content of a response, which drops the connection if it is closed before all of it was read rather than
+     * read the rest of a range that is given up on.
+     */
+    static class ResponseStream extends FilterInputStream {
+        private final HttpRequestBase request;
+        private long                  remaining;
+
+        /**
+         * @param request the request the content answers
+         * @param in the content
+         * @param length the number of bytes in the content, or -1 if not known
+         */
+        ResponseStream(@Nonnull HttpRequestBase request, @Nonnull InputStream in, long length) {
+            super(in);
+            this.request = request;
+            this.remaining = ( length < 0 ? Long.MAX_VALUE : length );
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+
+            if( b >= 0 ) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(@Nonnull byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+
+            if( n > 0 ) {
+                remaining -= n;
+            }
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if( remaining > 0 ) {
+                request.abort();
+            }
+            super.close();
+        }
+    }
+
+    static private class HttpRangeSource implements RangeSource {
+        private final MantaHttp http;
+
+        HttpRangeSource(@Nonnull MantaHttp http) {
+            this.http = http;
+        }
+
+        @Override
+        public @Nonnull InputStream open(@Nonnull String objectPath, @Nullable String etag, long offset, long length) throws CloudException, InternalException, IOException {
+            HttpGet get = new HttpGet(http.toUrl(objectPath));
+
+            get.addHeader("Range", "bytes=" + offset + "-" + ( offset + length - 1 ));
+            if( etag != null ) {
+                get.addHeader("If-Match", etag);
+            }
+            HttpResponse response = http.execute(get);
+            HttpEntity entity = response.getEntity();
+
+            if( entity == null ) {
+                throw new IOException("Empty response for " + objectPath);
+            }
+            if( response.getStatusLine().getStatusCode() != HttpStatus.SC_PARTIAL_CONTENT ) {
+                if( offset > 0 ) {
+                    // the whole object came back, which can only be written at offset 0
+                    get.abort();
+                    throw new CloudException("Manta ignored the range request for " + objectPath);
+                }
+                return new ResponseStream(get, entity.getContent(), entity.getContentLength());
+            }
+            return new ResponseStream(get, entity.getContent(), length);
+        }
+    }
+}
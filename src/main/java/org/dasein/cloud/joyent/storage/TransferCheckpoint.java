@@ -0,0 +1,193 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.joyent.storage;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.joyent.SmartDataCenter;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * What a transfer has already done, kept in a small properties file next to the local file so that an upload or
+ * download interrupted by a failure or a restart can pick up where it stopped. Every save is written to a temporary
+ * file, synced to disk and renamed over the previous one, so a crash leaves either the old or the new state. A
+ * checkpoint that cannot be written is given up on, and the transfer goes on without one.
+ * @author Dell, Inc
+ */
+class TransferCheckpoint {
+    static private final Logger logger = SmartDataCenter.getLogger(TransferCheckpoint.class, "std");
+
+    /**
+     * @param file the checkpoint file, which may not exist yet
+     * @return the checkpoint with the state found in the file, or empty if there is none or it cannot be read
+     */
+    static @Nonnull TransferCheckpoint open(@Nonnull File file) {
+        TransferCheckpoint checkpoint = new TransferCheckpoint(file);
+
+        if( file.exists() ) {
+            try {
+                InputStream in = new FileInputStream(file);
+
+                try {
+                    checkpoint.values.load(in);
+                }
+                finally {
+                    in.close();
+                }
+            }
+            catch( IOException e ) {
+                logger.warn("Ignoring unreadable checkpoint " + file + ": " + e.getMessage());
+                checkpoint.values.clear();
+            }
+            catch( IllegalArgumentException e ) {
+                logger.warn("Ignoring corrupt checkpoint " + file + ": " + e.getMessage());
+                checkpoint.values.clear();
+            }
+        }
+        return checkpoint;
+    }
+
+    private final File       file;
+    private final Properties values = new Properties();
+    private boolean          writable = true;
+    private boolean          saved;
+
+    private TransferCheckpoint(@Nonnull File file) {
+        this.file = file;
+    }
+
+    /**
+     * @param key the name of a value
+     * @return the value, or null if it was not recorded
+     */
+    synchronized @Nullable String get(@Nonnull String key) {
+        return values.getProperty(key);
+    }
+
+    /**
+     * @param key the name of a value
+     * @param defaultValue the value to return if none, or an invalid one, was recorded
+     * @return the recorded number
+     */
+    synchronized long getLong(@Nonnull String key, long defaultValue) {
+        String value = values.getProperty(key);
+
+        if( value == null ) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        }
+        catch( NumberFormatException e ) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @param key the name of a value
+     * @param expected the value the transfer needs to find
+     * @return true if the checkpoint holds exactly that value
+     */
+    synchronized boolean matches(@Nonnull String key, @Nullable Object expected) {
+        return ( expected != null && String.valueOf(expected).equals(values.getProperty(key)) );
+    }
+
+    /**
+     * Records a value, to be written by the next {@link #save()}.
+     * @param key the name of the value
+     * @param value the value
+     */
+    synchronized void put(@Nonnull String key, @Nonnull Object value) {
+        values.setProperty(key, String.valueOf(value));
+    }
+
+    /**
+     * Forgets all values, e.g. because they describe a different version of the object.
+     */
+    synchronized void clear() {
+        values.clear();
+    }
+
+    /**
+     * Writes the recorded values to disk.
+     */
+    synchronized void save() {
+        if( !writable ) {
+            return;
+        }
+        File temp = new File(file.getPath() + ".tmp");
+
+        try {
+            FileOutputStream out = new FileOutputStream(temp);
+
+            try {
+                values.store(out, "Manta transfer checkpoint");
+                out.flush();
+                out.getFD().sync();
+            }
+            finally {
+                out.close();
+            }
+            // renameTo does not replace an existing file everywhere
+            if( !temp.renameTo(file) && !(file.delete() && temp.renameTo(file)) ) {
+                throw new IOException("Unable to replace " + file);
+            }
+            saved = true;
+        }
+        catch( IOException e ) {
+            logger.warn("Unable to write checkpoint " + file + ", the transfer will not be resumable: " + e.getMessage());
+            writable = false;
+            saved = false;
+            if( !temp.delete() && temp.exists() ) {
+                logger.debug("Unable to remove " + temp);
+            }
+        }
+    }
+
+    /**
+     * @return true if the current state reached the disk, so a later transfer can resume from it
+     */
+    synchronized boolean isSaved() {
+        return saved;
+    }
+
+    /**
+     * Removes the checkpoint from disk once the transfer is over.
+     */
+    synchronized void delete() {
+        values.clear();
+        saved = false;
+        if( file.exists() && !file.delete() ) {
+            logger.warn("Unable to remove checkpoint " + file);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return file.getPath();
+    }
+}
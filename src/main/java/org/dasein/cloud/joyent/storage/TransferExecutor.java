@@ -0,0 +1,201 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.joyent.storage;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.joyent.SmartDataCenter;
+import org.dasein.util.NamedThreadFactory;
+
+import javax.annotation.Nonnull;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The threads Manta transfers run on, shared by all storage supports for one account. Whole transfers are queued
+ * with the {@link TransferScheduler}, which starts them within the account's and the JVM's limits, and wait for the
+ * parts, ranges, deletes and listing pages they fan out to, which run on a bounded pool of the account; keeping the
+ * two apart means a transfer never waits for work queued behind itself. Idle threads are let go.
+ * @author Dell, Inc
+ */
+final class TransferExecutor {
+    static private final Logger logger = SmartDataCenter.getLogger(TransferExecutor.class, "std");
+
+    static public final int DEFAULT_TRANSFER_THREADS = 16;
+    static public final int DEFAULT_WORKER_THREADS   = 32;
+    static private final long KEEP_ALIVE_SECONDS     = 60L;
+
+    static private final ConcurrentHashMap<String,TransferExecutor> executors = new ConcurrentHashMap<String,TransferExecutor>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread("Manta transfer executor shutdown") {
+            @Override
+            public void run() {
+                shutdown();
+            }
+        });
+    }
+
+    /**
+     * @param key the Manta URL and account the transfers belong to
+     * @param transferThreads the number of transfers of the account running at the same time
+     * @param workerThreads the number of parts, ranges and other requests of those transfers running at the same time
+     * @return the executor shared by all storage supports for the account, its worker pool sized by whoever asked first
+     */
+    static @Nonnull TransferExecutor getInstance(@Nonnull String key, int transferThreads, int workerThreads) {
+        TransferExecutor executor = executors.get(key);
+
+        TransferScheduler.getInstance().setAccountLimit(key, transferThreads);
+        if( executor == null ) {
+            TransferExecutor created = new TransferExecutor(key, workerThreads);
+
+            executor = executors.putIfAbsent(key, created);
+            if( executor == null ) {
+                executor = created;
+            }
+            else {
+                created.stop();
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Stops all executors, cancelling the transfers they still run. Storage supports created afterwards get new ones.
+     * Called automatically when the JVM shuts down.
+     */
+    static void shutdown() {
+        for( String key : executors.keySet() ) {
+            TransferExecutor executor = executors.remove(key);
+
+            if( executor != null ) {
+                executor.stop();
+            }
+        }
+    }
+
+    private final String             key;
+    private final ThreadPoolExecutor workers;
+    private final Set<TransferTask>  tasks = Collections.newSetFromMap(new ConcurrentHashMap<TransferTask,Boolean>());
+
+    private TransferExecutor(@Nonnull String key, int workerThreads) {
+        this.key = key;
+        this.workers = newPool(Math.max(1, workerThreads), " worker");
+    }
+
+    /**
+     * Queues a transfer at its priority. The transfer is completed with the outcome of the task, and its listeners
+     * are called.
+     * @param transfer the transfer to report to
+     * @param task the work of the transfer
+     * @return the transfer
+     */
+    @Nonnull MantaTransfer submit(@Nonnull final MantaTransfer transfer, @Nonnull final Task task) {
+        TransferTask future = new TransferTask(transfer, new Runnable() {
+            @Override
+            public void run() {
+                if( transfer.isComplete() ) {
+                    return;
+                }
+                transfer.started();
+                try {
+                    task.run(transfer);
+                    transfer.complete(null);
+                }
+                catch( Throwable t ) {
+                    if( !transfer.isCancelled() ) {
+                        logger.error("Error on " + transfer.getDescription(), t);
+                    }
+                    transfer.complete(t);
+                }
+            }
+        });
+
+        tasks.add(future);
+        transfer.setFuture(future);
+        TransferScheduler.getInstance().submit(key, transfer.getPriority(), future);
+        return transfer;
+    }
+
+    /**
+     * @return the pool for the parts, ranges and other requests transfers are split into
+     */
+    @Nonnull ExecutorService getWorkers() {
+        return workers;
+    }
+
+    /**
+     * The work of one transfer.
+     */
+    interface Task {
+        void run(@Nonnull MantaTransfer transfer) throws Exception;
+    }
+
+    /**
+     * A queued or running transfer, kept so that it can be cancelled on shutdown.
+     */
+    private class TransferTask extends FutureTask<Void> {
+        final MantaTransfer transfer;
+
+        TransferTask(@Nonnull MantaTransfer transfer, @Nonnull Runnable work) {
+            super(work, null);
+            this.transfer = transfer;
+        }
+
+        @Override
+        protected void done() {
+            tasks.remove(this);
+            if( isCancelled() ) {
+                // dropped by the scheduler or cancelled before it ran
+                transfer.cancel();
+            }
+        }
+    }
+
+    private void stop() {
+        for( TransferTask task : tasks ) {
+            task.transfer.cancel();
+        }
+        workers.shutdownNow();
+    }
+
+    private @Nonnull ThreadPoolExecutor newPool(int threads, @Nonnull String suffix) {
+        final ThreadFactory names = new NamedThreadFactory(TransferExecutor.class, suffix);
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(@Nonnull Runnable r) {
+                Thread t = names.newThread(r);
+
+                // shared pools must not keep the JVM alive
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+}
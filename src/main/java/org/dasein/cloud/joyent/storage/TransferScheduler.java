@@ -0,0 +1,344 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.joyent.storage;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.joyent.SmartDataCenter;
+import org.dasein.util.NamedThreadFactory;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when Manta transfers may run, for all storage supports in the JVM. Transfers wait in one queue ordered by
+ * {@link MantaTransfer.Priority} and then by arrival, so an interactive transfer goes ahead of everything queued at a
+ * lower priority. A transfer starts only while fewer than the global limit are running and fewer than its account's
+ * limit are running for that account; a quarter of the global slots are kept free of background transfers so they
+ * cannot starve the others. Running transfers are never interrupted to make room.
+ * <p>
+ * Asynchronous transfers are started on threads of the scheduler; synchronous ones wait in the calling thread for
+ * their turn. The queue depth and the time spent waiting are recorded per priority.
+ * </p>
+ * @author Dell, Inc
+ */
+public final class TransferScheduler {
+    static private final Logger logger = SmartDataCenter.getLogger(TransferScheduler.class, "std");
+
+    static public final int DEFAULT_GLOBAL_LIMIT = 64;
+    static private final long SLOW_WAIT_MILLIS   = 10000L;
+
+    static private final TransferScheduler instance = new TransferScheduler();
+
+    /**
+     * @return the scheduler shared by all storage supports in the JVM
+     */
+    static public @Nonnull TransferScheduler getInstance() {
+        return instance;
+    }
+
+    static private class Account {
+        int limit = TransferExecutor.DEFAULT_TRANSFER_THREADS;
+        int running;
+    }
+
+    private class Entry implements Comparable<Entry> {
+        final String                 account;
+        final MantaTransfer.Priority priority;
+        final long                   queuedAt = System.currentTimeMillis();
+        final Runnable               start;
+        final Future<?>              future;
+        long                         sequence;
+
+        Entry(@Nonnull String account, @Nonnull MantaTransfer.Priority priority, @Nonnull Runnable start, Future<?> future) {
+            this.account = account;
+            this.priority = priority;
+            this.start = start;
+            this.future = future;
+        }
+
+        @Override
+        public int compareTo(@Nonnull Entry other) {
+            if( priority != other.priority ) {
+                return priority.compareTo(other.priority);
+            }
+            return ( sequence < other.sequence ? -1 : ( sequence == other.sequence ? 0 : 1 ) );
+        }
+    }
+
+    private final PriorityQueue<Entry> queue    = new PriorityQueue<Entry>();
+    private final Map<String,Account>  accounts = new HashMap<String,Account>();
+    private final ThreadLocal<Boolean> admitted = new ThreadLocal<Boolean>();
+    private final ThreadPoolExecutor   threads;
+
+    private int  globalLimit = DEFAULT_GLOBAL_LIMIT;
+    private int  running;
+    private long nextSequence;
+
+    private final int[]  queued     = new int[MantaTransfer.Priority.values().length];
+    private final long[] dispatched = new long[MantaTransfer.Priority.values().length];
+    private final long[] totalWait  = new long[MantaTransfer.Priority.values().length];
+    private final long[] maxWait    = new long[MantaTransfer.Priority.values().length];
+
+    private TransferScheduler() {
+        final ThreadFactory names = new NamedThreadFactory(TransferScheduler.class, " transfer");
+
+        // never holds more threads than transfers allowed to run, since work is only handed over once admitted
+        threads = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(@Nonnull Runnable r) {
+                Thread t = names.newThread(r);
+
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * @param limit the number of transfers allowed to run at the same time in the JVM
+     */
+    public void setGlobalLimit(int limit) {
+        synchronized( this ) {
+            globalLimit = Math.max(1, limit);
+        }
+        dispatch();
+    }
+
+    /**
+     * @param account the Manta URL and account
+     * @param limit the number of transfers of the account allowed to run at the same time
+     */
+    void setAccountLimit(@Nonnull String account, int limit) {
+        synchronized( this ) {
+            getAccount(account).limit = Math.max(1, limit);
+        }
+        dispatch();
+    }
+
+    /**
+     * Queues work to run on a scheduler thread once admitted. The slot is released when the work returns. Work that
+     * is a {@link Future} cancelled while queued is dropped without taking a slot.
+     * @param account the Manta URL and account the transfer belongs to
+     * @param priority the priority of the transfer
+     * @param work the transfer
+     */
+    void submit(@Nonnull final String account, @Nonnull MantaTransfer.Priority priority, @Nonnull final Runnable work) {
+        Runnable start = new Runnable() {
+            @Override
+            public void run() {
+                threads.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        admitted.set(Boolean.TRUE);
+                        try {
+                            work.run();
+                        }
+                        finally {
+                            admitted.remove();
+                            release(account);
+                        }
+                    }
+                });
+            }
+        };
+
+        enqueue(new Entry(account, priority, start, work instanceof Future ? ( Future<?> ) work : null));
+    }
+
+    /**
+     * Waits in the calling thread until a synchronous transfer may run. A thread that already runs an admitted
+     * transfer is not queued again, so a transfer calling into another transfer does not wait for itself.
+     * @param account the Manta URL and account the transfer belongs to
+     * @param priority the priority of the transfer
+     * @return true if a slot was taken and must be given back through {@link #release(String)}
+     * @throws InterruptedException the thread was interrupted while waiting; no slot is held
+     */
+    boolean acquire(@Nonnull String account, @Nonnull MantaTransfer.Priority priority) throws InterruptedException {
+        if( admitted.get() != null ) {
+            return false;
+        }
+        final CountDownLatch turn = new CountDownLatch(1);
+        Entry entry = new Entry(account, priority, new Runnable() {
+            @Override
+            public void run() {
+                turn.countDown();
+            }
+        }, null);
+
+        enqueue(entry);
+        try {
+            turn.await();
+        }
+        catch( InterruptedException e ) {
+            boolean removed;
+
+            synchronized( this ) {
+                removed = queue.remove(entry);
+                if( removed ) {
+                    queued[entry.priority.ordinal()]--;
+                }
+            }
+            if( !removed ) {
+                // admitted just as we gave up
+                release(account);
+            }
+            throw e;
+        }
+        admitted.set(Boolean.TRUE);
+        return true;
+    }
+
+    /**
+     * Gives back the slot taken by {@link #acquire(String, MantaTransfer.Priority)}.
+     * @param account the Manta URL and account the transfer belongs to
+     */
+    void release(@Nonnull String account) {
+        synchronized( this ) {
+            running--;
+            getAccount(account).running--;
+        }
+        admitted.remove();
+        dispatch();
+    }
+
+    /**
+     * @return the number of transfers running in the JVM
+     */
+    public synchronized int getRunning() {
+        return running;
+    }
+
+    /**
+     * @param priority a priority
+     * @return the number of transfers of the priority waiting for their turn
+     */
+    public synchronized int getQueueDepth(@Nonnull MantaTransfer.Priority priority) {
+        return queued[priority.ordinal()];
+    }
+
+    /**
+     * @param priority a priority
+     * @return the number of transfers of the priority started so far
+     */
+    public synchronized long getDispatched(@Nonnull MantaTransfer.Priority priority) {
+        return dispatched[priority.ordinal()];
+    }
+
+    /**
+     * @param priority a priority
+     * @return the average time in milliseconds transfers of the priority waited before they started
+     */
+    public synchronized long getAverageWaitMillis(@Nonnull MantaTransfer.Priority priority) {
+        long count = dispatched[priority.ordinal()];
+
+        return ( count == 0L ? 0L : totalWait[priority.ordinal()] / count );
+    }
+
+    /**
+     * @param priority a priority
+     * @return the longest time in milliseconds a transfer of the priority waited before it started
+     */
+    public synchronized long getMaxWaitMillis(@Nonnull MantaTransfer.Priority priority) {
+        return maxWait[priority.ordinal()];
+    }
+
+    private void enqueue(@Nonnull Entry entry) {
+        synchronized( this ) {
+            entry.sequence = nextSequence++;
+            queue.add(entry);
+            queued[entry.priority.ordinal()]++;
+        }
+        dispatch();
+    }
+
+    /**
+     * Starts as many queued transfers as the limits allow, highest priority first. A transfer whose account is at its
+     * limit keeps its place without holding up transfers of other accounts.
+     */
+    private synchronized void dispatch() {
+        List<Entry> blocked = null;
+        int backgroundLimit = globalLimit - globalLimit / 4;
+
+        while( running < globalLimit && !queue.isEmpty() ) {
+            Entry entry = queue.poll();
+            int p = entry.priority.ordinal();
+
+            if( entry.future != null && entry.future.isDone() ) {
+                // cancelled while waiting
+                queued[p]--;
+                continue;
+            }
+            Account account = getAccount(entry.account);
+
+            if( account.running >= account.limit || ( entry.priority == MantaTransfer.Priority.BACKGROUND && running >= backgroundLimit ) ) {
+                if( blocked == null ) {
+                    blocked = new ArrayList<Entry>();
+                }
+                blocked.add(entry);
+                continue;
+            }
+            long wait = System.currentTimeMillis() - entry.queuedAt;
+
+            queued[p]--;
+            dispatched[p]++;
+            totalWait[p] += wait;
+            maxWait[p] = Math.max(maxWait[p], wait);
+            if( wait >= SLOW_WAIT_MILLIS && logger.isDebugEnabled() ) {
+                logger.debug("A " + entry.priority + " transfer for " + entry.account + " waited " + wait + " ms to start");
+            }
+            running++;
+            account.running++;
+            try {
+                entry.start.run();
+            }
+            catch( RuntimeException e ) {
+                running--;
+                account.running--;
+                logger.error("Unable to start transfer for " + entry.account + ": " + e.getMessage(), e);
+                if( entry.future != null ) {
+                    entry.future.cancel(false);
+                }
+            }
+        }
+        if( blocked != null ) {
+            queue.addAll(blocked);
+        }
+    }
+
+    private @Nonnull Account getAccount(@Nonnull String key) {
+        Account account = accounts.get(key);
+
+        if( account == null ) {
+            account = new Account();
+            accounts.put(key, account);
+        }
+        return account;
+    }
+}
@@ -0,0 +1,335 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.joyent.storage;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.util.EntityUtils;
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.joyent.SmartDataCenter;
+import org.dasein.cloud.storage.Blob;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deletes a Manta directory with everything below it. Directories are listed page by page, the objects found are
+ * deleted by a bounded number of concurrent requests while listing goes on, and each directory is removed as soon as
+ * the last entry below it is gone. A failure to delete one entry does not stop the others; the directories above it
+ * are left in place and the failures are reported once nothing more can be deleted. A deleter is used for one tree.
+ * @author Dell, Inc
+ */
+class TreeDeleter {
+    static private final Logger logger = SmartDataCenter.getLogger(TreeDeleter.class, "std");
+
+    static public final int  DEFAULT_PARALLELISM = 8;
+    static private final int MAX_ATTEMPTS        = 3;
+    static private final int PROGRESS_INTERVAL   = 1000;
+    static private final int MAX_REPORTED        = 5;
+
+    /**
+     * What the deleter lists and deletes through.
+     */
+    interface Tree extends DirectoryListing.PageSource {
+        /**
+         * Deletes one object or empty directory, once.
+         * @param path the full Manta path of the entry
+         * @throws CloudException Manta answered with an error
+         * @throws InternalException the request could not be made
+         * @throws IOException the request failed
+         */
+        void delete(@Nonnull String path) throws CloudException, InternalException, IOException;
+    }
+
+    private final Tree            tree;
+    private final ExecutorService workers;
+    private final int             parallelism;
+
+    private final AtomicLong        deletedObjects     = new AtomicLong();
+    private final AtomicLong        deletedDirectories = new AtomicLong();
+    private final Queue<String>     failures           = new ConcurrentLinkedQueue<String>();
+    private final AtomicInteger     failureCount       = new AtomicInteger();
+
+    /**
+     * A directory being emptied. It is removed once its listing is complete and every entry below it is gone.
+     */
+    private class Node {
+        final String        path;
+        final Node          parent;
+        final AtomicInteger pending = new AtomicInteger(1);
+        volatile boolean    failed;
+
+        Node(@Nonnull String path, @Nullable Node parent) {
+            this.path = path;
+            this.parent = parent;
+        }
+    }
+
+    /**
+     * @param http the connection to Manta
+     * @param workers the pool the delete requests and listing pages are sent from
+     * @param parallelism the number of delete requests sent at the same time
+     */
+    TreeDeleter(@Nonnull MantaHttp http, @Nonnull ExecutorService workers, int parallelism) {
+        this(new HttpTree(http), workers, parallelism);
+    }
+
+    TreeDeleter(@Nonnull Tree tree, @Nonnull ExecutorService workers, int parallelism) {
+        this.tree = tree;
+        this.workers = workers;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * @return the number of objects deleted so far
+     */
+    long getDeletedObjects() {
+        return deletedObjects.get();
+    }
+
+    /**
+     * @return the number of directories deleted so far
+     */
+    long getDeletedDirectories() {
+        return deletedDirectories.get();
+    }
+
+    /**
+     * Deletes a directory and its content.
+     * @param path the full Manta path of the directory
+     * @throws CloudException the directory could not be listed, or some entries below it could not be deleted
+     * @throws InternalException an error occurred within Dasein Cloud while deleting
+     */
+    void delete(@Nonnull String path) throws CloudException, InternalException {
+        DirectoryListing.Page first;
+
+        try {
+            // a missing or unreadable root is reported as is, before anything is deleted
+            first = tree.fetch(path, null);
+        }
+        catch( IOException e ) {
+            throw new CloudException(e);
+        }
+        // bounds the deletes in flight, so a huge directory is neither queued up at once nor allowed to take over
+        // the shared pool
+        Semaphore slots = new Semaphore(parallelism);
+        CountDownLatch done = new CountDownLatch(1);
+
+        try {
+            Node root = new Node(path, null);
+
+            walk(root, new DirectoryListing(tree, workers, first), slots, done);
+            done.await();
+        }
+        catch( InterruptedException e ) {
+            throw new InternalException("Interrupted while deleting " + path);
+        }
+        logger.info("Deleted " + deletedObjects.get() + " objects and " + deletedDirectories.get() + " directories under " + path);
+        if( failureCount.get() > 0 ) {
+            StringBuilder message = new StringBuilder();
+
+            message.append("Unable to delete ").append(failureCount.get()).append(" entries under ").append(path);
+            for( String failure : failures ) {
+                message.append("; ").append(failure);
+            }
+            if( failureCount.get() > failures.size() ) {
+                message.append("; ...");
+            }
+            throw new CloudException(message.toString());
+        }
+    }
+
+    /**
+     * Lists a directory in the calling thread, handing its objects to the workers and descending into its
+     * subdirectories.
+     */
+    private void walk(@Nonnull final Node node, @Nonnull Iterable<Blob> entries, @Nonnull final Semaphore slots, @Nonnull final CountDownLatch done) throws InterruptedException {
+        try {
+            for( Iterator<Blob> it = entries.iterator(); it.hasNext(); ) {
+                Blob entry = it.next();
+
+                if( entry.isContainer() ) {
+                    Node child = new Node(node.path + "/" + entry.getBucketName(), node);
+
+                    node.pending.incrementAndGet();
+                    walk(child, list(child), slots, done);
+                }
+                else {
+                    final String objectPath = node.path + "/" + entry.getObjectName();
+
+                    node.pending.incrementAndGet();
+                    slots.acquire();
+                    workers.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                if( deleteEntry(objectPath) ) {
+                                    long count = deletedObjects.incrementAndGet();
+
+                                    if( count % PROGRESS_INTERVAL == 0 ) {
+                                        logger.info("Deleted " + count + " objects so far, now in " + node.path);
+                                    }
+                                }
+                                else {
+                                    node.failed = true;
+                                }
+                            }
+                            finally {
+                                slots.release();
+                                finish(node, done);
+                            }
+                        }
+                    });
+                }
+            }
+        }
+        catch( IllegalStateException e ) {
+            // a later page of the listing failed
+            fail(node.path, e.getCause() == null ? e : e.getCause());
+            node.failed = true;
+        }
+        finish(node, done);
+    }
+
+    /**
+     * @return the content of a subdirectory, or no entries if it cannot be listed
+     */
+    private @Nonnull Iterable<Blob> list(@Nonnull Node node) {
+        try {
+            return new DirectoryListing(tree, workers, tree.fetch(node.path, null));
+        }
+        catch( Exception e ) {
+            fail(node.path, e);
+            node.failed = true;
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Records that one entry of a directory is done, removing the directory once nothing is left in it.
+     */
+    private void finish(@Nonnull Node node, @Nonnull CountDownLatch done) {
+        while( node != null && node.pending.decrementAndGet() == 0 ) {
+            Node parent = node.parent;
+
+            if( node.failed ) {
+                // still holds what could not be deleted
+                if( parent != null ) {
+                    parent.failed = true;
+                }
+            }
+            else if( deleteEntry(node.path) ) {
+                deletedDirectories.incrementAndGet();
+            }
+            else if( parent != null ) {
+                parent.failed = true;
+            }
+            if( parent == null ) {
+                done.countDown();
+            }
+            node = parent;
+        }
+    }
+
+    /**
+     * Deletes one object or empty directory, trying again after a short pause if the connection fails or Manta
+     * reports a temporary error. An entry that is already gone counts as deleted.
+     * @return true if the entry is gone
+     */
+    private boolean deleteEntry(@Nonnull String path) {
+        for( int attempt = 1; ; attempt++ ) {
+            try {
+                tree.delete(path);
+                return true;
+            }
+            catch( CloudException e ) {
+                if( e.getHttpCode() == HttpStatus.SC_NOT_FOUND ) {
+                    return true;
+                }
+                if( attempt >= MAX_ATTEMPTS || !MantaHttp.isRetryable(e) ) {
+                    fail(path, e);
+                    return false;
+                }
+            }
+            catch( IOException e ) {
+                if( attempt >= MAX_ATTEMPTS ) {
+                    fail(path, e);
+                    return false;
+                }
+            }
+            catch( InternalException e ) {
+                fail(path, e);
+                return false;
+            }
+            try {
+                Thread.sleep(1000L << attempt);
+            }
+            catch( InterruptedException e ) {
+                fail(path, e);
+                return false;
+            }
+        }
+    }
+
+    private void fail(@Nonnull String path, @Nonnull Throwable t) {
+        logger.warn("Unable to delete " + path + ": " + t.getMessage());
+        if( failureCount.incrementAndGet() <= MAX_REPORTED ) {
+            failures.add(path + ": " + t.getMessage());
+        }
+    }
+
+    static private class HttpTree implements Tree {
+        private final MantaHttp http;
+
+        HttpTree(@Nonnull MantaHttp http) {
+            this.http = http;
+        }
+
+        @Override
+        public @Nonnull DirectoryListing.Page fetch(@Nonnull String path, @Nullable String marker) throws CloudException, InternalException, IOException {
+            return DirectoryListing.fetch(http, path, "", "", marker, DirectoryListing.PAGE_SIZE);
+        }
+
+        @Override
+        public void delete(@Nonnull String path) throws CloudException, InternalException, IOException {
+            HttpDelete delete = new HttpDelete(http.toUrl(path));
+
+            try {
+                EntityUtils.consume(http.execute(delete).getEntity());
+            }
+            catch( IOException e ) {
+                delete.abort();
+                throw e;
+            }
+        }
+    }
+}
@@ -24,6 +24,7 @@ import org.apache.http.client.HttpClient;
 import org.apache.http.client.entity.GzipDecompressingEntity;
 import org.apache.http.conn.params.ConnRoutePNames;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.HttpParams;
 import org.apache.http.params.HttpProtocolParams;
@@ -31,25 +32,64 @@ import org.apache.http.protocol.HttpContext;
 import org.dasein.cloud.CloudException;
 import org.dasein.cloud.InternalException;
 import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.joyent.storage.Manta;
 
 import javax.annotation.Nonnull;
 import java.io.IOException;
 import java.util.Properties;
 
 public class DefaultClientFactory implements JoyentClientFactory {
+    /**
+     * Context property limiting the number of pooled connections in total. It does not apply to the requests the
+     * Manta client library sends through the JDK HTTP stack, whose keep-alive pool is sized by the JVM-wide
+     * {@code http.maxConnections} system property.
+     */
+    static public final String CUSTOM_PROP_MAX_CONNECTIONS           = "maxConnections";
+    /**
+     * Context property limiting the number of pooled connections to a single endpoint. A request waits for a free
+     * connection for as long as it takes, so by default the limit is raised to what the storage transfers of the
+     * account may use at once, see {@link Manta#getConnectionsPerAccount(Properties)}.
+     */
+    static public final String CUSTOM_PROP_MAX_CONNECTIONS_PER_ROUTE = "maxConnectionsPerRoute";
+
+    static private final int MAX_CONNECTIONS           = 50;
+    static private final int MAX_CONNECTIONS_PER_ROUTE = 20;
 
     private final ProviderContext providerContext;
+    private volatile HttpClient client;
 
     public DefaultClientFactory( ProviderContext providerContext ) {
         this.providerContext = providerContext;
     }
 
+    /**
+     * Returns the client shared by every request made through this factory. The client is backed by a pooled
+     * connection manager, so connections (and their TLS sessions) are kept alive between requests.
+     * @param endpoint the endpoint the client will talk to
+     * @return the shared HTTP client
+     * @throws CloudException no context was defined for this factory
+     * @throws InternalException the client could not be created
+     */
     @Override
     public @Nonnull HttpClient getClient(String endpoint) throws CloudException, InternalException {
         if( providerContext == null ) {
             throw new CloudException("No context was defined for this request");
         }
+        HttpClient c = client;
 
+        if( c == null ) {
+            synchronized( this ) {
+                c = client;
+                if( c == null ) {
+                    c = createClient();
+                    client = c;
+                }
+            }
+        }
+        return c;
+    }
+
+    protected @Nonnull HttpClient createClient() throws CloudException, InternalException {
         final HttpParams params = new BasicHttpParams();
 
         HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
@@ -57,6 +97,9 @@ public class DefaultClientFactory implements JoyentClientFactory {
         HttpProtocolParams.setUserAgent(params, "Dasein Cloud");
 
         Properties p = providerContext.getCustomProperties();
+        // Manta transfers share this pool; without explicit limits it holds all the connections they may use at once
+        int maxConnectionsPerRoute = Math.max(MAX_CONNECTIONS_PER_ROUTE, Manta.getConnectionsPerAccount(p));
+        int maxConnections = Math.max(MAX_CONNECTIONS, maxConnectionsPerRoute + MAX_CONNECTIONS_PER_ROUTE);
         if( p != null ) {
             String proxyHost = p.getProperty("proxyHost");
             String proxyPortStr = p.getProperty("proxyPort");
@@ -69,8 +112,20 @@ public class DefaultClientFactory implements JoyentClientFactory {
                         new HttpHost(proxyHost, proxyPort)
                 );
             }
+            String value = p.getProperty(CUSTOM_PROP_MAX_CONNECTIONS);
+            if( value != null && value.length() > 0 ) {
+                maxConnections = Integer.parseInt(value);
+            }
+            value = p.getProperty(CUSTOM_PROP_MAX_CONNECTIONS_PER_ROUTE);
+            if( value != null && value.length() > 0 ) {
+                maxConnectionsPerRoute = Integer.parseInt(value);
+            }
         }
-        DefaultHttpClient client = new DefaultHttpClient(params);
+        PoolingClientConnectionManager connectionManager = new PoolingClientConnectionManager();
+
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(Math.min(maxConnections, maxConnectionsPerRoute));
+        DefaultHttpClient client = new DefaultHttpClient(connectionManager, params);
         // Joyent does not support gzip at the moment (7.2), but in case it will
         // in the future we might just leave these here
         client.addRequestInterceptor(new HttpRequestInterceptor() {
@@ -105,6 +160,21 @@ public class DefaultClientFactory implements JoyentClientFactory {
         return client;
     }
 
+    /**
+     * Closes all pooled connections. A later request creates a new client.
+     */
+    public void close() {
+        HttpClient c;
+
+        synchronized( this ) {
+            c = client;
+            client = null;
+        }
+        if( c != null ) {
+            c.getConnectionManager().shutdown();
+        }
+    }
+
     protected ProviderContext getProviderContext() {
         return providerContext;
     }
@@ -46,7 +46,13 @@ public class SignatureHttpAuth implements JoyentHttpAuth {
     private static final String AUTH_SIGN = "date: %s";
     private static final String SIGN_ALGORITHM = "SHA256WithRSAEncryption";
 
+    static {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
     private SmartDataCenter provider;
+    private volatile String keyName;
+    private volatile KeyPair keyPair;
 
     public SignatureHttpAuth(SmartDataCenter provider) {
         this.provider = provider;
@@ -58,34 +64,15 @@ public class SignatureHttpAuth implements JoyentHttpAuth {
             throw new CloudException("No context was defined for this request");
         }
         Date date = Calendar.getInstance(TimeZone.getTimeZone("UTC")).getTime();
-        String now = RFC1123_DATE_FORMAT.format(date);
+        String now;
+        synchronized( RFC1123_DATE_FORMAT ) {
+            now = RFC1123_DATE_FORMAT.format(date);
+        }
         request.setHeader("Date", now);
         try {
-            Security.addProvider(new BouncyCastleProvider());
+            KeyPair keyPair = loadKeyPair();
             Signature signature = Signature.getInstance(SIGN_ALGORITHM);
 
-            List<ContextRequirements.Field> fields = provider.getContextRequirements().getConfigurableValues();
-            String keyName = "";
-            String privateKey = "";
-            char[] keyPassword = null;
-            for(ContextRequirements.Field f : fields ) {
-                if(f.type.equals(ContextRequirements.FieldType.KEYPAIR)){
-                    byte[][] keyPair = (byte[][])provider.getContext().getConfigurationValue(f);
-                    keyName = new String(keyPair[0], "utf-8");
-                    privateKey = new String(keyPair[1], "utf-8");
-                }
-                else if(f.type.equals(ContextRequirements.FieldType.PASSWORD)){
-                    byte[] password = (byte[])provider.getContext().getConfigurationValue(f);
-                    if( password != null ) {
-                        keyPassword = new String(password, "utf-8").toCharArray();
-                    }
-                }
-            }
-
-            KeyPair keyPair = getKeyPair(privateKey, keyPassword);
-            if( keyPair == null ) {
-                throw new InternalException("Unable to generate a key-pair from key data.");
-            }
             signature.initSign(keyPair.getPrivate());
             String signingString = String.format(AUTH_SIGN, now);
             signature.update(signingString.getBytes("UTF-8"));
@@ -102,8 +89,53 @@ public class SignatureHttpAuth implements JoyentHttpAuth {
             throw new InternalException(e);
         } catch (InvalidKeyException e) {
             throw new InternalException(e);
-        } catch (IOException e) {
-            throw new InternalException(e);
+        }
+    }
+
+    /**
+     * Parses the private key from the context configuration on first use; the parsed key pair is reused for
+     * every request signed afterwards.
+     * @return the key pair used to sign requests
+     * @throws InternalException the key could not be read or parsed
+     */
+    public @Nonnull KeyPair loadKeyPair() throws InternalException {
+        KeyPair kp = keyPair;
+
+        if( kp != null ) {
+            return kp;
+        }
+        synchronized( this ) {
+            if( keyPair != null ) {
+                return keyPair;
+            }
+            try {
+                List<ContextRequirements.Field> fields = provider.getContextRequirements().getConfigurableValues();
+                String name = "";
+                String privateKey = "";
+                char[] keyPassword = null;
+                for(ContextRequirements.Field f : fields ) {
+                    if(f.type.equals(ContextRequirements.FieldType.KEYPAIR)){
+                        byte[][] pair = (byte[][])provider.getContext().getConfigurationValue(f);
+                        name = new String(pair[0], "utf-8");
+                        privateKey = new String(pair[1], "utf-8");
+                    }
+                    else if(f.type.equals(ContextRequirements.FieldType.PASSWORD)){
+                        byte[] password = (byte[])provider.getContext().getConfigurationValue(f);
+                        if( password != null ) {
+                            keyPassword = new String(password, "utf-8").toCharArray();
+                        }
+                    }
+                }
+                kp = getKeyPair(privateKey, keyPassword);
+                if( kp == null ) {
+                    throw new InternalException("Unable to generate a key-pair from key data.");
+                }
+                keyName = name;
+                keyPair = kp;
+                return kp;
+            } catch (IOException e) {
+                throw new InternalException(e);
+            }
         }
     }
 
@@ -0,0 +1,127 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+package org.dasein.cloud.joyent;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Compares the SimpleDateFormat based timestamp parsing SmartDataCenter used to do against {@link Iso8601}, over a
+ * generated set of timestamps mixing whole seconds, millisecond and other fractions, {@code Z} and positive
+ * {@code hh:mm} offsets. Negative offsets are left out because the old parsing rejected them. Not a unit test; run it
+ * with {@code java -cp <test classpath> org.dasein.cloud.joyent.Iso8601Benchmark [operations [timestamps]]}.
+ */
+public class Iso8601Benchmark {
+    static private final String[] OFFSETS = { "+00:00", "+01:00", "+02:00", "+05:30", "+09:00", "+10:00" };
+
+    public static void main(String... args) throws Exception {
+        int operations = ( args.length > 0 ? Integer.parseInt(args[0]) : 1000000 );
+        final String[] timestamps = generate(args.length > 1 ? Integer.parseInt(args[1]) : 100000, new Random(20150601L));
+
+        MicroBenchmark.compare(operations,
+                new MicroBenchmark("SimpleDateFormat (old)") {
+                    protected long run(int operations) throws ParseException {
+                        long sum = 0;
+
+                        for( int i = 0; i < operations; i++ ) {
+                            sum += parseOld(timestamps[i % timestamps.length]);
+                        }
+                        return sum;
+                    }
+                },
+                new MicroBenchmark("Iso8601") {
+                    protected long run(int operations) throws ParseException {
+                        long sum = 0;
+
+                        for( int i = 0; i < operations; i++ ) {
+                            sum += Iso8601.parse(timestamps[i % timestamps.length]);
+                        }
+                        return sum;
+                    }
+                });
+    }
+
+    /**
+     * Builds timestamps between 2010 and 2016, weighted towards the {@code .SSSZ} form CloudAPI and Manta send.
+     */
+    static private String[] generate(int count, Random random) {
+        SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+        long start = 1262304000000L;
+        long span = 6L * 365 * 24 * 60 * 60 * 1000;
+        String[] timestamps = new String[count];
+
+        for( int i = 0; i < count; i++ ) {
+            Date when = new Date(start + ( long )( random.nextDouble() * span ));
+            int form = random.nextInt(100);
+            String offset = "Z";
+
+            if( form >= 80 ) {
+                offset = OFFSETS[random.nextInt(OFFSETS.length)];
+                fmt.setTimeZone(TimeZone.getTimeZone("GMT" + offset));
+            }
+            else {
+                fmt.setTimeZone(TimeZone.getTimeZone("GMT"));
+            }
+            StringBuilder str = new StringBuilder(fmt.format(when));
+
+            if( form < 40 ) {
+                str.append(String.format(".%03d", random.nextInt(1000)));
+            }
+            else if( form < 50 ) {
+                str.append('.').append(random.nextInt(100));
+            }
+            else if( form < 55 ) {
+                str.append(String.format(".%06d", random.nextInt(1000000)));
+            }
+            else if( form >= 90 ) {
+                str.append(String.format(".%03d", random.nextInt(1000)));
+            }
+            timestamps[i] = str.append(offset).toString();
+        }
+        return timestamps;
+    }
+
+    /**
+     * The parsing SmartDataCenter.parseTimestamp() did before Iso8601, failing the same way on bad input.
+     */
+    static private long parseOld(String time) throws ParseException {
+        int idx = time.lastIndexOf('+');
+
+        if( idx < 0 ) {
+            idx = time.lastIndexOf('Z');
+            if( idx < 0 ) {
+                throw new ParseException(time, 0);
+            }
+        }
+        time = time.substring(0, idx);
+        SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+
+        fmt.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            return fmt.parse(time).getTime();
+        }
+        catch( ParseException e ) {
+            fmt = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS");
+            return fmt.parse(time).getTime();
+        }
+    }
+}
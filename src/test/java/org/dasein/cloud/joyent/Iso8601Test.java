@@ -0,0 +1,79 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.joyent;
+
+import org.junit.Test;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the CloudAPI/Manta timestamp parser.
+ */
+public class Iso8601Test {
+
+    private static long reference(String value, String pattern) throws ParseException {
+        SimpleDateFormat fmt = new SimpleDateFormat(pattern);
+
+        fmt.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return fmt.parse(value).getTime();
+    }
+
+    @Test
+    public void matchesSimpleDateFormat() throws ParseException {
+        assertEquals(reference("2013-02-15T18:06:28", "yyyy-MM-dd'T'HH:mm:ss"), Iso8601.parse("2013-02-15T18:06:28Z"));
+        assertEquals(reference("2015-06-01T12:30:45.123", "yyyy-MM-dd'T'HH:mm:ss.SSS"), Iso8601.parse("2015-06-01T12:30:45.123Z"));
+        assertEquals(reference("2000-02-29T23:59:59", "yyyy-MM-dd'T'HH:mm:ss"), Iso8601.parse("2000-02-29T23:59:59Z"));
+        assertEquals(reference("1969-12-31T00:00:00", "yyyy-MM-dd'T'HH:mm:ss"), Iso8601.parse("1969-12-31T00:00:00Z"));
+        assertEquals(0L, Iso8601.parse("1970-01-01T00:00:00.000Z"));
+    }
+
+    @Test
+    public void fractionsAndOffsets() throws ParseException {
+        long base = Iso8601.parse("2015-06-01T12:30:45Z");
+
+        assertEquals(base + 500, Iso8601.parse("2015-06-01T12:30:45.5Z"));
+        assertEquals(base + 123, Iso8601.parse("2015-06-01T12:30:45.123456789Z"));
+        assertEquals(base, Iso8601.parse("2015-06-01T14:30:45+02:00"));
+        assertEquals(base, Iso8601.parse("2015-06-01T07:00:45-0530"));
+        assertEquals(base, Iso8601.parse("2015-06-01T13:30:45+01"));
+        assertEquals(base + 3600000L, Iso8601.parse("2015-06-01T12:30:45-01:00"));
+        assertEquals(base, Iso8601.parse("2015-06-01T12:30:45"));
+    }
+
+    @Test
+    public void rejectsMalformed() {
+        String[] bad = { "", "2015-06-01", "2015-13-01T00:00:00Z", "2015-02-29T00:00:00Z", "2015-06-01T24:00:00Z",
+                "2015-06-01T12:30:45.Z", "2015-06-01T12:30:45Zjunk", "2015/06/01T12:30:45Z", "2015-06-01T12:30:45+2" };
+
+        for( String value : bad ) {
+            try {
+                Iso8601.parse(value);
+                fail("Expected a parse failure for " + value);
+            }
+            catch( ParseException expected ) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+package org.dasein.cloud.joyent;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * A case of a hand-run benchmark comparing an old code path with its replacement. Each case is warmed up, then timed
+ * on the calling thread, and the time, the bytes allocated and the garbage collections per operation are printed.
+ * Benchmarks extending this are not unit tests; they have a {@code main()} and are run by hand from the test
+ * classpath.
+ */
+public abstract class MicroBenchmark {
+    static private final int WARM_UP_ROUNDS = 3;
+
+    static private volatile long sink;
+
+    private final String name;
+
+    protected MicroBenchmark(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Runs the measured code.
+     * @param operations how many times to run it
+     * @return a value derived from the results, so the work cannot be optimized away
+     */
+    protected abstract long run(int operations) throws Exception;
+
+    /**
+     * Warms up and measures every case, printing one line for each.
+     * @param operations the number of operations measured per case
+     * @param cases the cases to compare
+     */
+    public static void compare(int operations, MicroBenchmark ... cases) throws Exception {
+        for( int i = 0; i < WARM_UP_ROUNDS; i++ ) {
+            for( MicroBenchmark c : cases ) {
+                sink += c.run(operations);
+            }
+        }
+        System.out.println(String.format("%-40s %12s %12s %8s", "case", "ns/op", "bytes/op", "GCs"));
+        for( MicroBenchmark c : cases ) {
+            long gcs = gcCount();
+            long allocated = allocatedBytes();
+            long start = System.nanoTime();
+
+            sink += c.run(operations);
+            long elapsed = System.nanoTime() - start;
+            long bytes = allocatedBytes() - allocated;
+
+            System.out.println(String.format("%-40s %12.1f %12s %8d", c.name, elapsed / ( double ) operations,
+                    allocated < 0 ? "n/a" : String.format("%.1f", bytes / ( double ) operations), gcCount() - gcs));
+        }
+    }
+
+    /**
+     * @return the bytes allocated so far by the current thread, or -1 if the JVM does not tell
+     */
+    static private long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+        if( bean instanceof com.sun.management.ThreadMXBean ) {
+            com.sun.management.ThreadMXBean hotspot = ( com.sun.management.ThreadMXBean ) bean;
+
+            if( hotspot.isThreadAllocatedMemorySupported() && hotspot.isThreadAllocatedMemoryEnabled() ) {
+                return hotspot.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1L;
+    }
+
+    static private long gcCount() {
+        long total = 0;
+
+        for( GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans() ) {
+            total += Math.max(0, bean.getCollectionCount());
+        }
+        return total;
+    }
+}
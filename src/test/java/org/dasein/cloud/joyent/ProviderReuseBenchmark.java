@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+package org.dasein.cloud.joyent;
+
+import org.dasein.cloud.joyent.compute.JoyentComputeServices;
+import org.dasein.cloud.test.DaseinTestManager;
+import org.dasein.security.joyent.DefaultClientFactory;
+import org.dasein.security.joyent.SignatureHttpAuth;
+
+/**
+ * Compares building the service objects and the CloudAPI method helper on every call, as every call site used to,
+ * with taking the instances the provider keeps. Nothing is sent to the cloud, but the provider is built from the
+ * same system properties as the integration tests. Not a unit test; run it with
+ * {@code java -cp <test classpath> org.dasein.cloud.joyent.ProviderReuseBenchmark [operations]}.
+ */
+public class ProviderReuseBenchmark {
+    public static void main(String... args) throws Exception {
+        int operations = ( args.length > 0 ? Integer.parseInt(args[0]) : 100000 );
+        final SmartDataCenter provider = ( SmartDataCenter ) DaseinTestManager.constructProvider();
+
+        try {
+            MicroBenchmark.compare(operations,
+                    new MicroBenchmark("built per call (old)") {
+                        protected long run(int operations) {
+                            long hash = 0;
+
+                            for( int i = 0; i < operations; i++ ) {
+                                hash += System.identityHashCode(new JoyentComputeServices(provider).getVirtualMachineSupport());
+                                hash += System.identityHashCode(new DefaultClientFactory(provider.getContext()));
+                                hash += System.identityHashCode(new SignatureHttpAuth(provider));
+                                hash += System.identityHashCode(new JoyentMethod(provider));
+                            }
+                            return hash;
+                        }
+                    },
+                    new MicroBenchmark("kept by the provider") {
+                        protected long run(int operations) {
+                            long hash = 0;
+
+                            for( int i = 0; i < operations; i++ ) {
+                                hash += System.identityHashCode(provider.getComputeServices().getVirtualMachineSupport());
+                                hash += System.identityHashCode(provider.getMethod());
+                            }
+                            return hash;
+                        }
+                    });
+        }
+        finally {
+            provider.close();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+package org.dasein.cloud.joyent.compute;
+
+import org.dasein.cloud.compute.Architecture;
+import org.dasein.cloud.compute.ImageClass;
+import org.dasein.cloud.compute.ImageFilterOptions;
+import org.dasein.cloud.compute.MachineImage;
+import org.dasein.cloud.compute.MachineImageState;
+import org.dasein.cloud.compute.Platform;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the indexes the image catalog narrows filtered listings with.
+ */
+public class ImageCatalogTest {
+    private ImageCatalog.Index index;
+
+    @Before
+    public void setUp() {
+        index = new ImageCatalog.Index();
+        index.add(image("img-1", "alice", "base64", Platform.SMARTOS));
+        index.add(image("img-2", "alice", "ubuntu-14.04", Platform.UBUNTU));
+        index.add(image("img-3", "bob", "centos-7", Platform.CENT_OS));
+        index.add(image("img-4", "bob", "ubuntu-certified", Platform.UBUNTU));
+    }
+
+    @Test
+    public void noFilterReturnsAll() {
+        assertEquals(4, index.candidates(null).size());
+        assertEquals(4, index.candidates(ImageFilterOptions.getInstance()).size());
+    }
+
+    @Test
+    public void allCriteriaNarrowThroughIndexes() {
+        ImageFilterOptions options = ImageFilterOptions.getInstance().onPlatform(Platform.UBUNTU).withAccountNumber("bob");
+
+        assertEquals(ids("img-4"), matching(options));
+        assertTrue(index.candidates(options).size() <= 2);
+    }
+
+    @Test
+    public void missingIndexKeyMatchesNothing() {
+        assertTrue(index.candidates(ImageFilterOptions.getInstance().withAccountNumber("carol")).isEmpty());
+    }
+
+    @Test
+    public void anyCriterionKeepsEveryMatch() {
+        ImageFilterOptions options = ImageFilterOptions.getInstance(true, "centos.*").onPlatform(Platform.SMARTOS).withAccountNumber("carol");
+
+        assertEquals(4, index.candidates(options).size());
+        assertEquals(ids("img-1", "img-3"), matching(options));
+    }
+
+    private List<String> matching(ImageFilterOptions options) {
+        List<String> ids = new ArrayList<String>();
+
+        for( MachineImage image : index.candidates(options) ) {
+            if( options.matches(image) ) {
+                ids.add(image.getProviderMachineImageId());
+            }
+        }
+        return ids;
+    }
+
+    static private List<String> ids(String ... ids) {
+        List<String> list = new ArrayList<String>();
+
+        for( String id : ids ) {
+            list.add(id);
+        }
+        return list;
+    }
+
+    static private MachineImage image(String id, String owner, String name, Platform platform) {
+        return MachineImage.getInstance(owner, "us-east-1", id, ImageClass.MACHINE, MachineImageState.ACTIVE, name, name, Architecture.I64, platform);
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+package org.dasein.cloud.joyent.compute;
+
+import org.dasein.cloud.compute.Architecture;
+import org.dasein.cloud.compute.Platform;
+import org.dasein.cloud.joyent.MicroBenchmark;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * Compares classifying every image version from scratch, as Dataset.toMachineImage() used to, against
+ * {@link ImageClassifier}, walking the images of a {@code GET /my/images?public=true} listing in order. By default
+ * the listing is the {@code data/images-public.json} test resource; pass the path of a captured response to run
+ * against that instead. Not a unit test; run it with
+ * {@code java -cp <test classpath> org.dasein.cloud.joyent.compute.ImageClassifierBenchmark [operations [listing]]}.
+ */
+public class ImageClassifierBenchmark {
+    public static void main(String... args) throws Exception {
+        int operations = ( args.length > 0 ? Integer.parseInt(args[0]) : 1000000 );
+        InputStream input = ( args.length > 1 ? new FileInputStream(args[1]) : ImageClassifierBenchmark.class.getResourceAsStream("/data/images-public.json") );
+        final String[][] images;
+
+        try {
+            JSONArray list = new JSONArray(new JSONTokener(new InputStreamReader(input, "utf-8")));
+
+            images = new String[list.length()][];
+            for( int i = 0; i < list.length(); i++ ) {
+                JSONObject json = list.getJSONObject(i);
+
+                images[i] = new String[] { json.getString("name"), json.getString("os") };
+            }
+        }
+        finally {
+            input.close();
+        }
+        System.out.println(images.length + " images");
+        MicroBenchmark.compare(operations,
+                new MicroBenchmark("guess per image (old)") {
+                    protected long run(int operations) {
+                        long count = 0;
+
+                        for( int i = 0; i < operations; i++ ) {
+                            String[] image = images[i % images.length];
+                            String os = image[0] + " " + image[1];
+
+                            if( Platform.guess(os) != null && guessArch(os) == Architecture.I32 ) {
+                                count++;
+                            }
+                        }
+                        return count;
+                    }
+                },
+                new MicroBenchmark("ImageClassifier") {
+                    protected long run(int operations) {
+                        long count = 0;
+
+                        for( int i = 0; i < operations; i++ ) {
+                            String[] image = images[i % images.length];
+                            ImageClassifier c = ImageClassifier.classify(image[0], image[1]);
+
+                            if( c.getPlatform() != null && c.getArchitecture() == Architecture.I32 ) {
+                                count++;
+                            }
+                        }
+                        return count;
+                    }
+                });
+    }
+
+    /**
+     * The architecture guess Dataset made before the classifier.
+     */
+    static private Architecture guessArch(String testString) {
+        String[] needles = { "32", "386" };
+
+        for( String needle : needles ) {
+            try {
+                if( !surroundedByDigits(testString, needle) ) {
+                    return Architecture.I32;
+                }
+            }
+            catch( Exception ignore ) {
+                // needle not found
+            }
+        }
+        return Architecture.I64;
+    }
+
+    static private boolean surroundedByDigits(String hay, String needle) throws Exception {
+        hay = " " + hay + " ";
+        int index = hay.indexOf(needle);
+
+        if( index > 0 ) {
+            return Character.isDigit(hay.charAt(index - 1)) && Character.isDigit(hay.charAt(index + needle.length()));
+        }
+        throw new Exception();
+    }
+}
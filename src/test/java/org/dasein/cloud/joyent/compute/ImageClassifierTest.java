@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+package org.dasein.cloud.joyent.compute;
+
+import org.dasein.cloud.compute.Architecture;
+import org.dasein.cloud.compute.Platform;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests pinning image classification to what Dataset.toMachineImage() computed before the classifier.
+ */
+public class ImageClassifierTest {
+    static private final String[][] IMAGES = {
+            { "centos-6-i386", "linux" }, { "base64", "smartos" }, { "base", "smartos" }, { "win-320", "windows" },
+            { "ws2012-32", "windows" }, { "ruby-1.9.32", "smartos" }, { "node-386x", "smartos" },
+            { "32-bit-ubuntu", "linux" }, { "debian-7", "linux" }, { "ubuntu-certified-14.04", "linux" },
+            { "1386", "other" }, { "fedora-3", "2" }
+    };
+
+    @Test
+    public void matchesPreviousClassification() {
+        for( String[] image : IMAGES ) {
+            ImageClassifier c = ImageClassifier.classify(image[0], image[1]);
+            String description = image[0] + " " + image[1];
+
+            assertEquals(description, oldGuessArch(description), c.getArchitecture());
+            assertEquals(description, Platform.guess(description), c.getPlatform());
+        }
+    }
+
+    @Test
+    public void knownArchitectures() {
+        assertEquals(Architecture.I32, ImageClassifier.classify("centos-6-i386", "linux").getArchitecture());
+        assertEquals(Architecture.I64, ImageClassifier.classify("base64", "smartos").getArchitecture());
+        assertEquals(Architecture.I64, ImageClassifier.classify("ruby-1.9.1320", "smartos").getArchitecture());
+        assertEquals(Architecture.I32, ImageClassifier.classify("win-320", "windows").getArchitecture());
+    }
+
+    @Test
+    public void repeatedImageSharesClassification() {
+        assertSame(ImageClassifier.classify("base64", "smartos"), ImageClassifier.classify("base64", "smartos"));
+    }
+
+    /**
+     * The architecture guess Dataset made before the classifier, kept as the reference.
+     */
+    static private Architecture oldGuessArch(String testString) {
+        String[] needles = { "32", "386" };
+
+        for( String needle : needles ) {
+            try {
+                if( !surroundedByDigits(testString, needle) ) {
+                    return Architecture.I32;
+                }
+            }
+            catch( Exception ignore ) {
+                // needle not found
+            }
+        }
+        return Architecture.I64;
+    }
+
+    static private boolean surroundedByDigits(String hay, String needle) throws Exception {
+        hay = " " + hay + " ";
+        int index = hay.indexOf(needle);
+
+        if( index > 0 ) {
+            return Character.isDigit(hay.charAt(index - 1)) && Character.isDigit(hay.charAt(index + needle.length()));
+        }
+        throw new Exception();
+    }
+}
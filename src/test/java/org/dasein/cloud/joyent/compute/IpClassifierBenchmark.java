@@ -0,0 +1,134 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+package org.dasein.cloud.joyent.compute;
+
+import org.dasein.cloud.joyent.MicroBenchmark;
+
+import java.util.Random;
+
+/**
+ * Compares the address classification machines used to do, with startsWith, split and parseInt, against
+ * {@link IpClassifier}, over a generated set of machine addresses: mostly public and 10/8 IPv4 pairs as CloudAPI
+ * reports them, with some 192.168/16, 172/12 and neighbouring 172 space, and global, link-local and unique local
+ * IPv6. Not a unit test; run it with
+ * {@code java -cp <test classpath> org.dasein.cloud.joyent.compute.IpClassifierBenchmark [operations [addresses]]}.
+ */
+public class IpClassifierBenchmark {
+    public static void main(String... args) throws Exception {
+        int operations = ( args.length > 0 ? Integer.parseInt(args[0]) : 10000000 );
+        final String[] addresses = generate(args.length > 1 ? Integer.parseInt(args[1]) : 10000, new Random(20150601L));
+
+        MicroBenchmark.compare(operations,
+                new MicroBenchmark("split and parseInt (old)") {
+                    protected long run(int operations) {
+                        long count = 0;
+
+                        for( int i = 0; i < operations; i++ ) {
+                            if( isPublicOld(addresses[i % addresses.length]) ) {
+                                count++;
+                            }
+                        }
+                        return count;
+                    }
+                },
+                new MicroBenchmark("IpClassifier") {
+                    protected long run(int operations) {
+                        long count = 0;
+
+                        for( int i = 0; i < operations; i++ ) {
+                            if( !IpClassifier.isPrivate(addresses[i % addresses.length]) ) {
+                                count++;
+                            }
+                        }
+                        return count;
+                    }
+                });
+    }
+
+    static private String[] generate(int count, Random random) {
+        String[] addresses = new String[count];
+
+        for( int i = 0; i < count; i++ ) {
+            int kind = random.nextInt(100);
+            String address;
+
+            if( kind < 40 ) {
+                int[] prefixes = { 165, 72, 8, 64 };
+
+                address = prefixes[random.nextInt(prefixes.length)] + "." + random.nextInt(256) + "." + random.nextInt(256) + "." + ( 1 + random.nextInt(254) );
+            }
+            else if( kind < 75 ) {
+                address = "10." + random.nextInt(256) + "." + random.nextInt(256) + "." + ( 1 + random.nextInt(254) );
+            }
+            else if( kind < 83 ) {
+                address = "192.168." + random.nextInt(256) + "." + ( 1 + random.nextInt(254) );
+            }
+            else if( kind < 90 ) {
+                address = "172." + ( 16 + random.nextInt(16) ) + "." + random.nextInt(256) + "." + ( 1 + random.nextInt(254) );
+            }
+            else if( kind < 92 ) {
+                address = "172." + ( 32 + random.nextInt(200) ) + "." + random.nextInt(256) + "." + ( 1 + random.nextInt(254) );
+            }
+            else if( kind < 97 ) {
+                address = String.format("2607:f0d0:%x:%x::%x", random.nextInt(0x10000), random.nextInt(0x10000), 1 + random.nextInt(0xffff));
+            }
+            else if( kind < 99 ) {
+                address = String.format("fe80::%x:%xff:fe%x:%x", random.nextInt(0x10000), random.nextInt(0x100), random.nextInt(0x100), random.nextInt(0x10000));
+            }
+            else {
+                address = String.format("fd%02x:%x::%x", random.nextInt(0x100), random.nextInt(0x10000), 1 + random.nextInt(0xffff));
+            }
+            addresses[i] = address;
+        }
+        return addresses;
+    }
+
+    /**
+     * The check Machine.toVirtualMachine() made before IpClassifier.
+     */
+    static private boolean isPublicOld(String addr) {
+        boolean pub = false;
+
+        if( !addr.startsWith("10.") && !addr.startsWith("192.168.") ) {
+            if( addr.startsWith("172.") ) {
+                String[] nums = addr.split("\\.");
+
+                if( nums.length != 4 ) {
+                    pub = true;
+                }
+                else {
+                    try {
+                        int x = Integer.parseInt(nums[1]);
+
+                        if( x < 16 || x > 31 ) {
+                            pub = true;
+                        }
+                    }
+                    catch( NumberFormatException ignore ) {
+                        // ignore
+                    }
+                }
+            }
+            else {
+                pub = true;
+            }
+        }
+        return pub;
+    }
+}
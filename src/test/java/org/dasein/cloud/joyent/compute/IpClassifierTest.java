@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.joyent.compute;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the address classification used when converting machines.
+ */
+public class IpClassifierTest {
+
+    @Test
+    public void privateIpv4Ranges() {
+        assertTrue(IpClassifier.isPrivate("10.0.0.1"));
+        assertTrue(IpClassifier.isPrivate("172.16.0.1"));
+        assertTrue(IpClassifier.isPrivate("172.31.255.254"));
+        assertTrue(IpClassifier.isPrivate("192.168.1.20"));
+        assertTrue(IpClassifier.isPrivate("100.64.0.1"));
+        assertTrue(IpClassifier.isPrivate("100.127.255.255"));
+        assertTrue(IpClassifier.isPrivate("127.0.0.1"));
+        assertTrue(IpClassifier.isPrivate("169.254.169.254"));
+    }
+
+    @Test
+    public void publicIpv4() {
+        assertFalse(IpClassifier.isPrivate("8.8.8.8"));
+        assertFalse(IpClassifier.isPrivate("172.15.0.1"));
+        assertFalse(IpClassifier.isPrivate("172.32.0.1"));
+        assertFalse(IpClassifier.isPrivate("192.169.0.1"));
+        assertFalse(IpClassifier.isPrivate("100.63.255.255"));
+        assertFalse(IpClassifier.isPrivate("100.128.0.1"));
+        assertFalse(IpClassifier.isPrivate("165.225.128.10"));
+    }
+
+    @Test
+    public void ipv6() {
+        assertTrue(IpClassifier.isPrivate("::1"));
+        assertTrue(IpClassifier.isPrivate("0:0:0:0:0:0:0:1"));
+        assertTrue(IpClassifier.isPrivate("fd12:3456:789a::1"));
+        assertTrue(IpClassifier.isPrivate("FC00::1"));
+        assertTrue(IpClassifier.isPrivate("fe80::1%net0"));
+        assertTrue(IpClassifier.isPrivate("::ffff:10.1.2.3"));
+        assertFalse(IpClassifier.isPrivate("2001:db8::1"));
+        assertFalse(IpClassifier.isPrivate("fec0::1"));
+        assertFalse(IpClassifier.isPrivate("::ffff:8.8.8.8"));
+        assertFalse(IpClassifier.isPrivate("::"));
+    }
+
+    @Test
+    public void malformedIsPublic() {
+        assertFalse(IpClassifier.isPrivate(""));
+        assertFalse(IpClassifier.isPrivate("10.0.0"));
+        assertFalse(IpClassifier.isPrivate("10.0.0.256"));
+        assertFalse(IpClassifier.isPrivate("10..0.1"));
+        assertFalse(IpClassifier.isPrivate("host.example.com"));
+    }
+}
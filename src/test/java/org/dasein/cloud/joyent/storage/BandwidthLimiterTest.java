@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.joyent.storage;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the token bucket throttling Manta streams.
+ */
+public class BandwidthLimiterTest {
+    static private final int SIZE = 100 * 1024;
+
+    @Test
+    public void unlimitedDoesNotWait() throws Exception {
+        BandwidthLimiter limiter = new BandwidthLimiter(0L, null);
+
+        assertTrue(timeWrite(limiter) < 200L);
+    }
+
+    @Test
+    public void limitsWrites() throws Exception {
+        // 100 KB at 200 KB/s from an empty bucket takes half a second
+        BandwidthLimiter limiter = new BandwidthLimiter(200L * 1024L, null);
+
+        assertTrue(timeWrite(limiter) >= 400L);
+    }
+
+    @Test
+    public void limitsReadsThroughParent() throws Exception {
+        BandwidthLimiter parent = new BandwidthLimiter(200L * 1024L, null);
+        BandwidthLimiter child = new BandwidthLimiter(0L, parent);
+        InputStream in = child.wrap(new ByteArrayInputStream(new byte[SIZE]));
+        byte[] buffer = new byte[8192];
+        long start = System.currentTimeMillis();
+        int total = 0;
+        int n;
+
+        while( (n = in.read(buffer)) >= 0 ) {
+            total += n;
+        }
+        assertEquals(SIZE, total);
+        assertTrue(System.currentTimeMillis() - start >= 400L);
+    }
+
+    @Test
+    public void unlimitedReadsAreNotCutIntoChunks() throws Exception {
+        BandwidthLimiter parent = new BandwidthLimiter(0L, null);
+        BandwidthLimiter child = new BandwidthLimiter(0L, parent);
+        InputStream in = child.wrap(new ByteArrayInputStream(new byte[SIZE]));
+
+        assertFalse(child.isLimited());
+        assertEquals(SIZE, in.read(new byte[SIZE], 0, SIZE));
+    }
+
+    @Test
+    public void parentLimitCutsReadsIntoChunks() throws Exception {
+        BandwidthLimiter parent = new BandwidthLimiter(1024L * 1024L, null);
+        BandwidthLimiter child = new BandwidthLimiter(0L, parent);
+        InputStream in = child.wrap(new ByteArrayInputStream(new byte[SIZE]));
+
+        assertTrue(child.isLimited());
+        assertEquals(BandwidthLimiter.CHUNK_SIZE, in.read(new byte[SIZE], 0, SIZE));
+    }
+
+    @Test
+    public void limitCanBeLifted() throws Exception {
+        BandwidthLimiter limiter = new BandwidthLimiter(1024L, null);
+
+        limiter.setBytesPerSecond(0L);
+        assertEquals(0L, limiter.getBytesPerSecond());
+        assertTrue(timeWrite(limiter) < 200L);
+    }
+
+    private long timeWrite(BandwidthLimiter limiter) throws Exception {
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        OutputStream out = limiter.wrap(target);
+        long start = System.currentTimeMillis();
+
+        out.write(new byte[SIZE]);
+        out.flush();
+        assertEquals(SIZE, target.size());
+        return System.currentTimeMillis() - start;
+    }
+}
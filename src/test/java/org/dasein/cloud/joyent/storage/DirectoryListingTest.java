@@ -0,0 +1,169 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+package org.dasein.cloud.joyent.storage;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.storage.Blob;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for reading Manta directory listings page by page.
+ */
+public class DirectoryListingTest {
+    static private final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(@Nonnull Runnable command) {
+            command.run();
+        }
+    };
+
+    @Test
+    public void readsEntriesOfAPage() throws Exception {
+        DirectoryListing.Page page = read(null, 3,
+                "{\"name\":\"a.txt\",\"type\":\"object\",\"size\":42,\"mtime\":\"2015-06-01T12:00:00.000Z\"}",
+                "",
+                "{\"name\":\"logs\",\"type\":\"directory\",\"mtime\":\"2015-06-01T12:00:00Z\"}");
+
+        assertEquals(2, page.blobs.size());
+        assertEquals("bucket", page.blobs.get(0).getBucketName());
+        assertEquals("a.txt", page.blobs.get(0).getObjectName());
+        assertTrue(page.blobs.get(1).isContainer());
+        assertEquals("bucket/logs", page.blobs.get(1).getBucketName());
+        assertEquals("logs", page.lastName);
+        assertTrue(page.last);
+    }
+
+    @Test
+    public void fullPageIsNotLast() throws Exception {
+        DirectoryListing.Page page = read(null, 2, entry("a"), entry("b"));
+
+        assertEquals(Arrays.asList("a", "b"), names(page.blobs));
+        assertFalse(page.last);
+    }
+
+    @Test
+    public void markerRepeatedAtTopIsSkipped() throws Exception {
+        DirectoryListing.Page page = read("b", 2, entry("b"), entry("c"));
+
+        assertEquals(Arrays.asList("c"), names(page.blobs));
+        assertEquals("c", page.lastName);
+        // the marker counts towards the limit, so a full page may still be followed by more
+        assertFalse(page.last);
+    }
+
+    @Test
+    public void pageOfOnlyTheMarkerKeepsIt() throws Exception {
+        DirectoryListing.Page page = read("b", 2, entry("b"));
+
+        assertTrue(page.blobs.isEmpty());
+        assertEquals("b", page.lastName);
+        assertTrue(page.last);
+    }
+
+    @Test
+    public void invalidEntryFails() throws Exception {
+        try {
+            read(null, 2, "{\"type\":\"object\"}");
+            fail("An entry without a name should be rejected");
+        }
+        catch( CloudException expected ) {
+            // rejected
+        }
+    }
+
+    @Test
+    public void iteratesAcrossPagesAndSkipsEmptyOnes() throws Exception {
+        final List<String> markers = new ArrayList<String>();
+        DirectoryListing listing = new DirectoryListing(new DirectoryListing.PageSource() {
+            @Override
+            public @Nonnull DirectoryListing.Page fetch(@Nonnull String path, @Nullable String marker) {
+                markers.add(marker);
+                if( markers.size() == 1 ) {
+                    return page(path, "b2", false);
+                }
+                return page(path, "d", true, "c", "d");
+            }
+        }, DIRECT, page("/a/stor/bucket", "b", false, "a", "b"));
+
+        assertEquals(Arrays.asList("a", "b", "c", "d"), names(listing));
+        assertEquals(Arrays.asList("b", "b2"), markers);
+    }
+
+    @Test
+    public void failedLaterPageIsReportedByIterator() throws Exception {
+        DirectoryListing listing = new DirectoryListing(new DirectoryListing.PageSource() {
+            @Override
+            public @Nonnull DirectoryListing.Page fetch(@Nonnull String path, @Nullable String marker) throws CloudException {
+                throw new CloudException("Listing failed");
+            }
+        }, DIRECT, page("/a/stor/bucket", "a", false, "a"));
+        Iterator<Blob> it = listing.iterator();
+
+        assertEquals("a", it.next().getObjectName());
+        try {
+            it.hasNext();
+            fail("The second page should have failed");
+        }
+        catch( IllegalStateException e ) {
+            assertTrue(e.getCause() instanceof CloudException);
+        }
+    }
+
+    static private @Nonnull DirectoryListing.Page read(@Nullable String marker, int limit, @Nonnull String ... lines) throws Exception {
+        StringBuilder json = new StringBuilder();
+
+        for( String line : lines ) {
+            json.append(line).append("\n");
+        }
+        return DirectoryListing.read("/a/stor/bucket", new ByteArrayInputStream(json.toString().getBytes("UTF-8")), "bucket", "region", marker, limit);
+    }
+
+    static private @Nonnull String entry(@Nonnull String name) {
+        return "{\"name\":\"" + name + "\",\"type\":\"object\",\"size\":1}";
+    }
+
+    static private @Nonnull DirectoryListing.Page page(@Nonnull String path, @Nonnull String lastName, boolean last, @Nonnull String ... names) {
+        List<Blob> blobs = new ArrayList<Blob>();
+
+        for( String name : names ) {
+            blobs.add(Blob.getInstance("region", "", "bucket", name, 0L, null));
+        }
+        return new DirectoryListing.Page(path, blobs, lastName, last);
+    }
+
+    static private @Nonnull List<String> names(@Nonnull Iterable<Blob> blobs) {
+        List<String> names = new ArrayList<String>();
+
+        for( Blob blob : blobs ) {
+            names.add(blob.getObjectName());
+        }
+        return names;
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.joyent.storage;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for block caching and read-ahead of the random access channel over Manta objects.
+ */
+public class MantaObjectChannelTest {
+    private byte[]             data;
+    private List<long[]>       ranges;
+    private MantaObjectChannel channel;
+
+    @Before
+    public void setUp() {
+        data = new byte[100 * 1000 + 37];
+        for( int i = 0; i < data.length; i++ ) {
+            data[i] = ( byte ) ( i * 7 );
+        }
+        ranges = new ArrayList<long[]>();
+        channel = new MantaObjectChannel(new MantaObjectChannel.RangeSource() {
+            @Override
+            public @Nonnull InputStream open(long offset, long length) {
+                ranges.add(new long[] { offset, length });
+                return new ByteArrayInputStream(data, ( int ) offset, ( int ) length);
+            }
+        }, data.length, 1000, 8);
+    }
+
+    @Test
+    public void footerThenColumnFetchesOnlyNeededBlocks() throws Exception {
+        ByteBuffer footer = ByteBuffer.allocate(8);
+
+        channel.position(data.length - 8);
+        assertEquals(8, channel.read(footer));
+        assertArrayEquals(Arrays.copyOfRange(data, data.length - 8, data.length), footer.array());
+
+        ByteBuffer column = ByteBuffer.allocate(500);
+
+        channel.position(42000);
+        assertEquals(500, channel.read(column));
+        assertArrayEquals(Arrays.copyOfRange(data, 42000, 42500), column.array());
+        assertEquals(2, channel.getRequestCount());
+        assertEquals(37, ranges.get(0)[1]);
+        assertEquals(1000, ranges.get(1)[1]);
+    }
+
+    @Test
+    public void sequentialReadsGrowReadAhead() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(1000);
+
+        for( int i = 0; i < 15; i++ ) {
+            buffer.clear();
+            assertEquals(1000, channel.read(buffer));
+            assertArrayEquals(Arrays.copyOfRange(data, i * 1000, ( i + 1 ) * 1000), buffer.array());
+        }
+        // 1 + 2 + 4 + 8 blocks
+        assertEquals(4, channel.getRequestCount());
+        assertEquals(8000, ranges.get(3)[1]);
+    }
+
+    @Test
+    public void cachedBlocksAreNotFetchedAgain() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(100);
+
+        channel.position(5000).read(buffer);
+        buffer.clear();
+        channel.position(5100).read(buffer);
+        buffer.clear();
+        channel.position(5000).read(buffer);
+        assertEquals(1, channel.getRequestCount());
+    }
+
+    @Test
+    public void endOfObject() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(100);
+
+        channel.position(data.length);
+        assertEquals(-1, channel.read(buffer));
+        channel.position(data.length - 10);
+        assertEquals(10, channel.read(buffer));
+        assertEquals(-1, channel.read(buffer));
+    }
+}
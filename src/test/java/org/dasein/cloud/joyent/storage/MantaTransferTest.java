@@ -0,0 +1,162 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.joyent.storage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for Manta transfers run on the shared transfer threads.
+ */
+public class MantaTransferTest {
+    private TransferExecutor executor;
+
+    @Before
+    public void setUp() {
+        executor = TransferExecutor.getInstance("test|" + System.nanoTime(), 1, 2);
+    }
+
+    @After
+    public void tearDown() {
+        TransferExecutor.shutdown();
+    }
+
+    @Test
+    public void completesAndNotifiesOnce() throws Exception {
+        final CountDownLatch notified = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        MantaTransfer transfer = new MantaTransfer("test");
+
+        transfer.addListener(new MantaTransfer.Listener() {
+            @Override
+            public void transferComplete(MantaTransfer t) {
+                calls.incrementAndGet();
+                notified.countDown();
+            }
+        });
+        executor.submit(transfer, new TransferExecutor.Task() {
+            @Override
+            public void run(MantaTransfer t) {
+                t.setBytesToTransfer(200L);
+                t.setBytesTransferred(50L);
+                assertEquals(25.0, t.getPercentTransferred(), 0.001);
+                t.setBytesTransferred(200L);
+            }
+        });
+        assertTrue(notified.await(5, TimeUnit.SECONDS));
+        transfer.complete(new Exception("late"));
+        assertTrue(transfer.isComplete());
+        assertNull(transfer.getTransferError());
+        assertEquals(100.0, transfer.getPercentTransferred(), 0.001);
+        assertTrue(transfer.getStartedAt() > 0L);
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void reportsTaskFailure() throws Exception {
+        final CountDownLatch notified = new CountDownLatch(1);
+        MantaTransfer transfer = new MantaTransfer("test");
+
+        transfer.addListener(new MantaTransfer.Listener() {
+            @Override
+            public void transferComplete(MantaTransfer t) {
+                notified.countDown();
+            }
+        });
+        executor.submit(transfer, new TransferExecutor.Task() {
+            @Override
+            public void run(MantaTransfer t) throws Exception {
+                throw new IllegalArgumentException("boom");
+            }
+        });
+        assertTrue(notified.await(5, TimeUnit.SECONDS));
+        assertTrue(transfer.getTransferError() instanceof IllegalArgumentException);
+        assertFalse(transfer.isCancelled());
+    }
+
+    @Test
+    public void cancelledTransferNeverStarts() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger runs = new AtomicInteger();
+        MantaTransfer blocker = new MantaTransfer("blocker");
+        MantaTransfer queued = new MantaTransfer("queued");
+
+        // the only transfer thread is kept busy so the second transfer waits in line
+        executor.submit(blocker, new TransferExecutor.Task() {
+            @Override
+            public void run(MantaTransfer t) throws Exception {
+                release.await();
+            }
+        });
+        executor.submit(queued, new TransferExecutor.Task() {
+            @Override
+            public void run(MantaTransfer t) {
+                runs.incrementAndGet();
+            }
+        });
+        assertTrue(queued.cancel());
+        assertFalse(queued.cancel());
+        release.countDown();
+        assertTrue(queued.isCancelled());
+        assertTrue(queued.getTransferError() instanceof CancellationException);
+        assertEquals(0L, queued.getStartedAt());
+
+        final CountDownLatch notified = new CountDownLatch(1);
+
+        queued.addListener(new MantaTransfer.Listener() {
+            @Override
+            public void transferComplete(MantaTransfer t) {
+                notified.countDown();
+            }
+        });
+        assertEquals(0, notified.getCount());
+        assertEquals(0, runs.get());
+    }
+
+    @Test
+    public void shutdownCancelsQueuedTransfers() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        MantaTransfer blocker = new MantaTransfer("blocker");
+        MantaTransfer queued = new MantaTransfer("queued");
+
+        executor.submit(blocker, new TransferExecutor.Task() {
+            @Override
+            public void run(MantaTransfer t) throws Exception {
+                release.await();
+            }
+        });
+        executor.submit(queued, new TransferExecutor.Task() {
+            @Override
+            public void run(MantaTransfer t) {
+            }
+        });
+        TransferExecutor.shutdown();
+        assertTrue(queued.isComplete());
+        assertTrue(queued.isCancelled());
+    }
+}
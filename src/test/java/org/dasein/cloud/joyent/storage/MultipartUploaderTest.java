@@ -0,0 +1,253 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+package org.dasein.cloud.joyent.storage;
+
+import org.apache.http.HttpEntity;
+import org.dasein.cloud.CloudException;
+import org.json.JSONArray;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for resuming and aborting multipart uploads against an in-memory upload API.
+ */
+public class MultipartUploaderTest {
+    static private final long   PART = MultipartUploader.MIN_PART_SIZE;
+    static private final String PATH = "/account/stor/object";
+    static private final String OLD  = "/account/uploads/old";
+
+    private ExecutorService workers;
+    private File            file;
+    private File            checkpointFile;
+    private FakeApi         api;
+
+    /**
+     * Records what an upload sends, storing part N with the ETag {@code etag-N}.
+     */
+    static private class FakeApi implements MultipartUploader.UploadApi {
+        final List<String>        created   = new ArrayList<String>();
+        final Map<Integer,Long>   parts     = Collections.synchronizedMap(new TreeMap<Integer,Long>());
+        final List<String>        aborted   = new ArrayList<String>();
+        String                    state     = "created";
+        String                    committedTo;
+        String                    committed;
+        CloudException            commitError;
+
+        @Override
+        public @Nonnull String create(@Nonnull String objectPath) {
+            assertEquals(PATH, objectPath);
+            created.add(objectPath);
+            return "/account/uploads/new";
+        }
+
+        @Override
+        public @Nullable String getState(@Nonnull String partsDirectory) {
+            return state;
+        }
+
+        @Override
+        public @Nonnull String putPart(@Nonnull String partsDirectory, int partNumber, @Nonnull HttpEntity entity) throws CloudException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+            try {
+                entity.writeTo(out);
+            }
+            catch( IOException e ) {
+                throw new CloudException(e);
+            }
+            parts.put(partNumber, ( long ) out.size());
+            return "etag-" + partNumber;
+        }
+
+        @Override
+        public void commit(@Nonnull String partsDirectory, @Nonnull JSONArray etags) throws CloudException {
+            if( commitError != null ) {
+                throw commitError;
+            }
+            committedTo = partsDirectory;
+            committed = etags.toString();
+        }
+
+        @Override
+        public void abort(@Nonnull String partsDirectory) {
+            aborted.add(partsDirectory);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        workers = Executors.newFixedThreadPool(2);
+        file = File.createTempFile("upload", ".bin");
+        checkpointFile = new File(file.getPath() + ".manta-upload");
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+        try {
+            raf.setLength(2 * PART + 1000);
+        }
+        finally {
+            raf.close();
+        }
+        api = new FakeApi();
+    }
+
+    @After
+    public void tearDown() {
+        workers.shutdownNow();
+        file.delete();
+        checkpointFile.delete();
+    }
+
+    @Test
+    public void uploadsEveryPartAndCommits() throws Exception {
+        upload();
+
+        assertEquals(1, api.created.size());
+        assertSent(0, 1, 2);
+        assertEquals(1000L, ( long ) api.parts.get(2));
+        assertEquals("/account/uploads/new", api.committedTo);
+        assertEquals("[\"etag-0\",\"etag-1\",\"etag-2\"]", api.committed);
+        assertFalse(checkpointFile.exists());
+    }
+
+    @Test
+    public void resumeSendsOnlyMissingParts() throws Exception {
+        TransferCheckpoint checkpoint = validCheckpoint();
+
+        checkpoint.put("part.0", "etag-old-0");
+        checkpoint.save();
+        upload();
+
+        assertTrue(api.created.isEmpty());
+        assertSent(1, 2);
+        assertEquals(OLD, api.committedTo);
+        assertEquals("[\"etag-old-0\",\"etag-1\",\"etag-2\"]", api.committed);
+        assertFalse(checkpointFile.exists());
+    }
+
+    @Test
+    public void changedFileStartsNewUpload() throws Exception {
+        TransferCheckpoint checkpoint = validCheckpoint();
+
+        checkpoint.put("part.0", "etag-old-0");
+        checkpoint.put("fileModified", file.lastModified() - 1000L);
+        checkpoint.save();
+        upload();
+
+        assertEquals(1, api.created.size());
+        assertSent(0, 1, 2);
+        assertEquals("[\"etag-0\",\"etag-1\",\"etag-2\"]", api.committed);
+    }
+
+    @Test
+    public void changedPartSizeStartsNewUpload() throws Exception {
+        TransferCheckpoint checkpoint = validCheckpoint();
+
+        checkpoint.put("part.0", "etag-old-0");
+        checkpoint.put("partSize", 2 * PART);
+        checkpoint.save();
+        upload();
+
+        assertEquals(1, api.created.size());
+        assertSent(0, 1, 2);
+    }
+
+    @Test
+    public void finishedUploadIsNotResumed() throws Exception {
+        TransferCheckpoint checkpoint = validCheckpoint();
+
+        checkpoint.put("part.0", "etag-old-0");
+        checkpoint.save();
+        api.state = "done";
+        upload();
+
+        assertEquals(1, api.created.size());
+        assertSent(0, 1, 2);
+        assertEquals("/account/uploads/new", api.committedTo);
+    }
+
+    @Test
+    public void retryableFailureKeepsUploadToResume() throws Exception {
+        api.commitError = new CloudException(new IOException("Connection reset"));
+        try {
+            upload();
+            fail("The commit should have failed");
+        }
+        catch( CloudException expected ) {
+            // kept for the next attempt
+        }
+        assertTrue(api.aborted.isEmpty());
+        TransferCheckpoint left = TransferCheckpoint.open(checkpointFile);
+
+        assertTrue(left.matches("partsDirectory", "/account/uploads/new"));
+        assertTrue(left.matches("part.2", "etag-2"));
+    }
+
+    @Test
+    public void permanentFailureAbortsUpload() throws Exception {
+        api.commitError = new CloudException("Invalid part ETag");
+        try {
+            upload();
+            fail("The commit should have failed");
+        }
+        catch( CloudException expected ) {
+            // nothing left to resume
+        }
+        assertEquals(Collections.singletonList("/account/uploads/new"), api.aborted);
+        assertFalse(checkpointFile.exists());
+    }
+
+    private @Nonnull TransferCheckpoint validCheckpoint() {
+        TransferCheckpoint checkpoint = TransferCheckpoint.open(checkpointFile);
+
+        checkpoint.put("objectPath", PATH);
+        checkpoint.put("fileLength", file.length());
+        checkpoint.put("fileModified", file.lastModified());
+        checkpoint.put("partSize", PART);
+        checkpoint.put("partsDirectory", OLD);
+        return checkpoint;
+    }
+
+    private void upload() throws Exception {
+        new MultipartUploader(api, workers, PART, 2).upload(file, PATH, null, new BandwidthLimiter(0L, null), TransferCheckpoint.open(checkpointFile));
+    }
+
+    private void assertSent(Integer ... partNumbers) {
+        List<Integer> expected = new ArrayList<Integer>();
+
+        Collections.addAll(expected, partNumbers);
+        assertEquals(expected, new ArrayList<Integer>(api.parts.keySet()));
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.joyent.storage;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the cache of where Manta paths were last found.
+ */
+public class PathVisibilityCacheTest {
+    private long                now;
+    private PathVisibilityCache cache;
+
+    @Before
+    public void setUp() {
+        now = 1000L;
+        cache = new PathVisibilityCache() {
+            @Override
+            long now() {
+                return now;
+            }
+        };
+    }
+
+    @Test
+    public void remembersVisibility() {
+        cache.put("/bucket", PathVisibilityCache.Visibility.PUBLIC);
+        cache.put("/bucket/object", PathVisibilityCache.Visibility.PRIVATE);
+        assertEquals(PathVisibilityCache.Visibility.PUBLIC, cache.get("/bucket"));
+        assertEquals(PathVisibilityCache.Visibility.PUBLIC, cache.get("/bucket/"));
+        assertEquals(PathVisibilityCache.Visibility.PRIVATE, cache.get("/bucket/object"));
+        assertNull(cache.get("/other"));
+    }
+
+    @Test
+    public void missingPathsExpireFirst() {
+        cache.put("/found", PathVisibilityCache.Visibility.PRIVATE);
+        cache.put("/missing", PathVisibilityCache.Visibility.MISSING);
+        now += PathVisibilityCache.NEGATIVE_TTL;
+        assertNull(cache.get("/missing"));
+        assertEquals(PathVisibilityCache.Visibility.PRIVATE, cache.get("/found"));
+        now += PathVisibilityCache.POSITIVE_TTL;
+        assertNull(cache.get("/found"));
+    }
+
+    @Test
+    public void invalidateRemovesSubtree() {
+        cache.put("/bucket", PathVisibilityCache.Visibility.PRIVATE);
+        cache.put("/bucket/a", PathVisibilityCache.Visibility.PRIVATE);
+        cache.put("/bucket/a/b", PathVisibilityCache.Visibility.PRIVATE);
+        cache.put("/bucket2", PathVisibilityCache.Visibility.PRIVATE);
+        cache.invalidate("/bucket");
+        assertNull(cache.get("/bucket"));
+        assertNull(cache.get("/bucket/a"));
+        assertNull(cache.get("/bucket/a/b"));
+        assertEquals(PathVisibilityCache.Visibility.PRIVATE, cache.get("/bucket2"));
+    }
+}
@@ -0,0 +1,269 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+package org.dasein.cloud.joyent.storage;
+
+import org.dasein.cloud.CloudException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for resuming and retrying ranged downloads against an in-memory object.
+ */
+public class RangedDownloaderTest {
+    static private final int    RANGE = 64 * 1024;
+    static private final String PATH  = "/account/stor/object";
+    static private final String ETAG  = "etag-2";
+
+    private byte[]             data;
+    private final List<long[]> requests = new ArrayList<long[]>();
+    private long               failAt = -1L;
+    private long               breakAt = -1L;
+    private InputStream        firstRange;
+    private ExecutorService    workers;
+    private File               file;
+    private File               checkpointFile;
+
+    @Before
+    public void setUp() throws Exception {
+        data = new byte[4 * RANGE + 1000];
+        for( int i = 0; i < data.length; i++ ) {
+            data[i] = ( byte ) ( i * 31 );
+        }
+        workers = Executors.newFixedThreadPool(2);
+        file = File.createTempFile("download", ".bin");
+        checkpointFile = new File(file.getPath() + ".manta-download");
+    }
+
+    @After
+    public void tearDown() {
+        workers.shutdownNow();
+        file.delete();
+        checkpointFile.delete();
+    }
+
+    @Test
+    public void downloadsEveryRangeAndDeletesCheckpoint() throws Exception {
+        download(TransferCheckpoint.open(checkpointFile));
+
+        assertArrayEquals(data, read(file));
+        assertRequests(0, RANGE, RANGE, RANGE, 2 * RANGE, RANGE, 3 * RANGE, RANGE, 4 * RANGE, 1000);
+        assertFalse(checkpointFile.exists());
+    }
+
+    @Test
+    public void firstRangeInHandIsNotRequestedAgain() throws Exception {
+        firstRange = new ByteArrayInputStream(data, 0, RANGE);
+        download(null);
+
+        assertArrayEquals(data, read(file));
+        assertRequests(RANGE, RANGE, 2 * RANGE, RANGE, 3 * RANGE, RANGE, 4 * RANGE, 1000);
+    }
+
+    @Test
+    public void totalLengthFromContentRange() {
+        assertEquals(4096L, RangedDownloader.getTotalLength("bytes 0-1023/4096"));
+        assertEquals(-1L, RangedDownloader.getTotalLength("bytes 0-1023/*"));
+        assertEquals(-1L, RangedDownloader.getTotalLength(null));
+    }
+
+    @Test
+    public void resumeRestartsPartialRangesAfterWrittenBytes() throws Exception {
+        byte[] partial = new byte[data.length];
+
+        System.arraycopy(data, 0, partial, 0, 1000);
+        System.arraycopy(data, RANGE, partial, RANGE, RANGE);
+        System.arraycopy(data, 2 * RANGE, partial, 2 * RANGE, 5000);
+        write(file, partial);
+        TransferCheckpoint checkpoint = validCheckpoint();
+
+        checkpoint.put("range.0", 1000L);
+        checkpoint.put("range.1", ( long ) RANGE);
+        checkpoint.put("range.2", 5000L);
+        checkpoint.save();
+        // the response in hand starts at the first byte, which is already written
+        firstRange = new ByteArrayInputStream(data, 0, RANGE);
+        download(TransferCheckpoint.open(checkpointFile));
+
+        assertArrayEquals(data, read(file));
+        assertRequests(1000, RANGE - 1000, 2 * RANGE + 5000, RANGE - 5000, 3 * RANGE, RANGE, 4 * RANGE, 1000);
+        assertFalse(checkpointFile.exists());
+    }
+
+    @Test
+    public void changedEtagClearsCheckpoint() throws Exception {
+        assertStartsOver("etag", "etag-1");
+    }
+
+    @Test
+    public void changedLengthClearsCheckpoint() throws Exception {
+        assertStartsOver("length", data.length + 1L);
+    }
+
+    @Test
+    public void changedRangeSizeClearsCheckpoint() throws Exception {
+        assertStartsOver("rangeSize", 2L * RANGE);
+    }
+
+    @Test
+    public void retriedRangeContinuesAfterWrittenBytes() throws Exception {
+        breakAt = RANGE + 1000L;
+        download(TransferCheckpoint.open(checkpointFile));
+
+        assertArrayEquals(data, read(file));
+        assertRequests(0, RANGE, RANGE, RANGE, RANGE + 1000, RANGE - 1000, 2 * RANGE, RANGE, 3 * RANGE, RANGE, 4 * RANGE, 1000);
+    }
+
+    /**
+     * Leaves a checkpoint that would let two ranges be skipped but for one changed value, and checks that the
+     * download fetches every range from its start and records only its own progress.
+     */
+    private void assertStartsOver(@Nonnull String key, @Nonnull Object value) throws Exception {
+        write(file, data);
+        TransferCheckpoint checkpoint = validCheckpoint();
+
+        checkpoint.put("range.0", ( long ) RANGE);
+        checkpoint.put("range.3", ( long ) RANGE);
+        checkpoint.put(key, value);
+        checkpoint.save();
+        failAt = 2 * RANGE;
+        try {
+            download(TransferCheckpoint.open(checkpointFile));
+            fail("The third range should have failed");
+        }
+        catch( CloudException expected ) {
+            // the checkpoint stays to resume from
+        }
+        assertRequests(0, RANGE, RANGE, RANGE, 2 * RANGE, RANGE);
+        TransferCheckpoint left = TransferCheckpoint.open(checkpointFile);
+
+        assertTrue(left.matches("etag", ETAG));
+        assertTrue(left.matches("length", ( long ) data.length));
+        assertTrue(left.matches("rangeSize", ( long ) RANGE));
+        assertEquals(RANGE, left.getLong("range.0", 0L));
+        assertEquals(RANGE, left.getLong("range.1", 0L));
+        assertEquals(0L, left.getLong("range.3", 0L));
+    }
+
+    private @Nonnull TransferCheckpoint validCheckpoint() {
+        TransferCheckpoint checkpoint = TransferCheckpoint.open(checkpointFile);
+
+        checkpoint.put("objectPath", PATH);
+        checkpoint.put("etag", ETAG);
+        checkpoint.put("length", ( long ) data.length);
+        checkpoint.put("rangeSize", ( long ) RANGE);
+        return checkpoint;
+    }
+
+    private void download(@Nullable TransferCheckpoint checkpoint) throws Exception {
+        RangedDownloader downloader = new RangedDownloader(new RangedDownloader.RangeSource() {
+            @Override
+            public @Nonnull InputStream open(@Nonnull String objectPath, @Nullable String etag, long offset, long length) throws CloudException {
+                assertEquals(PATH, objectPath);
+                assertEquals(ETAG, etag);
+                synchronized( requests ) {
+                    requests.add(new long[] { offset, length });
+                }
+                if( offset == failAt ) {
+                    throw new CloudException("Range at " + offset + " refused");
+                }
+                InputStream in = new ByteArrayInputStream(data, ( int ) offset, ( int ) length);
+
+                if( offset < breakAt && breakAt < offset + length ) {
+                    final long limit = breakAt - offset;
+
+                    breakAt = -1L;
+                    return new FilterInputStream(in) {
+                        private long read;
+
+                        @Override
+                        public int read(@Nonnull byte[] b, int off, int len) throws IOException {
+                            if( read >= limit ) {
+                                throw new IOException("Connection reset");
+                            }
+                            int n = super.read(b, off, ( int ) Math.min(len, limit - read));
+
+                            read += n;
+                            return n;
+                        }
+                    };
+                }
+                return in;
+            }
+        }, workers, RANGE, 1);
+
+        downloader.download(PATH, data.length, ETAG, null, firstRange, file, null, new BandwidthLimiter(0L, null), checkpoint);
+    }
+
+    private void assertRequests(long ... expected) {
+        List<Long> actual = new ArrayList<Long>();
+
+        for( long[] request : requests ) {
+            actual.add(request[0]);
+            actual.add(request[1]);
+        }
+        List<Long> wanted = new ArrayList<Long>();
+
+        for( long value : expected ) {
+            wanted.add(value);
+        }
+        assertEquals(wanted, actual);
+    }
+
+    static private void write(@Nonnull File file, @Nonnull byte[] content) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+        try {
+            raf.setLength(0L);
+            raf.write(content);
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    static private @Nonnull byte[] read(@Nonnull File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+        try {
+            byte[] content = new byte[( int ) raf.length()];
+
+            raf.readFully(content);
+            return content;
+        }
+        finally {
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.joyent.storage;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the request bodies that stream from files, channels and buffers.
+ */
+public class StreamingEntityTest {
+    private File   file;
+    private byte[] data;
+
+    @Before
+    public void setUp() throws Exception {
+        data = new byte[200000];
+        for( int i = 0; i < data.length; i++ ) {
+            data[i] = ( byte ) ( i * 31 );
+        }
+        file = File.createTempFile("entity", ".bin");
+        FileOutputStream out = new FileOutputStream(file);
+
+        try {
+            out.write(data);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void filePartWritesItsRange() throws Exception {
+        FilePartEntity entity = new FilePartEntity(file, 1000, 150000);
+
+        assertEquals(150000, entity.getContentLength());
+        assertArrayEquals(Arrays.copyOfRange(data, 1000, 151000), write(entity));
+        assertArrayEquals(Arrays.copyOfRange(data, 1000, 151000), IOUtils.toByteArray(entity.getContent()));
+    }
+
+    @Test
+    public void channelRegionIsRepeatableAndLeavesPosition() throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+        try {
+            FileChannel channel = raf.getChannel();
+            FileChannelEntity entity = new FileChannelEntity(channel, 70000, 100000);
+
+            channel.position(5);
+            assertArrayEquals(Arrays.copyOfRange(data, 70000, 170000), write(entity));
+            assertArrayEquals(Arrays.copyOfRange(data, 70000, 170000), write(entity));
+            assertArrayEquals(Arrays.copyOfRange(data, 70000, 170000), IOUtils.toByteArray(entity.getContent()));
+            assertEquals(5, channel.position());
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    @Test
+    public void buffersWriteRemainingBytesOnly() throws Exception {
+        ByteBuffer heap = ByteBuffer.wrap(data, 10, 5000);
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+
+        direct.put(data).flip();
+        direct.position(100);
+        assertArrayEquals(Arrays.copyOfRange(data, 10, 5010), write(new ByteBufferEntity(heap)));
+        assertArrayEquals(Arrays.copyOfRange(data, 100, data.length), write(new ByteBufferEntity(direct)));
+        assertArrayEquals(Arrays.copyOfRange(data, 100, data.length), IOUtils.toByteArray(new ByteBufferEntity(direct).getContent()));
+        assertEquals(10, heap.position());
+        assertEquals(100, direct.position());
+    }
+
+    @Test
+    public void mappedBuffer() throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+        try {
+            MappedByteBuffer mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, data.length);
+
+            assertArrayEquals(data, write(new ByteBufferEntity(mapped)));
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    static private byte[] write(org.apache.http.HttpEntity entity) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        entity.writeTo(out);
+        return out.toByteArray();
+    }
+}
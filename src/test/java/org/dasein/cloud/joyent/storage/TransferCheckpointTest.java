@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+package org.dasein.cloud.joyent.storage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the on-disk state of resumable Manta transfers.
+ */
+public class TransferCheckpointTest {
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("checkpoint", ".manta-upload");
+        assertTrue(file.delete());
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void savedValuesAreReadBack() {
+        TransferCheckpoint checkpoint = TransferCheckpoint.open(file);
+
+        checkpoint.put("etag", "abc");
+        checkpoint.put("part.0", 42L);
+        checkpoint.save();
+
+        TransferCheckpoint reopened = TransferCheckpoint.open(file);
+
+        assertTrue(reopened.matches("etag", "abc"));
+        assertFalse(reopened.matches("etag", "def"));
+        assertFalse(reopened.matches("etag", null));
+        assertEquals(42L, reopened.getLong("part.0", 0L));
+        assertEquals(7L, reopened.getLong("part.1", 7L));
+    }
+
+    @Test
+    public void deleteRemovesFile() {
+        TransferCheckpoint checkpoint = TransferCheckpoint.open(file);
+
+        checkpoint.put("etag", "abc");
+        checkpoint.save();
+        assertTrue(file.exists());
+        checkpoint.delete();
+        assertFalse(file.exists());
+        assertNull(TransferCheckpoint.open(file).get("etag"));
+    }
+
+    @Test
+    public void savedOnlyOnceWritten() {
+        TransferCheckpoint checkpoint = TransferCheckpoint.open(file);
+
+        assertFalse(checkpoint.isSaved());
+        checkpoint.put("etag", "abc");
+        checkpoint.save();
+        assertTrue(checkpoint.isSaved());
+        checkpoint.delete();
+        assertFalse(checkpoint.isSaved());
+    }
+
+    @Test
+    public void unwritableIsNotSaved() {
+        TransferCheckpoint checkpoint = TransferCheckpoint.open(new File(file, "missing/checkpoint"));
+
+        checkpoint.put("etag", "abc");
+        checkpoint.save();
+        assertFalse(checkpoint.isSaved());
+    }
+
+    @Test
+    public void corruptFileIsIgnored() throws Exception {
+        OutputStream out = new FileOutputStream(file);
+
+        try {
+            out.write("etag=\\u00zz\n".getBytes("ISO-8859-1"));
+        }
+        finally {
+            out.close();
+        }
+        assertNull(TransferCheckpoint.open(file).get("etag"));
+    }
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.joyent.storage;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the JVM-wide ordering and limiting of Manta transfers.
+ */
+public class TransferSchedulerTest {
+    private TransferScheduler scheduler;
+    private String            account;
+
+    @Before
+    public void setUp() {
+        scheduler = TransferScheduler.getInstance();
+        account = "test|" + System.nanoTime();
+        scheduler.setAccountLimit(account, 1);
+    }
+
+    @Test
+    public void higherPriorityGoesFirst() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(3);
+        final List<String> order = new CopyOnWriteArrayList<String>();
+
+        // the account's only slot is taken so the others queue up
+        scheduler.submit(account, MantaTransfer.Priority.NORMAL, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                }
+                catch( InterruptedException ignore ) {
+                }
+            }
+        });
+        long background = scheduler.getDispatched(MantaTransfer.Priority.BACKGROUND);
+
+        for( final MantaTransfer.Priority p : new MantaTransfer.Priority[] { MantaTransfer.Priority.BACKGROUND, MantaTransfer.Priority.NORMAL, MantaTransfer.Priority.INTERACTIVE } ) {
+            scheduler.submit(account, p, new Runnable() {
+                @Override
+                public void run() {
+                    order.add(p.name());
+                    finished.countDown();
+                }
+            });
+        }
+        assertTrue(scheduler.getQueueDepth(MantaTransfer.Priority.BACKGROUND) >= 1);
+        release.countDown();
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertEquals("[INTERACTIVE, NORMAL, BACKGROUND]", order.toString());
+        assertEquals(background + 1, scheduler.getDispatched(MantaTransfer.Priority.BACKGROUND));
+        assertTrue(scheduler.getMaxWaitMillis(MantaTransfer.Priority.BACKGROUND) >= 0L);
+    }
+
+    @Test
+    public void nestedAcquireDoesNotWait() throws Exception {
+        assertTrue(scheduler.acquire(account, MantaTransfer.Priority.INTERACTIVE));
+        try {
+            // the account limit is 1, so queueing again would wait forever
+            assertFalse(scheduler.acquire(account, MantaTransfer.Priority.INTERACTIVE));
+        }
+        finally {
+            scheduler.release(account);
+        }
+        assertTrue(scheduler.acquire(account, MantaTransfer.Priority.NORMAL));
+        scheduler.release(account);
+    }
+
+    @Test
+    public void interruptedWaiterGivesUpItsPlace() throws Exception {
+        assertTrue(scheduler.acquire(account, MantaTransfer.Priority.NORMAL));
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        Thread waiter = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    scheduler.acquire(account, MantaTransfer.Priority.NORMAL);
+                }
+                catch( InterruptedException e ) {
+                    interrupted.countDown();
+                }
+            }
+        };
+
+        waiter.start();
+        Thread.sleep(100L);
+        waiter.interrupt();
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        scheduler.release(account);
+
+        final CountDownLatch ran = new CountDownLatch(1);
+
+        scheduler.submit(account, MantaTransfer.Priority.NORMAL, new Runnable() {
+            @Override
+            public void run() {
+                ran.countDown();
+            }
+        });
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+    }
+}
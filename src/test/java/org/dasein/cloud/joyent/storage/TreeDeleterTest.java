@@ -0,0 +1,187 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+package org.dasein.cloud.joyent.storage;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.storage.Blob;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the bottom-up removal of directory trees against an in-memory tree.
+ */
+public class TreeDeleterTest {
+    private ExecutorService workers;
+    private FakeTree        tree;
+
+    /**
+     * Directories listed from fixed pages, where the marker is the number of the next page.
+     */
+    static private class FakeTree implements TreeDeleter.Tree {
+        final Map<String,List<List<Blob>>> directories  = new HashMap<String,List<List<Blob>>>();
+        final Set<String>                  failingPages = new HashSet<String>();
+        final Set<String>                  failing      = new HashSet<String>();
+        final List<String>                 deleted      = Collections.synchronizedList(new ArrayList<String>());
+
+        void directory(@Nonnull String path, @Nonnull Blob[] ... pages) {
+            List<List<Blob>> list = new ArrayList<List<Blob>>();
+
+            for( Blob[] page : pages ) {
+                list.add(Arrays.asList(page));
+            }
+            directories.put(path, list);
+        }
+
+        @Override
+        public @Nonnull DirectoryListing.Page fetch(@Nonnull String path, @Nullable String marker) throws CloudException {
+            List<List<Blob>> pages = directories.get(path);
+            int index = ( marker == null ? 0 : Integer.parseInt(marker) );
+
+            if( pages == null ) {
+                throw new CloudException("No such directory: " + path);
+            }
+            if( failingPages.contains(path + "#" + index) ) {
+                throw new CloudException("Unable to list page " + index + " of " + path);
+            }
+            return new DirectoryListing.Page(path, pages.get(index), String.valueOf(index + 1), index + 1 >= pages.size());
+        }
+
+        @Override
+        public void delete(@Nonnull String path) throws CloudException {
+            if( failing.contains(path) ) {
+                throw new CloudException("Permission denied: " + path);
+            }
+            deleted.add(path);
+        }
+    }
+
+    @Before
+    public void setUp() {
+        workers = Executors.newFixedThreadPool(4);
+        tree = new FakeTree();
+        tree.directory("/a/stor/root", entries(directory("x"), object("f1"), directory("y")));
+        tree.directory("/a/stor/root/x", entries(directory("z"), object("f2")));
+        tree.directory("/a/stor/root/x/z", entries(object("f3"), object("f4")));
+        tree.directory("/a/stor/root/y", entries(object("f5")));
+    }
+
+    @After
+    public void tearDown() {
+        workers.shutdownNow();
+    }
+
+    @Test
+    public void nestedDirectoriesAreRemovedBottomUp() throws Exception {
+        TreeDeleter deleter = new TreeDeleter(tree, workers, 2);
+
+        deleter.delete("/a/stor/root");
+        assertEquals(5L, deleter.getDeletedObjects());
+        assertEquals(4L, deleter.getDeletedDirectories());
+        assertEquals(9, tree.deleted.size());
+        assertBefore("/a/stor/root/x/z/f3", "/a/stor/root/x/z");
+        assertBefore("/a/stor/root/x/z/f4", "/a/stor/root/x/z");
+        assertBefore("/a/stor/root/x/z", "/a/stor/root/x");
+        assertBefore("/a/stor/root/x/f2", "/a/stor/root/x");
+        assertBefore("/a/stor/root/y/f5", "/a/stor/root/y");
+        assertEquals("/a/stor/root", tree.deleted.get(tree.deleted.size() - 1));
+    }
+
+    @Test
+    public void failingLeafKeepsItsAncestors() throws Exception {
+        tree.failing.add("/a/stor/root/x/z/f3");
+        try {
+            new TreeDeleter(tree, workers, 2).delete("/a/stor/root");
+            fail("The failed object should have been reported");
+        }
+        catch( CloudException e ) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Unable to delete 1 entries"));
+            assertTrue(e.getMessage(), e.getMessage().contains("/a/stor/root/x/z/f3"));
+        }
+        assertTrue(tree.deleted.containsAll(Arrays.asList("/a/stor/root/x/z/f4", "/a/stor/root/x/f2", "/a/stor/root/f1", "/a/stor/root/y/f5", "/a/stor/root/y")));
+        assertFalse(tree.deleted.contains("/a/stor/root/x/z"));
+        assertFalse(tree.deleted.contains("/a/stor/root/x"));
+        assertFalse(tree.deleted.contains("/a/stor/root"));
+    }
+
+    @Test
+    public void failedSecondPageKeepsDirectory() throws Exception {
+        tree.directory("/a/stor/root/y", entries(object("f5"), object("f6")), entries(object("f7")));
+        tree.failingPages.add("/a/stor/root/y#1");
+        try {
+            new TreeDeleter(tree, workers, 2).delete("/a/stor/root");
+            fail("The failed listing should have been reported");
+        }
+        catch( CloudException e ) {
+            assertTrue(e.getMessage(), e.getMessage().contains("/a/stor/root/y"));
+        }
+        assertTrue(tree.deleted.containsAll(Arrays.asList("/a/stor/root/y/f5", "/a/stor/root/y/f6", "/a/stor/root/x", "/a/stor/root/f1")));
+        assertFalse(tree.deleted.contains("/a/stor/root/y/f7"));
+        assertFalse(tree.deleted.contains("/a/stor/root/y"));
+        assertFalse(tree.deleted.contains("/a/stor/root"));
+    }
+
+    @Test
+    public void missingRootDeletesNothing() throws Exception {
+        try {
+            new TreeDeleter(tree, workers, 2).delete("/a/stor/missing");
+            fail("The missing root should have been reported");
+        }
+        catch( CloudException expected ) {
+            // reported as is
+        }
+        assertTrue(tree.deleted.isEmpty());
+    }
+
+    private void assertBefore(@Nonnull String first, @Nonnull String second) {
+        int i = tree.deleted.indexOf(first);
+        int j = tree.deleted.indexOf(second);
+
+        assertTrue(first + " was not deleted", i >= 0);
+        assertTrue(second + " was not deleted", j >= 0);
+        assertTrue(first + " was deleted after " + second, i < j);
+    }
+
+    static private @Nonnull Blob[] entries(@Nonnull Blob ... blobs) {
+        return blobs;
+    }
+
+    static private @Nonnull Blob directory(@Nonnull String name) {
+        return Blob.getInstance("", "", name, 0L);
+    }
+
+    static private @Nonnull Blob object(@Nonnull String name) {
+        return Blob.getInstance("", "", "", name, 0L, null);
+    }
+}
@@ -0,0 +1,177 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.joyent.storage;
+
+import com.google.api.client.http.AbstractInputStreamContent;
+import com.google.api.client.http.ByteArrayContent;
+import com.google.api.client.http.FileContent;
+import org.apache.http.HttpEntity;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+/**
+ * Compares the request bodies the Manta client library builds for files and strings with the channel and buffer
+ * entities, writing each payload to a stream that discards it so only the cost of producing the body is measured.
+ * Prints throughput and the garbage collections each path caused. Not a unit test; run it with
+ * {@code java -cp <test classpath> org.dasein.cloud.joyent.storage.UploadEntityBenchmark [megabytes]}.
+ */
+public class UploadEntityBenchmark {
+    static private final int ROUNDS = 5;
+
+    static private class NullOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    static private abstract class Body {
+        final String name;
+
+        Body(String name) {
+            this.name = name;
+        }
+
+        abstract void writeTo(OutputStream out) throws Exception;
+    }
+
+    public static void main(String... args) throws Exception {
+        int megabytes = ( args.length > 0 ? Integer.parseInt(args[0]) : 256 );
+        byte[] data = new byte[megabytes * 1024 * 1024];
+        File file = File.createTempFile("benchmark", ".bin");
+
+        new Random(42).nextBytes(data);
+        FileOutputStream fos = new FileOutputStream(file);
+
+        try {
+            fos.write(data);
+        }
+        finally {
+            fos.close();
+        }
+        final File source = file;
+        final String text = new String(data, "ISO-8859-1");
+        final ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        final FileChannel channel = raf.getChannel();
+        final ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, data.length);
+
+        direct.put(data).flip();
+        data = null;
+        try {
+            Body[] bodies = new Body[] {
+                    new Body("file, current (FileContent)") {
+                        void writeTo(OutputStream out) throws Exception {
+                            write(new FileContent("application/octet-stream", source), out);
+                        }
+                    },
+                    new Body("file, FileChannelEntity") {
+                        void writeTo(OutputStream out) throws Exception {
+                            new FileChannelEntity(channel, 0, source.length()).writeTo(out);
+                        }
+                    },
+                    new Body("file, mapped ByteBufferEntity") {
+                        void writeTo(OutputStream out) throws Exception {
+                            new ByteBufferEntity(mapped).writeTo(out);
+                        }
+                    },
+                    new Body("memory, current (String)") {
+                        void writeTo(OutputStream out) throws Exception {
+                            write(ByteArrayContent.fromString("application/octet-stream", text), out);
+                        }
+                    },
+                    new Body("memory, direct ByteBufferEntity") {
+                        void writeTo(OutputStream out) throws Exception {
+                            HttpEntity entity = new ByteBufferEntity(direct);
+
+                            entity.writeTo(out);
+                        }
+                    }
+            };
+
+            for( Body body : bodies ) {
+                run(body, 1);
+            }
+            System.out.println(String.format("%-32s %10s %8s %10s", "path", "MB/s", "GCs", "GC ms"));
+            for( Body body : bodies ) {
+                run(body, ROUNDS);
+            }
+        }
+        finally {
+            raf.close();
+            file.delete();
+        }
+    }
+
+    static private void run(Body body, int rounds) throws Exception {
+        long gcCount = gcCount(), gcTime = gcTime();
+        long bytes = 0;
+        long start = System.nanoTime();
+
+        for( int i = 0; i < rounds; i++ ) {
+            NullOutputStream out = new NullOutputStream();
+
+            body.writeTo(out);
+            bytes += out.count;
+        }
+        long elapsed = System.nanoTime() - start;
+
+        if( rounds > 1 ) {
+            System.out.println(String.format("%-32s %10.1f %8d %10d", body.name, ( bytes / 1048576.0 ) / ( elapsed / 1e9 ), gcCount() - gcCount, gcTime() - gcTime));
+        }
+    }
+
+    static private void write(AbstractInputStreamContent content, OutputStream out) throws Exception {
+        content.writeTo(out);
+    }
+
+    static private long gcCount() {
+        long total = 0;
+
+        for( GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans() ) {
+            total += Math.max(0, bean.getCollectionCount());
+        }
+        return total;
+    }
+
+    static private long gcTime() {
+        long total = 0;
+
+        for( GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans() ) {
+            total += Math.max(0, bean.getCollectionTime());
+        }
+        return total;
+    }
+}